@@ -0,0 +1,99 @@
+//Fixed-size set of small non-negative ints (SKUs), one bit each in an array of longs
+//Set operations work a word at a time, so combining two bitmaps over a million SKUs
+//touches about 16k words
+
+import java.util.Arrays;
+
+public final class Bitmap {
+    private final long[] words;
+    private final int size; //Number of bits; valid ints are 0 to size - 1
+
+    public Bitmap(int initSize) {
+        size = initSize;
+        words = new long[(initSize + 63) >>> 6];
+    }
+
+    private Bitmap(int initSize, long[] initWords) {
+        size = initSize;
+        words = initWords;
+    }
+
+    //Returns a bitmap with every int from 0 to size - 1 set
+    public static Bitmap full(int size) {
+        Bitmap all = new Bitmap(size);
+        Arrays.fill(all.words, -1L);
+        int tail = size & 63;
+        if (tail != 0) all.words[all.words.length - 1] = (1L << tail) - 1;
+        return all;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void set(int index) {
+        words[index >>> 6] |= 1L << index;
+    }
+
+    public boolean get(int index) {
+        return index >= 0 && index < size && (words[index >>> 6] & (1L << index)) != 0;
+    }
+
+    public Bitmap copy() {
+        return new Bitmap(size, words.clone());
+    }
+
+    //Keeps only the ints also in other
+    public void and(Bitmap other) {
+        for (int i = 0; i < words.length; i++) {
+            words[i] &= other.words[i];
+        }
+    }
+
+    //Adds the ints in other
+    public void or(Bitmap other) {
+        for (int i = 0; i < words.length; i++) {
+            words[i] |= other.words[i];
+        }
+    }
+
+    //Removes the ints in other
+    public void andNot(Bitmap other) {
+        for (int i = 0; i < words.length; i++) {
+            words[i] &= ~other.words[i];
+        }
+    }
+
+    public void clear() {
+        Arrays.fill(words, 0);
+    }
+
+    public int cardinality() {
+        int count = 0;
+        for (long word : words) {
+            count += Long.bitCount(word);
+        }
+        return count;
+    }
+
+    //Returns how many ints are in both bitmaps, without building the intersection
+    public int andCardinality(Bitmap other) {
+        int count = 0;
+        for (int i = 0; i < words.length; i++) {
+            count += Long.bitCount(words[i] & other.words[i]);
+        }
+        return count;
+    }
+
+    //Returns the first int at or after from, or -1 if there is none
+    public int nextSetBit(int from) {
+        if (from >= size) return -1;
+        int index = from >>> 6;
+        long word = words[index] & (-1L << from);
+        while (true) {
+            if (word != 0) return (index << 6) + Long.numberOfTrailingZeros(word);
+            if (++index == words.length) return -1;
+            word = words[index];
+        }
+    }
+}
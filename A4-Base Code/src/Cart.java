@@ -0,0 +1,302 @@
+//Class representing a customer's cart
+//Holds soft reservations against the store's inventory: reserved units leave the sellable
+//stock right away but only count as sold when the cart is checked out. Lines that are not
+//touched for longer than the time-to-live are handed back to stock by a CartSweeper.
+//Lines are keyed by SKU and kept in the order they were first added; every line knows its
+//position, so a change can be shown by updating that one row.
+//A cart that is being checked out or abandoned is closed first: from then on it takes no new
+//units, so a request racing with the checkout cannot reserve units nobody will ever release
+
+import lombok.Getter;
+
+import java.io.UncheckedIOException;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+public class Cart {
+    @Getter
+    private final ElectronicStore store;
+    private final long ttlMillis;
+    private final Map<Integer, Entry> entriesBySku;
+    private final List<Entry> entries; //Lines in the order they were first added
+    private long totalCents; //Value of the lines at list price
+    private CartPricer pricer; //Discounts from the store's promotions, null while there are none
+    private Consumer<List<Product>> onExpired; //Notified with the products whose lines expired
+    private boolean closed; //Set once by close(); add and remove are refused afterwards
+
+    public Cart(ElectronicStore initStore, Duration ttl) {
+        store = initStore;
+        ttlMillis = ttl.toMillis();
+        entriesBySku = new HashMap<>();
+        entries = new ArrayList<>();
+        totalCents = 0;
+    }
+
+    //Sets the callback run (on the sweeper thread) after lines have expired
+    public synchronized void setOnExpired(Consumer<List<Product>> listener) {
+        onExpired = listener;
+    }
+
+    //Reserves one unit of the product and returns the position of its line
+    //Returns -1 if the product is out of stock or the cart is closed
+    public synchronized int add(Product product) {
+        if (closed || !product.reserveUnits(1)) return -1;
+        Entry entry = entriesBySku.get(product.getSku());
+        if (entry == null) {
+            entry = new Entry(product, entries.size());
+            entries.add(entry);
+            entriesBySku.put(product.getSku(), entry);
+        }
+        entry.quantity++;
+        entry.expiresAt = System.currentTimeMillis() + ttlMillis;
+        totalCents += product.getPriceCents();
+        CartPricer promotions = pricer();
+        if (promotions != null) promotions.update(product, entry.quantity);
+        return entry.position;
+    }
+
+    //Releases one reserved unit of the product and returns the position its line had
+    //Returns -1 if the cart held none or is closed
+    public synchronized int remove(Product product) {
+        Entry entry = entriesBySku.get(product.getSku());
+        if (closed || entry == null || !product.releaseReservedUnits(1)) return -1;
+        int position = entry.position;
+        if (--entry.quantity == 0) {
+            removeEntry(entry);
+        } else {
+            entry.expiresAt = System.currentTimeMillis() + ttlMillis;
+        }
+        totalCents -= product.getPriceCents();
+        CartPricer promotions = pricer();
+        if (promotions != null) promotions.update(product, entry.quantity);
+        return position;
+    }
+
+    //Commits every reservation as a sale, records the revenue with the store and empties the cart
+    //A line whose reservation is gone (a reset or a rewind drops every reservation) cannot be sold:
+    //it leaves the cart unpaid, and the promotions are priced on the lines that were sold.
+    //Returns the value of the checkout in cents, after promotions, or -1 if no line could be sold,
+    //in which case no checkout is recorded
+    public synchronized long checkout() {
+        return commit(null);
+    }
+
+    //Checks the cart out like checkout() and writes the lines that were sold to the given receipt store
+    //Returns the receipt, whose total is the checkout's value, or null if no line could be sold.
+    //A sale without a receipt could never be returned or reconciled, so if the receipt cannot be
+    //written (an UncheckedIOException, or an IllegalStateException once the store is full) the sale
+    //is taken back and the exception rethrown. Units a concurrent reset or rewind already took off
+    //the sold count cannot be taken back again, so only the units that were are refunded, at what
+    //was paid for them
+    public synchronized Receipt checkout(ReceiptStore receipts) {
+        List<Receipt.Line> sold = new ArrayList<>(entries.size());
+        long total = commit(sold);
+        if (total < 0) return null;
+        long subtotal = 0;
+        for (Receipt.Line line : sold) {
+            subtotal += line.totalCents();
+        }
+        try {
+            return receipts.append(sold, subtotal - total);
+        } catch (UncheckedIOException | IllegalStateException e) {
+            Receipt unwritten = new Receipt(0, System.currentTimeMillis(), subtotal - total, sold);
+            long undoneCents = 0; //List value of the units taken back
+            for (Receipt.Line line : sold) {
+                if (store.getProduct(line.sku()).undoSellOperation(line.quantity()) > 0) undoneCents += line.totalCents();
+            }
+            long refund = unwritten.netOf(undoneCents);
+            if (refund != 0) store.recordRefund(refund);
+            throw e;
+        }
+    }
+
+    //Commits the reservations, adding a line per product sold to sold if it is not null
+    private long commit(List<Receipt.Line> sold) {
+        SalesMetrics metrics = store.getMetrics();
+        long start = metrics != null ? System.nanoTime() : 0;
+        CheckoutEvent event = new CheckoutEvent();
+        event.begin();
+        CartPricer promotions = pricer();
+        long revenue = 0;
+        int lines = 0;
+        for (Entry entry : entries) {
+            if (entry.product.commitReserved(entry.quantity)) {
+                revenue += Money.times(entry.product.getPriceCents(), entry.quantity);
+                lines++;
+                if (sold != null) sold.add(new Receipt.Line(entry.product.getSku(), entry.quantity, entry.product.getPriceCents()));
+            } else if (promotions != null) {
+                promotions.update(entry.product, 0);
+            }
+        }
+        if (lines > 0) {
+            revenue -= promotions != null ? promotions.getDiscountCents() : 0;
+            store.recordCheckout(revenue);
+            event.lines = lines;
+            event.amountCents = revenue;
+            event.commit();
+        }
+        entries.clear();
+        entriesBySku.clear();
+        totalCents = 0;
+        if (pricer != null) pricer.clear();
+        if (metrics != null && lines > 0) metrics.getCheckoutLatency().recordSince(start);
+        return lines > 0 ? revenue : -1;
+    }
+
+    //Hands every reservation back to stock and empties the cart
+    public synchronized void clear() {
+        for (Entry entry : entries) {
+            entry.product.releaseReservedUnits(entry.quantity);
+        }
+        entries.clear();
+        entriesBySku.clear();
+        totalCents = 0;
+        if (pricer != null) pricer.clear();
+    }
+
+    //Closes the cart to further adds and removes; its lines stay until it is checked out or cleared
+    //Returns false if the cart was already closed, so only one caller gets to finish it
+    public synchronized boolean close() {
+        if (closed) return false;
+        closed = true;
+        return true;
+    }
+
+    //Closes the cart if it holds no lines, atomically with respect to add
+    public synchronized boolean closeIfEmpty() {
+        return entries.isEmpty() && close();
+    }
+
+    public synchronized boolean isClosed() {
+        return closed;
+    }
+
+    //Releases the lines whose time-to-live has passed and returns their products
+    public List<Product> expire(long now) {
+        List<Product> expired = new ArrayList<>();
+        Consumer<List<Product>> listener;
+        synchronized (this) {
+            int kept = 0;
+            for (Entry entry : entries) {
+                if (entry.expiresAt <= now) {
+                    entry.product.releaseReservedUnits(entry.quantity);
+                    totalCents -= Money.times(entry.product.getPriceCents(), entry.quantity);
+                    entriesBySku.remove(entry.product.getSku());
+                    if (pricer != null) pricer.update(entry.product, 0);
+                    expired.add(entry.product);
+                } else {
+                    entry.position = kept;
+                    entries.set(kept++, entry);
+                }
+            }
+            entries.subList(kept, entries.size()).clear();
+            listener = onExpired;
+        }
+        if (!expired.isEmpty() && listener != null) listener.accept(expired);
+        return expired;
+    }
+
+    //Returns the number of units of the product held by this cart
+    public synchronized int getQuantity(Product product) {
+        Entry entry = entriesBySku.get(product.getSku());
+        return entry != null ? entry.quantity : 0;
+    }
+
+    //Returns the number of lines in the cart
+    public synchronized int getLineCount() {
+        return entries.size();
+    }
+
+    //Returns the product's line, or null if the cart holds none of it
+    public synchronized Line getLine(Product product) {
+        Entry entry = entriesBySku.get(product.getSku());
+        return entry != null ? entry.toLine() : null;
+    }
+
+    //Returns the cart's lines in the order they were added
+    public synchronized List<Line> getLines() {
+        List<Line> lines = new ArrayList<>(entries.size());
+        for (Entry entry : entries) {
+            lines.add(entry.toLine());
+        }
+        return lines;
+    }
+
+    //Returns the value of the cart in cents, after promotions
+    public synchronized long getTotalCents() {
+        return totalCents - getDiscountCents();
+    }
+
+    //Returns how much the store's promotions take off the cart, in cents
+    public synchronized long getDiscountCents() {
+        CartPricer promotions = pricer();
+        return promotions != null ? promotions.getDiscountCents() : 0;
+    }
+
+    public synchronized boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    //Returns the pricer for the store's current promotions, re-pricing every line if they changed
+    private CartPricer pricer() {
+        PromotionTable table = store.getPromotions();
+        if (table == null) {
+            pricer = null;
+        } else if (pricer == null || pricer.getTable() != table) {
+            pricer = new CartPricer(table, Clock.systemUTC());
+            for (Entry entry : entries) {
+                pricer.update(entry.product, entry.quantity);
+            }
+        }
+        return pricer;
+    }
+
+    //Removing a line shifts the lines after it up, which is O(lines) rather than the O(1) of moving the
+    //last line into the gap: the cart is shown in the order products were added, and the view's own
+    //row removal shifts the same rows, so keeping the order costs no more than showing the change
+    private void removeEntry(Entry entry) {
+        entries.remove(entry.position);
+        entriesBySku.remove(entry.product.getSku());
+        for (int i = entry.position; i < entries.size(); i++) {
+            entries.get(i).position = i;
+        }
+    }
+
+    //A snapshot of one product in the cart together with the number of units reserved
+    @Getter
+    public static final class Line {
+        private final Product product;
+        private final int position; //Position of the line in the cart when the snapshot was taken
+        private final int quantity;
+        private final long expiresAt;
+
+        private Line(Product initProduct, int initPosition, int initQuantity, long initExpiresAt) {
+            product = initProduct;
+            position = initPosition;
+            quantity = initQuantity;
+            expiresAt = initExpiresAt;
+        }
+    }
+
+    //Mutable state of a line while it is in the cart
+    private static final class Entry {
+        private final Product product;
+        private int position;
+        private int quantity;
+        private long expiresAt;
+
+        private Entry(Product initProduct, int initPosition) {
+            product = initProduct;
+            position = initPosition;
+        }
+
+        private Line toLine() {
+            return new Line(product, position, quantity, expiresAt);
+        }
+    }
+}
@@ -0,0 +1,200 @@
+//Keeps the promotion discount of one cart up to date as its lines change
+//Each line remembers its percent-off discount per unit, and each buy-get rule the cart touches keeps
+//its trigger counts and the net prices of the units it can discount, sorted in primitive arrays. A line
+//change only re-prices that line and marks the buy-get rules of its pricing class; marked rules are
+//priced again when the discount is read, so a burst of changes prices each rule once. The cost does
+//not grow with the number of promotions. Everything is re-priced when a promotion starts or ends.
+//Not thread-safe; the cart calls it while holding its own lock
+
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+class CartPricer {
+    private final PromotionTable table;
+    private final Clock clock;
+    private final Map<Integer, PricedLine> lines; //Lines whose products some promotion applies to, by SKU
+    private Deal[] deals; //Per rule: its state if the cart's lines touched it, created on first use
+    private final List<Deal> changedDeals; //Deals whose discount is out of date
+    private long percentDiscountCents;
+    private long dealDiscountCents;
+    private long validUntil; //When the next promotion starts or ends
+
+    CartPricer(PromotionTable initTable, Clock initClock) {
+        table = initTable;
+        clock = initClock;
+        lines = new HashMap<>();
+        changedDeals = new ArrayList<>();
+        validUntil = table.nextChangeAfter(clock.millis());
+    }
+
+    PromotionTable getTable() {
+        return table;
+    }
+
+    //Called after the cart's quantity of the product changed to quantity (0 once the line is gone)
+    void update(Product product, int quantity) {
+        long now = refresh();
+        int cls = table.classOf(product.getSku());
+        if (!table.hasRules(cls)) return;
+        PricedLine line = lines.get(product.getSku());
+        if (line == null) {
+            if (quantity == 0) return;
+            line = new PricedLine(product, cls);
+            lines.put(product.getSku(), line);
+        }
+        setQuantity(line, quantity, now);
+        if (quantity == 0) lines.remove(product.getSku());
+    }
+
+    //Returns the cart's total discount in cents
+    long getDiscountCents() {
+        long now = refresh();
+        for (Deal deal : changedDeals) {
+            reprice(deal, now);
+        }
+        changedDeals.clear();
+        return percentDiscountCents + dealDiscountCents;
+    }
+
+    void clear() {
+        lines.clear();
+        deals = null;
+        changedDeals.clear();
+        percentDiscountCents = 0;
+        dealDiscountCents = 0;
+    }
+
+    //Re-prices everything if a promotion started or ended since the last pricing; returns the time
+    private long refresh() {
+        long now = clock.millis();
+        if (now >= validUntil) {
+            validUntil = table.nextChangeAfter(now);
+            deals = null;
+            changedDeals.clear();
+            percentDiscountCents = 0;
+            dealDiscountCents = 0;
+            for (PricedLine line : lines.values()) {
+                int quantity = line.quantity;
+                line.quantity = 0;
+                line.unitDiscountCents = 0;
+                setQuantity(line, quantity, now);
+            }
+        }
+        return now;
+    }
+
+    private void setQuantity(PricedLine line, int quantity, long now) {
+        long unitDiscount = Money.percentOf(line.product.getPriceCents(), table.bestPercent(line.cls, now));
+        percentDiscountCents += Money.times(unitDiscount, quantity) - Money.times(line.unitDiscountCents, line.quantity);
+        if (unitDiscount == line.unitDiscountCents) {
+            moveUnits(line, quantity - line.quantity);
+        } else {
+            //The units' net price changed, so they move to another price in every deal
+            moveUnits(line, -line.quantity);
+            line.unitDiscountCents = unitDiscount;
+            moveUnits(line, quantity);
+        }
+        line.quantity = quantity;
+    }
+
+    //Adds (or with a negative count, removes) the line's units to the buy-get rules of its class
+    private void moveUnits(PricedLine line, int units) {
+        if (units == 0) return;
+        int[] rules = table.dealRules(line.cls);
+        byte[] roles = table.dealRoles(line.cls);
+        long netPrice = line.product.getPriceCents() - line.unitDiscountCents;
+        if (rules.length > 0 && deals == null) deals = new Deal[table.getPromotions().size()];
+        for (int i = 0; i < rules.length; i++) {
+            Deal deal = deals[rules[i]];
+            if (deal == null) {
+                deal = new Deal(rules[i]);
+                deals[rules[i]] = deal;
+            }
+            switch (roles[i]) {
+                case PromotionTable.TRIGGER -> deal.triggers += units;
+                case PromotionTable.TARGET -> deal.targets += units;
+                default -> deal.either += units;
+            }
+            if ((roles[i] & PromotionTable.TARGET) != 0) deal.addUnits(netPrice, units);
+            if (!deal.changed) {
+                deal.changed = true;
+                changedDeals.add(deal);
+            }
+        }
+    }
+
+    private void reprice(Deal deal, long now) {
+        deal.changed = false;
+        dealDiscountCents -= deal.discountCents;
+        deal.discountCents = 0;
+        if (table.isActive(deal.rule, now)) {
+            //Every pair needs one trigger unit and one other target unit
+            int pairs = Math.min(Math.min(deal.triggers + deal.either, deal.targets + deal.either),
+                    (deal.triggers + deal.targets + deal.either) / 2);
+            int percent = table.percentOf(deal.rule);
+            for (int i = 0; i < deal.prices && pairs > 0; i++) {
+                int units = Math.min(pairs, deal.units[i]);
+                deal.discountCents += Money.times(Money.percentOf(deal.netPrices[i], percent), units);
+                pairs -= units;
+            }
+        }
+        dealDiscountCents += deal.discountCents;
+    }
+
+    private static final class PricedLine {
+        private final Product product;
+        private final int cls;
+        private int quantity;
+        private long unitDiscountCents; //Best percent-off discount on one unit
+
+        private PricedLine(Product initProduct, int initCls) {
+            product = initProduct;
+            cls = initCls;
+        }
+    }
+
+    //Units in the cart that one buy-get rule can pair up
+    private static final class Deal {
+        private final int rule;
+        private int triggers; //Units that can only trigger the rule
+        private int targets; //Units that can only be discounted
+        private int either; //Units that match both sides
+        private long[] netPrices = new long[4]; //Distinct prices after percent off of the discountable units, ascending
+        private int[] units = new int[4]; //Discountable units at each of those prices
+        private int prices;
+        private long discountCents;
+        private boolean changed; //Queued in changedDeals
+
+        private Deal(int initRule) {
+            rule = initRule;
+        }
+
+        //Adds (or with a negative count, removes) units at the given price
+        private void addUnits(long price, int count) {
+            int i = Arrays.binarySearch(netPrices, 0, prices, price);
+            if (i >= 0) {
+                units[i] += count;
+                if (units[i] == 0) {
+                    System.arraycopy(netPrices, i + 1, netPrices, i, prices - i - 1);
+                    System.arraycopy(units, i + 1, units, i, prices - i - 1);
+                    prices--;
+                }
+                return;
+            }
+            i = -i - 1;
+            if (prices == netPrices.length) {
+                netPrices = Arrays.copyOf(netPrices, prices * 2);
+                units = Arrays.copyOf(units, prices * 2);
+            }
+            System.arraycopy(netPrices, i, netPrices, i + 1, prices - i);
+            System.arraycopy(units, i, units, i + 1, prices - i);
+            netPrices[i] = price;
+            units[i] = count;
+            prices++;
+        }
+    }
+}
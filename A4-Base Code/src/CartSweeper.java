@@ -0,0 +1,53 @@
+//Background task that periodically releases expired cart reservations
+//so abandoned carts do not keep stock locked up
+
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+public class CartSweeper {
+    private static final System.Logger LOG = System.getLogger(CartSweeper.class.getName());
+
+    private final Set<Cart> carts;
+    private final ScheduledExecutorService executor;
+
+    public CartSweeper(Duration interval) {
+        carts = ConcurrentHashMap.newKeySet();
+        executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "cart-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = interval.toMillis();
+        executor.scheduleAtFixedRate(this::sweep, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    public void register(Cart cart) {
+        carts.add(cart);
+    }
+
+    public void unregister(Cart cart) {
+        carts.remove(cart);
+    }
+
+    //Expires stale lines in every registered cart
+    public void sweep() {
+        long now = System.currentTimeMillis();
+        for (Cart cart : carts) {
+            try {
+                cart.expire(now);
+            } catch (RuntimeException e) {
+                // Keep sweeping the other carts; an exception here would cancel the schedule
+                LOG.log(System.Logger.Level.ERROR, "Could not expire the lines of a cart", e);
+            }
+        }
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+        carts.clear();
+    }
+}
@@ -0,0 +1,534 @@
+//Bulk catalog importer for supplier feeds in CSV or JSON
+//The feed is streamed: one thread cuts it into records and hands chunks of records to a pool
+//of workers, which parse and validate them into products in parallel. Finished chunks are
+//added to the store in feed order, so SKUs follow the feed. Only a bounded number of chunks
+//is in flight at once, so memory use does not depend on the size of the feed.
+//
+//Columns (CSV header names or JSON keys, case, spaces and underscores ignored):
+//  type         desktop, laptop, fridge or toaster oven
+//  price        unit price in dollars
+//  quantity     units in stock
+//  cpu speed, ram, ssd, storage                computers
+//  profile                                     desktops
+//  screen size                                 laptops
+//  wattage, color, brand                       appliances
+//  freezer                                     fridges
+//  convection                                  toaster ovens
+//
+//CSV feeds start with a header row and may quote fields ("" is a quote inside a quoted field).
+//JSON feeds are a top-level array of flat objects or one object per line.
+//Invalid records are skipped and reported; the rest of the feed is still imported
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class CatalogImporter {
+    public static final int MAX_REPORTED_ERRORS = 100; //Errors kept for the report; the rest are only counted
+    private static final int MAX_SHARED_STRINGS = 1 << 16; //Distinct text values shared between products
+
+    private final int threads;
+    private final int chunkSize; //Records per parse task
+
+    public CatalogImporter() {
+        this(Runtime.getRuntime().availableProcessors(), 8192);
+    }
+
+    public CatalogImporter(int initThreads, int initChunkSize) {
+        if (initThreads < 1 || initChunkSize < 1) {
+            throw new IllegalArgumentException("Threads and chunk size must be positive");
+        }
+        threads = initThreads;
+        chunkSize = initChunkSize;
+    }
+
+    //Imports a feed file, picking the format from its extension (.csv, or .json/.jsonl/.ndjson)
+    public Report importFile(Path file, ElectronicStore store) throws IOException {
+        String name = file.getFileName().toString().toLowerCase(Locale.ROOT);
+        try (Reader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            if (name.endsWith(".csv")) return importCsv(in, store);
+            if (name.endsWith(".json") || name.endsWith(".jsonl") || name.endsWith(".ndjson")) return importJson(in, store);
+        }
+        throw new IllegalArgumentException("Unknown feed format: " + file);
+    }
+
+    public Report importCsv(Reader in, ElectronicStore store) throws IOException {
+        CsvRecords records = new CsvRecords(in);
+        String header = records.next();
+        if (header == null) return new Report(0, 0, List.of());
+        List<String> names = new ArrayList<>();
+        splitCsv(header, names);
+        Field[] columns = new Field[names.size()]; //Field of each CSV column, null for unknown columns
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = Field.byKey(names.get(i));
+        }
+        return run(records, record -> {
+            List<String> fields = new ArrayList<>(columns.length);
+            splitCsv(record, fields);
+            String[] values = new String[Field.COUNT];
+            for (int i = 0; i < columns.length && i < fields.size(); i++) {
+                if (columns[i] != null) values[columns[i].ordinal()] = fields.get(i);
+            }
+            return values;
+        }, store);
+    }
+
+    public Report importJson(Reader in, ElectronicStore store) throws IOException {
+        return run(new JsonRecords(in), CatalogImporter::parseJsonObject, store);
+    }
+
+    //Runs the reader on this thread and the parsing on the pool, adding finished chunks in order
+    private Report run(Records records, RecordParser parser, ElectronicStore store) throws IOException {
+        ExecutorService pool = Executors.newFixedThreadPool(threads, task -> {
+            Thread thread = new Thread(task, "catalog-import");
+            thread.setDaemon(true);
+            return thread;
+        });
+        ArrayDeque<Future<Chunk>> inFlight = new ArrayDeque<>();
+        Totals totals = new Totals();
+        // Colors, brands and profiles repeat across millions of rows; one copy of each is kept
+        Map<String, String> strings = new ConcurrentHashMap<>();
+        try {
+            long number = 1; //Record number of the next record, counting from the first data record
+            String[] batch = new String[chunkSize];
+            int length;
+            while ((length = records.fill(batch)) > 0) {
+                String[] chunk = Arrays.copyOf(batch, length);
+                long first = number;
+                inFlight.add(pool.submit(() -> parseChunk(chunk, first, parser, strings)));
+                number += length;
+                if (inFlight.size() >= threads * 2) totals.add(store, await(inFlight.poll()));
+            }
+            while (!inFlight.isEmpty()) {
+                totals.add(store, await(inFlight.poll()));
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        return new Report(totals.imported, totals.rejected, List.copyOf(totals.errors));
+    }
+
+    private static Chunk parseChunk(String[] records, long firstNumber, RecordParser parser,
+                                    Map<String, String> strings) {
+        Product[] products = new Product[records.length];
+        int count = 0;
+        List<String> errors = new ArrayList<>();
+        int rejected = 0;
+        for (int i = 0; i < records.length; i++) {
+            try {
+                products[count] = toProduct(parser.parse(records[i]), strings);
+                count++;
+            } catch (IllegalArgumentException e) {
+                rejected++;
+                if (errors.size() < MAX_REPORTED_ERRORS) {
+                    errors.add("Record " + (firstNumber + i) + ": " + e.getMessage());
+                }
+            }
+        }
+        return new Chunk(Arrays.asList(products).subList(0, count), rejected, errors);
+    }
+
+    private static Chunk await(Future<Chunk> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Import interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Import failed", e.getCause());
+        }
+    }
+
+    //Method to build the product described by one record's values, indexed by Field ordinal
+    private static Product toProduct(String[] values, Map<String, String> strings) {
+        String type = letters(required(values, Field.TYPE));
+        double price = decimal(values, Field.PRICE);
+        if (!(price >= 0) || Double.isInfinite(price)) {
+            throw new IllegalArgumentException("price must be a non-negative amount: " + values[Field.PRICE.ordinal()]);
+        }
+        int quantity = integer(values, Field.QUANTITY);
+        return switch (type) {
+            case "desktop" -> new Desktop(price, quantity, decimal(values, Field.CPU_SPEED), integer(values, Field.RAM),
+                    bool(values, Field.SSD), integer(values, Field.STORAGE), shared(values, Field.PROFILE, strings));
+            case "laptop" -> new Laptop(price, quantity, decimal(values, Field.CPU_SPEED), integer(values, Field.RAM),
+                    bool(values, Field.SSD), integer(values, Field.STORAGE), decimal(values, Field.SCREEN_SIZE));
+            case "fridge" -> new Fridge(price, quantity, integer(values, Field.WATTAGE),
+                    shared(values, Field.COLOR, strings), shared(values, Field.BRAND, strings),
+                    bool(values, Field.FREEZER));
+            case "toasteroven" -> new ToasterOven(price, quantity, integer(values, Field.WATTAGE),
+                    shared(values, Field.COLOR, strings), shared(values, Field.BRAND, strings),
+                    bool(values, Field.CONVECTION));
+            default -> throw new IllegalArgumentException("unknown product type: " + values[Field.TYPE.ordinal()]);
+        };
+    }
+
+    //Method to lower-case a name and drop everything but letters, e.g. "Toaster Oven" -> "toasteroven"
+    private static String letters(String name) {
+        StringBuilder result = new StringBuilder(name.length());
+        for (int i = 0; i < name.length(); i++) {
+            char c = Character.toLowerCase(name.charAt(i));
+            if (c >= 'a' && c <= 'z') result.append(c);
+        }
+        return result.toString();
+    }
+
+    private static String required(String[] values, Field field) {
+        String value = values[field.ordinal()];
+        if (value == null || value.isBlank()) throw new IllegalArgumentException("missing " + field.key);
+        return value.trim();
+    }
+
+    //Method to read a text value, reusing an equal string seen earlier in the import
+    private static String shared(String[] values, Field field, Map<String, String> strings) {
+        String value = required(values, field);
+        String existing = strings.get(value);
+        if (existing != null) return existing;
+        if (strings.size() >= MAX_SHARED_STRINGS) return value;
+        existing = strings.putIfAbsent(value, value);
+        return existing != null ? existing : value;
+    }
+
+    private static double decimal(String[] values, Field field) {
+        String value = required(values, field);
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(field.key + " is not a number: " + value);
+        }
+    }
+
+    private static int integer(String[] values, Field field) {
+        String value = required(values, field);
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(field.key + " is not a whole number: " + value);
+        }
+    }
+
+    private static boolean bool(String[] values, Field field) {
+        String value = required(values, field).toLowerCase(Locale.ROOT);
+        return switch (value) {
+            case "true", "yes", "y", "1" -> true;
+            case "false", "no", "n", "0" -> false;
+            default -> throw new IllegalArgumentException(field.key + " is not true or false: " + value);
+        };
+    }
+
+    //Method to split one CSV record into its fields
+    private static void splitCsv(String record, List<String> into) {
+        if (record.indexOf('"') < 0) {
+            // Fast path: without quotes every comma ends a field
+            int start = 0;
+            int comma;
+            while ((comma = record.indexOf(',', start)) >= 0) {
+                into.add(record.substring(start, comma));
+                start = comma + 1;
+            }
+            into.add(record.substring(start));
+            return;
+        }
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < record.length(); i++) {
+            char c = record.charAt(i);
+            if (quoted) {
+                if (c != '"') {
+                    field.append(c);
+                } else if (i + 1 < record.length() && record.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else {
+                    quoted = false;
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                into.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        into.add(field.toString());
+    }
+
+    //Method to read one flat JSON object into values indexed by Field ordinal
+    //Unknown keys are ignored; nested objects and arrays are rejected
+    private static String[] parseJsonObject(String record) {
+        String[] values = new String[Field.COUNT];
+        JsonCursor cursor = new JsonCursor(record);
+        cursor.expect('{');
+        if (cursor.peek() == '}') return values;
+        while (true) {
+            String key = cursor.string();
+            cursor.expect(':');
+            String value = cursor.value();
+            Field field = Field.byKey(key);
+            if (field != null) values[field.ordinal()] = value;
+            char next = cursor.next();
+            if (next == '}') return values;
+            if (next != ',') throw new IllegalArgumentException("expected , or } at " + (cursor.position - 1));
+        }
+    }
+
+    //Outcome of an import: how many products were added and which records were skipped
+    //errors holds the first MAX_REPORTED_ERRORS problems, each naming its record number
+    public record Report(long imported, long rejected, List<String> errors) {
+    }
+
+    //Columns the importer understands
+    private enum Field {
+        TYPE, PRICE, QUANTITY, CPU_SPEED, RAM, SSD, STORAGE, PROFILE, SCREEN_SIZE, WATTAGE, COLOR, BRAND, FREEZER,
+        CONVECTION;
+
+        static final int COUNT = values().length;
+        private static final Map<String, Field> BY_KEY = new HashMap<>();
+
+        static {
+            for (Field field : values()) {
+                BY_KEY.put(field.key, field);
+            }
+        }
+
+        final String key = name().toLowerCase(Locale.ROOT).replace("_", "");
+
+        //Returns the field for a column name, ignoring case, spaces and punctuation, or null
+        static Field byKey(String name) {
+            return BY_KEY.get(name.toLowerCase(Locale.ROOT).replaceAll("[^a-z0-9]", ""));
+        }
+    }
+
+    private interface RecordParser {
+        String[] parse(String record);
+    }
+
+    private record Chunk(List<Product> products, int rejected, List<String> errors) {
+    }
+
+    //Running totals, only touched by the reading thread
+    private static final class Totals {
+        long imported;
+        long rejected;
+        final List<String> errors = new ArrayList<>();
+
+        void add(ElectronicStore store, Chunk chunk) {
+            store.addProducts(chunk.products());
+            imported += chunk.products().size();
+            rejected += chunk.rejected();
+            for (String error : chunk.errors()) {
+                if (errors.size() == MAX_REPORTED_ERRORS) break;
+                errors.add(error);
+            }
+        }
+    }
+
+    //Cuts a character stream into records through its own buffer
+    private abstract static class Records {
+        private final Reader in;
+        private final char[] buffer = new char[1 << 16];
+        private int position;
+        private int limit;
+
+        Records(Reader initIn) {
+            in = initIn;
+        }
+
+        //Returns the next character, or -1 at the end of the stream
+        final int read() throws IOException {
+            if (position == limit) {
+                limit = in.read(buffer, 0, buffer.length);
+                position = 0;
+                if (limit <= 0) {
+                    limit = 0;
+                    return -1;
+                }
+            }
+            return buffer[position++];
+        }
+
+        //Returns the next record, or null at the end of the stream
+        abstract String next() throws IOException;
+
+        //Fills the array with the next records and returns how many were read
+        final int fill(String[] into) throws IOException {
+            int count = 0;
+            String record;
+            while (count < into.length && (record = next()) != null) {
+                into[count++] = record;
+            }
+            return count;
+        }
+    }
+
+    //One record per line; line breaks inside quoted fields belong to the field. Blank lines are skipped
+    private static final class CsvRecords extends Records {
+        private final StringBuilder record = new StringBuilder(256);
+
+        CsvRecords(Reader initIn) {
+            super(initIn);
+        }
+
+        @Override
+        String next() throws IOException {
+            while (true) {
+                record.setLength(0);
+                boolean quoted = false;
+                int c;
+                while ((c = read()) != -1) {
+                    if (c == '"') {
+                        quoted = !quoted;
+                    } else if (c == '\n' && !quoted) {
+                        break;
+                    }
+                    record.append((char) c);
+                }
+                int end = record.length();
+                if (end > 0 && record.charAt(end - 1) == '\r') record.setLength(end - 1);
+                if (!record.isEmpty()) return record.toString();
+                if (c == -1) return null;
+            }
+        }
+    }
+
+    //One record per top-level object, whether the objects sit in an array or on their own lines
+    private static final class JsonRecords extends Records {
+        private final StringBuilder record = new StringBuilder(256);
+
+        JsonRecords(Reader initIn) {
+            super(initIn);
+        }
+
+        @Override
+        String next() throws IOException {
+            int c;
+            while ((c = read()) != '{') {
+                if (c == -1) return null;
+            }
+            record.setLength(0);
+            record.append('{');
+            int depth = 1;
+            boolean inString = false;
+            boolean escaped = false;
+            while (depth > 0) {
+                c = read();
+                if (c == -1) throw new IOException("Feed ends inside a JSON object");
+                record.append((char) c);
+                if (escaped) {
+                    escaped = false;
+                } else if (inString) {
+                    if (c == '\\') escaped = true;
+                    else if (c == '"') inString = false;
+                } else if (c == '"') {
+                    inString = true;
+                } else if (c == '{') {
+                    depth++;
+                } else if (c == '}') {
+                    depth--;
+                }
+            }
+            return record.toString();
+        }
+    }
+
+    //Reads the tokens of one flat JSON object
+    private static final class JsonCursor {
+        private final String text;
+        private int position;
+
+        JsonCursor(String initText) {
+            text = initText;
+        }
+
+        //Returns the next non-blank character without consuming it
+        char peek() {
+            while (position < text.length() && Character.isWhitespace(text.charAt(position))) position++;
+            if (position == text.length()) throw new IllegalArgumentException("unexpected end of object");
+            return text.charAt(position);
+        }
+
+        char next() {
+            char c = peek();
+            position++;
+            return c;
+        }
+
+        void expect(char expected) {
+            if (next() != expected) throw new IllegalArgumentException("expected " + expected + " at " + (position - 1));
+        }
+
+        String string() {
+            expect('"');
+            StringBuilder value = new StringBuilder();
+            while (true) {
+                if (position == text.length()) throw new IllegalArgumentException("unterminated string");
+                char c = text.charAt(position++);
+                if (c == '"') return value.toString();
+                if (c != '\\') {
+                    value.append(c);
+                    continue;
+                }
+                if (position == text.length()) throw new IllegalArgumentException("unterminated string");
+                char escape = text.charAt(position++);
+                switch (escape) {
+                    case 'n' -> value.append('\n');
+                    case 't' -> value.append('\t');
+                    case 'r' -> value.append('\r');
+                    case 'b' -> value.append('\b');
+                    case 'f' -> value.append('\f');
+                    case 'u' -> {
+                        if (position + 4 > text.length()) throw new IllegalArgumentException("bad \\u escape");
+                        value.append((char) Integer.parseInt(text.substring(position, position + 4), 16));
+                        position += 4;
+                    }
+                    default -> value.append(escape);
+                }
+            }
+        }
+
+        //Reads a string, number, boolean or null; numbers and booleans come back as their text
+        String value() {
+            char c = peek();
+            if (c == '"') return string();
+            if (c == '{' || c == '[') throw new IllegalArgumentException("nested values are not supported");
+            int start = position;
+            while (position < text.length() && ",}".indexOf(text.charAt(position)) < 0
+                    && !Character.isWhitespace(text.charAt(position))) {
+                position++;
+            }
+            String literal = text.substring(start, position);
+            return literal.equals("null") ? null : literal;
+        }
+    }
+
+    //Imports a feed into an empty store and prints how long it took: java CatalogImporter feed.csv
+    public static void main(String[] args) throws IOException {
+        ElectronicStore store = new ElectronicStore("Imported Catalog");
+        long start = System.nanoTime();
+        Report report = new CatalogImporter().importFile(Paths.get(args[0]), store);
+        long millis = (System.nanoTime() - start) / 1_000_000;
+        System.out.println("Imported " + report.imported() + " products, rejected " + report.rejected()
+                + " records in " + millis + " ms");
+        report.errors().forEach(System.out::println);
+        if (args.length > 1) {
+            //Save the catalog as a store image the app can map at startup (see MappedInventory)
+            MappedInventory.write(Paths.get(args[1]), store.getStock());
+            System.out.println("Wrote store image " + args[1]);
+        }
+    }
+}
@@ -0,0 +1,17 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+//Flight Recorder event for one cart checkout; costs next to nothing unless a recording is running
+@Name("electronicstore.Checkout")
+@Label("Checkout")
+@Category("Electronic Store")
+@Description("A cart was checked out")
+public class CheckoutEvent extends jdk.jfr.Event {
+    @Label("Lines")
+    int lines;
+
+    @Label("Amount (cents)")
+    long amountCents;
+}
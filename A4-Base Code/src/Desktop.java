@@ -1,19 +1,17 @@
-//Class representing a single desktop computer
-public class Desktop extends Computer {
-    private final String towerProfile;
-
-    public Desktop(double initPrice, int initQuantity, double initCPUSpeed, int initRAM, boolean initSSD, int initStorage, String initProfile) {
-        super(initPrice, initQuantity, initCPUSpeed, initRAM, initSSD, initStorage);
-        towerProfile = initProfile;
-    }
-
-    public String toString() {
-        String result = towerProfile + " Desktop PC with " + getCPUSpeed() + "ghz CPU, " + getRAM() + "GB RAM, " + getStorage() + "GB ";
-        if (getSSD()) {
-            result += "SSD drive.";
-        } else {
-            result += "HDD drive.";
-        }
-        return result;
-    }
+import lombok.Getter;
+
+//Class representing a single desktop computer
+public class Desktop extends Computer {
+    @Getter
+    private final String towerProfile;
+
+    public Desktop(double initPrice, int initQuantity, double initCPUSpeed, int initRAM, boolean initSSD, int initStorage, String initProfile) {
+        super(initPrice, initQuantity, initCPUSpeed, initRAM, initSSD, initStorage);
+        towerProfile = initProfile;
+    }
+
+    @Override
+    protected String describe(DisplayNames names) {
+        return names.format(getSSD() ? "desktop.ssd" : "desktop.hdd", towerProfile, getCPUSpeed(), getRAM(), getStorage());
+    }
 }
\ No newline at end of file
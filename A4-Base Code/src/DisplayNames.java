@@ -0,0 +1,46 @@
+//Templates for the display names of products, loaded from the ProductNames resource bundle
+//Each product builds its name once from these templates and keeps it (see Product.toString),
+//so the name is also a stable key: the store indexes products under that exact String instance.
+//The locale is picked once at startup from -Dstore.locale, or the JVM default locale;
+//ProductNames.properties holds the English templates every other locale falls back to
+//(the bundle cannot share this class's name, or ResourceBundle would try to load the class as the bundle)
+
+import java.text.MessageFormat;
+import java.util.Locale;
+import java.util.ResourceBundle;
+
+public final class DisplayNames {
+    private static final DisplayNames CURRENT = new DisplayNames(startupLocale());
+
+    private final Locale locale;
+    private final ResourceBundle templates;
+
+    public DisplayNames(Locale initLocale) {
+        locale = initLocale;
+        templates = ResourceBundle.getBundle("ProductNames", initLocale);
+    }
+
+    //Returns the templates products are named with
+    public static DisplayNames current() {
+        return CURRENT;
+    }
+
+    private static Locale startupLocale() {
+        String tag = System.getProperty("store.locale");
+        return tag != null ? Locale.forLanguageTag(tag) : Locale.getDefault();
+    }
+
+    public Locale getLocale() {
+        return locale;
+    }
+
+    //Fills in the template with the given key
+    //Arguments are inserted as their plain toString text, so 3.0 stays "3.0" in every locale
+    public String format(String key, Object... arguments) {
+        Object[] texts = new Object[arguments.length];
+        for (int i = 0; i < arguments.length; i++) {
+            texts[i] = String.valueOf(arguments[i]);
+        }
+        return new MessageFormat(templates.getString(key), locale).format(texts);
+    }
+}
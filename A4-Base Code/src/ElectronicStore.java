@@ -1,84 +1,348 @@
-//Class representing an electronic store
-//Has an array of products that represent the items the store can sell
-
-import lombok.Getter;
-import lombok.Setter;
-
-import java.util.Arrays;
-
-public class ElectronicStore {
-    public final int MAX_PRODUCTS = 10; //Maximum number of products the store can have
-
-    @Getter
-    private int curProducts;
-    @Getter
-    private final String name;
-    @Getter
-    private final Product[] stock; //Array to hold all products
-
-    @Getter
-    @Setter
-    private double revenue;
-
-    public ElectronicStore(String initName) {
-        revenue = 0.0;
-        name = initName;
-        stock = new Product[MAX_PRODUCTS];
-        curProducts = 0;
-    }
-
-    //Adds a product and returns true if there is space in the array
-    //Returns false otherwise
-    public void addProduct(Product newProduct) {
-        if (curProducts < MAX_PRODUCTS) {
-            stock[curProducts] = newProduct;
-            curProducts++;
-        }
-    }
-
-    public double removeFromStock(String productName) {
-        // Search for the product in the stock list by name
-        for (Product product : stock) {
-            if (product != null && product.toString().equals(productName)) {
-                // Calculate the total price of the sold units
-                return product.sellUnits(1);
-            }
-        }
-        // If the product is not found, return 0.0
-        return 0.0;
-    }
-
-    public double addToStock(String productName) {
-        // Search for the product in the stock list by name
-        for (Product product : stock) {
-            if (product != null && product.toString().equals(productName)) {
-                // Calculate the total price of the units to be restored
-                return product.undoSellOperation(1);
-            }
-        }
-        // If the product is not found, return 0.0
-        return 0.0;
-    }
-
-
-    public static ElectronicStore createStore() {
-        ElectronicStore store1 = new ElectronicStore("Watts Up Electronics");
-        Desktop d1 = new Desktop(100, 10, 3.0, 16, false, 250, "Compact");
-        Desktop d2 = new Desktop(200, 10, 4.0, 32, true, 500, "Server");
-        Laptop l1 = new Laptop(150, 10, 2.5, 16, true, 250, 15);
-        Laptop l2 = new Laptop(250, 10, 3.5, 24, true, 500, 16);
-        Fridge f1 = new Fridge(500, 10, 250, "White", "Sub Zero", false);
-        Fridge f2 = new Fridge(750, 10, 125, "Stainless Steel", "Sub Zero", true);
-        ToasterOven t1 = new ToasterOven(25, 10, 50, "Black", "Danby", false);
-        ToasterOven t2 = new ToasterOven(75, 10, 50, "Silver", "Toasty", true);
-        store1.addProduct(d1);
-        store1.addProduct(d2);
-        store1.addProduct(l1);
-        store1.addProduct(l2);
-        store1.addProduct(f1);
-        store1.addProduct(f2);
-        store1.addProduct(t1);
-        store1.addProduct(t2);
-        return store1;
-    }
-}
\ No newline at end of file
+//Class representing an electronic store
+//Has a catalog of products keyed by SKU, with a secondary index by display name that is built on the
+//first lookup by name, so opening a large catalog does not build every product's name up front.
+//The index maps names to SKUs and holds no products, so the products of a catalog that creates them
+//on demand (see MappedInventory) can still be collected once nothing else uses them.
+//Products with equal specs share a display name; looking such a name up is rejected, since only
+//the SKU tells them apart
+//The catalog is filled before the store is shared; after that, lookups, sales and
+//revenue updates are lock-free and safe to call from many checkout terminals at once
+
+import lombok.Getter;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32C;
+
+public class ElectronicStore implements InventoryListener {
+    public static final String DEFAULT_NAME = "Watts Up Electronics";
+
+    @Getter
+    private final String name;
+    private final List<Product> stock; //Products indexed by SKU (the SKU is the position in this list)
+    private final List<Product> stockView; //Read-only view handed out to callers
+    @Getter
+    private final InventoryColumns columns; //Prices and quantities by SKU, for scans of the whole catalog
+    //Secondary index from display name to SKU
+    private volatile Map<String, Integer> skusByName; //Null until the first lookup by name
+    private Set<String> sharedNames; //Display names of more than one product; written with skusByName
+    private final SalesLeaderboard leaderboard; //Products ranked by units sold
+    private final List<InventoryListener> listeners; //Outside listeners for quantity changes
+
+    private final LongAdder revenueCents; //Striped so concurrent checkouts do not contend
+    private final LongAdder checkouts;
+    private volatile SalesJournal journal; //Where sales are made durable, if anywhere
+    @Getter
+    private volatile SalesMetrics metrics; //Where sales and latencies are measured, if anywhere
+    @Getter
+    private volatile PromotionTable promotions; //Promotions carts are priced with, if any
+
+    public ElectronicStore(String initName) {
+        this(initName, new ArrayList<>(), null);
+    }
+
+    //Creates a store over a fixed catalog, e.g. one whose products are created on demand and attached
+    //to this store by the catalog itself; products cannot be added to it
+    //With null columns, the columns read the catalog's products
+    ElectronicStore(String initName, List<Product> initCatalog, InventoryColumns initColumns) {
+        revenueCents = new LongAdder();
+        checkouts = new LongAdder();
+        name = initName;
+        stock = initCatalog;
+        stockView = Collections.unmodifiableList(stock);
+        columns = initColumns != null ? initColumns : new ProductColumns();
+        leaderboard = new SalesLeaderboard(stockView, columns);
+        //Products that sold before the store was created are ranked on the first read
+        if (!stock.isEmpty()) leaderboard.invalidate();
+        listeners = new CopyOnWriteArrayList<>();
+    }
+
+    //Adds a product to the catalog and assigns it the next free SKU
+    public void addProduct(Product newProduct) {
+        newProduct.attach(stock.size(), this);
+        stock.add(newProduct);
+        Map<String, Integer> byName = skusByName;
+        if (byName != null) indexName(byName, newProduct);
+        leaderboard.update(newProduct);
+    }
+
+    //Adds products in bulk, in list order, growing the catalog's storage once up front
+    public void addProducts(List<? extends Product> newProducts) {
+        if (stock instanceof ArrayList<Product> list) list.ensureCapacity(stock.size() + newProducts.size());
+        for (Product product : newProducts) {
+            addProduct(product);
+        }
+    }
+
+    //Registers a listener for quantity changes on any product in the catalog
+    public void addInventoryListener(InventoryListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeInventoryListener(InventoryListener listener) {
+        listeners.remove(listener);
+    }
+
+    //Called by the catalog's products when they reserve, release or restore units
+    @Override
+    public void quantitiesChanged(Product product) {
+        for (InventoryListener listener : listeners) {
+            listener.quantitiesChanged(product);
+        }
+    }
+
+    @Override
+    public void unitsSold(Product product, int amount) {
+        SalesJournal target = journal;
+        if (target != null) target.recordSale(product.getSku(), amount);
+        leaderboard.update(product);
+        for (InventoryListener listener : listeners) {
+            listener.unitsSold(product, amount);
+        }
+    }
+
+    @Override
+    public void unitsReturned(Product product, int amount) {
+        SalesJournal target = journal;
+        if (target != null) target.recordUndo(product.getSku(), amount);
+        leaderboard.update(product);
+        for (InventoryListener listener : listeners) {
+            listener.unitsReturned(product, amount);
+        }
+    }
+
+    @Override
+    public void unitsReceived(Product product, int amount) {
+        SalesJournal target = journal;
+        if (target != null) target.recordReceipt(product.getSku(), amount);
+        for (InventoryListener listener : listeners) {
+            listener.unitsReceived(product, amount);
+        }
+    }
+
+    @Override
+    public void unitsWithdrawn(Product product, int amount) {
+        SalesJournal target = journal;
+        if (target != null) target.recordWithdrawal(product.getSku(), amount);
+        for (InventoryListener listener : listeners) {
+            listener.unitsWithdrawn(product, amount);
+        }
+    }
+
+    //Copies the k best-selling products into the given array and returns how many were copied
+    public int topSellers(int k, Product[] into) {
+        return leaderboard.top(k, into);
+    }
+
+    //Returns the revenue recorded so far, in cents
+    public long getRevenueCents() {
+        return revenueCents.sum();
+    }
+
+    //Returns the number of completed checkouts
+    public long getCheckouts() {
+        return checkouts.sum();
+    }
+
+    //Records a completed checkout and its revenue in cents
+    public void recordCheckout(long amountCents) {
+        revenueCents.add(amountCents);
+        checkouts.increment();
+        SalesJournal target = journal;
+        if (target != null) target.recordCheckout(amountCents);
+        for (InventoryListener listener : listeners) {
+            listener.checkoutRecorded(amountCents);
+        }
+    }
+
+    //Records a refund in cents, taking it off the revenue; the checkout it refunds stays counted
+    public void recordRefund(long amountCents) {
+        revenueCents.add(-amountCents);
+        SalesJournal target = journal;
+        if (target != null) target.recordRefund(amountCents);
+        for (InventoryListener listener : listeners) {
+            listener.refundRecorded(amountCents);
+        }
+    }
+
+    //Called after the quantities of the catalog were overwritten with recovered values
+    void quantitiesRestored() {
+        leaderboard.invalidate();
+    }
+
+    //Overwrites the totals with recovered values
+    //Only used while restoring a store, before it is shared or while its only seller is paused
+    void restoreTotals(long initRevenueCents, long initCheckouts) {
+        revenueCents.reset();
+        revenueCents.add(initRevenueCents);
+        checkouts.reset();
+        checkouts.add(initCheckouts);
+    }
+
+    //Starts (or with null, stops) measuring this store's sales and latencies with the given metrics
+    public void setMetrics(SalesMetrics newMetrics) {
+        SalesMetrics old = metrics;
+        if (old != null) removeInventoryListener(old);
+        metrics = newMetrics;
+        if (newMetrics != null) addInventoryListener(newMetrics);
+    }
+
+    //Starts (or with null, ends) pricing this store's carts with the given promotions
+    //Open carts are re-priced the next time they are used
+    public void setPromotions(PromotionTable newPromotions) {
+        promotions = newPromotions;
+    }
+
+    //Starts (or with null, stops) writing this store's sales to the given journal
+    public void setJournal(SalesJournal newJournal) {
+        journal = newJournal;
+    }
+
+    //Returns a fingerprint of the catalog: the number of products and the category and price of every SKU
+    //Journals tag their records with it, so records keyed by SKU are never applied to another catalog
+    public int getCatalogId() {
+        CRC32C crc = new CRC32C();
+        ByteBuffer entry = ByteBuffer.allocate(Long.BYTES + Integer.BYTES);
+        int count = columns.size();
+        entry.putInt(0, count);
+        crc.update(entry.array(), 0, Integer.BYTES);
+        for (int sku = 0; sku < count; sku++) {
+            entry.putInt(0, columns.categoryAt(sku).hashCode()).putLong(Integer.BYTES, columns.priceCentsAt(sku));
+            crc.update(entry.array());
+        }
+        return (int) crc.getValue();
+    }
+
+    //Returns the number of products in the catalog
+    public int getCurProducts() {
+        return stock.size();
+    }
+
+    //Returns all products in SKU order
+    public List<Product> getStock() {
+        return stockView;
+    }
+
+    //Returns the product with the given SKU, or null if there is none
+    public Product getProduct(int sku) {
+        return sku >= 0 && sku < stock.size() ? stock.get(sku) : null;
+    }
+
+    //Returns the product with the given display name, or null if there is none
+    //Throws IllegalArgumentException if several products have that name
+    public Product getProduct(String productName) {
+        Map<String, Integer> byName = skusByName;
+        Integer sku = (byName != null ? byName : indexNames()).get(productName);
+        if (sku == null && sharedNames.contains(productName)) {
+            throw new IllegalArgumentException("More than one product is named " + productName + "; use its SKU");
+        }
+        return sku != null ? stock.get(sku) : null;
+    }
+
+    //Builds the index by display name once, for every thread that needs it first
+    private synchronized Map<String, Integer> indexNames() {
+        if (skusByName == null) {
+            Map<String, Integer> byName = new HashMap<>(stock.size() * 4 / 3 + 1);
+            sharedNames = new HashSet<>();
+            for (Product product : stock) {
+                indexName(byName, product);
+            }
+            skusByName = byName;
+        }
+        return skusByName;
+    }
+
+    //Indexes the product by name; a name already taken is no longer indexed, only remembered as shared
+    private void indexName(Map<String, Integer> byName, Product product) {
+        String productName = product.toString();
+        if (sharedNames.contains(productName)) return;
+        if (byName.putIfAbsent(productName, product.getSku()) != null) {
+            byName.remove(productName);
+            sharedNames.add(productName);
+        }
+    }
+
+    public long removeFromStock(String productName) {
+        SalesMetrics measured = metrics;
+        long start = measured != null ? System.nanoTime() : 0;
+        Product product = getProduct(productName);
+        // Calculate the total price of the sold units in cents, or 0 if the product is not found
+        long price = product != null ? product.sellUnits(1) : 0;
+        if (measured != null) measured.getSellLatency().recordSince(start);
+        return price;
+    }
+
+    public long addToStock(String productName) {
+        Product product = getProduct(productName);
+        // Calculate the total price of the units to be restored in cents, or 0 if the product is not found
+        return product != null ? product.undoSellOperation(1) : 0;
+    }
+
+
+    public static ElectronicStore createStore() {
+        return createStore(DEFAULT_NAME);
+    }
+
+    //Creates a store with the standard catalog under the given name, e.g. for one branch of a chain
+    public static ElectronicStore createStore(String storeName) {
+        ElectronicStore store1 = new ElectronicStore(storeName);
+        Desktop d1 = new Desktop(100, 10, 3.0, 16, false, 250, "Compact");
+        Desktop d2 = new Desktop(200, 10, 4.0, 32, true, 500, "Server");
+        Laptop l1 = new Laptop(150, 10, 2.5, 16, true, 250, 15);
+        Laptop l2 = new Laptop(250, 10, 3.5, 24, true, 500, 16);
+        Fridge f1 = new Fridge(500, 10, 250, "White", "Sub Zero", false);
+        Fridge f2 = new Fridge(750, 10, 125, "Stainless Steel", "Sub Zero", true);
+        ToasterOven t1 = new ToasterOven(25, 10, 50, "Black", "Danby", false);
+        ToasterOven t2 = new ToasterOven(75, 10, 50, "Silver", "Toasty", true);
+        store1.addProduct(d1);
+        store1.addProduct(d2);
+        store1.addProduct(l1);
+        store1.addProduct(l2);
+        store1.addProduct(f1);
+        store1.addProduct(f2);
+        store1.addProduct(t1);
+        store1.addProduct(t2);
+        return store1;
+    }
+
+    //Columns read from the products of a catalog kept on the heap
+    private final class ProductColumns implements InventoryColumns {
+        @Override
+        public int size() {
+            return stock.size();
+        }
+
+        @Override
+        public long priceCentsAt(int sku) {
+            return stock.get(sku).getPriceCents();
+        }
+
+        @Override
+        public String categoryAt(int sku) {
+            return SalesMetrics.categoryOf(stock.get(sku));
+        }
+
+        @Override
+        public int stockAt(int sku) {
+            return stock.get(sku).getStockQuantity();
+        }
+
+        @Override
+        public int reservedAt(int sku) {
+            return stock.get(sku).getReservedQuantity();
+        }
+
+        @Override
+        public long soldAt(int sku) {
+            return stock.get(sku).getSoldQuantity();
+        }
+    }
+}
@@ -1,26 +1,108 @@
+import com.sun.net.httpserver.HttpServer;
 import javafx.application.Application;
+import javafx.application.Platform;
 import javafx.collections.ListChangeListener;
 import javafx.scene.Scene;
 import javafx.scene.layout.Pane;
 import javafx.stage.Stage;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
 public class ElectronicStoreApp extends Application {
-    private ElectronicStore stockModel;
+    private static final Duration CART_TTL = Duration.ofMinutes(15);
+    private static final Duration SWEEP_INTERVAL = Duration.ofSeconds(30);
+    private static final Path DATA_DIRECTORY = Paths.get(System.getProperty("store.data", "store-data"));
+    private static final int SNAPSHOT_EVERY = 10_000; // Journal records between snapshots
+    private static final boolean FRAME_STATS = Boolean.getBoolean("store.frameStats"); // Sample and print frame times
+    private static final int METRICS_PORT = Integer.getInteger("store.metricsPort", 0); // Serve /metrics here if set
+    private static final String PROMOTIONS = System.getProperty("store.promotions"); // File of promotions to run, if any
+    private static final String REPORT = System.getProperty("store.report"); // CSV file for today's sales report on exit, if set
+    private static final System.Logger LOG = System.getLogger(ElectronicStoreApp.class.getName());
+    private static final String IMAGE = System.getProperty("store.image"); // Prebuilt store image to map instead of the sample catalog, if set
+    private static final boolean STARTUP_STATS = Boolean.getBoolean("store.startupStats"); // Print the time to the first frame
+    private static final boolean EXIT_AFTER_FIRST_FRAME = Boolean.getBoolean("store.exitAfterFirstFrame"); // For StartupBenchmark
+    private static final int REORDER_POINT = 2; // Reorder a product once its stock plus units on order is down to this
+    private static final int ORDER_UP_TO = 10; // Units in stock plus on order after reordering
+    private static final Duration REORDER_INTERVAL = Duration.ofSeconds(30);
+    private static final Duration DELIVERY_TIME = Duration.ofMinutes(1); // How long the simulated suppliers take
+
+    private final StoreEngine engine;
     private final ElectronicStoreView view;
+    private final ExecutorService modelExecutor; // Runs every command off the FX thread, in click order
+    private final FrameMonitor frameMonitor;
+    private final SalesMetrics metrics;
+    private final SalesHistory history; // Recent sales per product, for the windowed leaderboard
+    private final Replenisher replenisher;
+    private SalesHistory.Window leaderboardWindow; // Window the leaderboard ranks over, null for all time; FX thread only
+    private final MappedInventory image; // Mapped store image the catalog reads from, or null
+    private HttpServer metricsServer;
+    private ProductIndex index; // Search index over the current catalog, null until built; only used on the FX thread
 
     public ElectronicStoreApp() {
-        // Create the model and views
-        stockModel = ElectronicStore.createStore();
-        view = new ElectronicStoreView();
-    }
-
-    // Method to reset the stock to 0 for the cart model
-    private ElectronicStore formCartModel(ElectronicStore model) {
-        // Resetting the stock to 0 as we won't use the soldQuantity here
-        for (Product product : model.getStock()) {
-            if (product != null) product.sellUnits(product.getStockQuantity());
+        // Create the engine, replay past sales from the journal and create the views
+        if (IMAGE != null) {
+            // The image is mapped privately, so the journal stays the only record of sales
+            try {
+                image = MappedInventory.openImage(Paths.get(IMAGE));
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not open the store image " + IMAGE, e);
+            }
+            engine = new StoreEngine(() -> image.toStore(ElectronicStore.DEFAULT_NAME), CART_TTL);
+        } else {
+            image = null;
+            engine = new StoreEngine(ElectronicStore::createStore, CART_TTL);
+        }
+        try {
+            engine.openJournal(DATA_DIRECTORY, SNAPSHOT_EVERY);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not open the sales journal in " + DATA_DIRECTORY.toAbsolutePath(), e);
+        }
+        try {
+            engine.openReceipts(DATA_DIRECTORY);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not open the receipts in " + DATA_DIRECTORY.toAbsolutePath(), e);
+        }
+        engine.startSweeping(SWEEP_INTERVAL);
+        if (PROMOTIONS != null) {
+            try {
+                engine.setPromotions(Promotion.read(Paths.get(PROMOTIONS)));
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not read the promotions in " + PROMOTIONS, e);
+            }
         }
-        return model;
+        metrics = new SalesMetrics();
+        engine.setMetrics(metrics);
+        history = new SalesHistory(engine.getStore().getCurProducts());
+        engine.setHistory(history);
+        replenisher = new Replenisher(engine.getStore(), REORDER_POINT, ORDER_UP_TO);
+        engine.setReplenisher(replenisher);
+        modelExecutor = Executors.newSingleThreadExecutor(task -> {
+            Thread thread = new Thread(task, "store-model");
+            thread.setDaemon(true);
+            return thread;
+        });
+        view = new ElectronicStoreView();
+        frameMonitor = new FrameMonitor();
     }
 
     @Override
@@ -31,22 +113,67 @@ public class ElectronicStoreApp extends Application {
         // Add the view to the container
         container.getChildren().add(view);
 
-        // Populate the screen with some data
-        view.update(stockModel);
+        // Populate the screen with some data; the list only creates cells for the rows in view
+        view.update(engine.getStore());
+        buildIndex();
 
         // Populate leaderboard
-        view.setTop3Products(stockModel.getStock());
+        showLeaderboard();
 
-        // Attach handlers
+        // Show the totals recovered from the journal
+        showSummary();
+
+        // Attach handlers and follow the engine
         addHandlers();
+        engine.addListener(new EngineListener());
+        replenisher.start(REORDER_INTERVAL, this::placeOrders);
+        if (FRAME_STATS) frameMonitor.start();
+        if (METRICS_PORT > 0) {
+            try {
+                metricsServer = MetricsEndpoint.start(METRICS_PORT, metrics);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not serve metrics on port " + METRICS_PORT, e);
+            }
+        }
 
         // Show the view
-        primaryStage.setTitle(stockModel.getName());
+        Scene scene = new Scene(container);
+        if (STARTUP_STATS || EXIT_AFTER_FIRST_FRAME) reportFirstFrame(scene);
+        primaryStage.setTitle(engine.getStore().getName());
         primaryStage.setResizable(false);
-        primaryStage.setScene(new Scene(container));
+        primaryStage.setScene(scene);
         primaryStage.show();
     }
 
+    // Method to build the search index in the background; searching is enabled once it is ready
+    private void buildIndex() {
+        ElectronicStore store = engine.getStore();
+        view.getSearchField().setDisable(true);
+        CompletableFuture.supplyAsync(() -> new ProductIndex(store)).whenComplete((built, failure) -> Platform.runLater(() -> {
+            if (failure != null) {
+                LOG.log(System.Logger.Level.ERROR, "Could not build the search index", failure);
+                return;
+            }
+            index = built;
+            view.getSearchField().setDisable(false);
+            applySearch();
+        }));
+    }
+
+    // Method to print how long after the JVM started the first frame was laid out
+    private void reportFirstFrame(Scene scene) {
+        Runnable pulse = new Runnable() {
+            @Override
+            public void run() {
+                scene.removePostLayoutPulseListener(this);
+                long millis = System.currentTimeMillis() - ManagementFactory.getRuntimeMXBean().getStartTime();
+                System.out.println("first frame " + millis + " ms");
+                if (EXIT_AFTER_FIRST_FRAME) Platform.runLater(Platform::exit);
+            }
+        };
+        scene.addPostLayoutPulseListener(pulse);
+    }
+
     // Method to add event handlers
     private void addHandlers() {
         handleAddButton();
@@ -56,6 +183,8 @@ public class ElectronicStoreApp extends Application {
         handlePunchButton();
         handleStockList();
         handleLeaderboard();
+        handleLeaderboardWindow();
+        handleSearchField();
     }
 
     // Method to handle events for the stock list
@@ -87,7 +216,7 @@ public class ElectronicStoreApp extends Application {
         view.getRemove().setDisable(true);
 
         // Listen for changes in the cart ListView items
-        view.getCart().getItems().addListener((ListChangeListener.Change<? extends String> change) -> {
+        view.getCart().getItems().addListener((ListChangeListener.Change<? extends Cart.Line> change) -> {
             // Enable/disable the 'Punch' button based on cart list contents
             view.getPunch().setDisable(view.getCart().getItems().isEmpty());
         });
@@ -112,12 +241,9 @@ public class ElectronicStoreApp extends Application {
     // Method to handle add button click
     private void handleAddButton() {
         view.getAdd().setOnAction(event -> {
-            String selectedItem = view.getStockList().getSelectionModel().getSelectedItem();
-            if (selectedItem != null) {
-                double revenue = stockModel.removeFromStock(selectedItem);
-                view.setCartValue(revenue, true);
-                view.pushEntryToCart(selectedItem);
-                view.update(stockModel);
+            Product product = view.getStockList().getSelectionModel().getSelectedItem();
+            if (product != null) {
+                submit(new StoreCommand.AddToCart(product.getSku()));
             }
         });
     }
@@ -125,56 +251,69 @@ public class ElectronicStoreApp extends Application {
     // Method to handle remove button click
     private void handleRemoveButton() {
         view.getRemove().setOnAction(event -> {
-            String selectedItem = view.getCart().getSelectionModel().getSelectedItem();
-            if (selectedItem != null) {
-                String entry = ElectronicStoreView.parseListEntry(selectedItem);
-                double revenue = stockModel.addToStock(entry);
-                view.setCartValue(revenue, false);
-                int stock = ElectronicStoreView.parseListEntryToInt(selectedItem) - 1;
-                if (stock == 0) {
-                    view.getCart().getItems().remove(selectedItem);
-                } else {
-                    String updatedEntry = stock + " x " + entry;
-                    view.getCart().getItems().set(view.getCart().getSelectionModel().getSelectedIndex(), updatedEntry);
-                }
-                view.update(stockModel);
+            Cart.Line selectedLine = view.getCart().getSelectionModel().getSelectedItem();
+            if (selectedLine != null) {
+                submit(new StoreCommand.RemoveFromCart(selectedLine.getProduct().getSku()));
             }
         });
     }
 
     // Method to handle punch button click
     private void handlePunchButton() {
-        view.getPunch().setOnAction(actionEvent -> {
-            view.setRevenue();
-            view.incrementSale();
-            view.setPerNumberTextField();
-            view.getCart().getItems().clear();
-            view.getCartLabel().setText("Cart Stock: ($0.00):");
-            view.setTop3Products(stockModel.getStock());
-        });
+        view.getPunch().setOnAction(actionEvent -> submit(new StoreCommand.Punch()));
     }
 
     // Method to handle reset button click
     private void handleResetButton() {
-        view.getReset().setOnAction(event -> {
-            // Clear all list views
-            view.getCart().getItems().clear();
-            view.getLeaderboard().getItems().clear();
-            view.getStockList().getItems().clear();
-
-            // Recreate the stock model
-            stockModel = ElectronicStore.createStore();
-
-            // Update the view with the new stock model
-            view.update(stockModel);
-            view.setTop3Products(stockModel.getStock());
-
-            // Reset text field values
-            view.getSaleTextField().setText("0");
-            view.getRevenueTextField().setText("0.00");
-            view.getPerNumberTextField().setText("N/A");
-            view.getCartLabel().setText("Cart Stock: ($0.00):");
-        });
+        view.getReset().setOnAction(event -> submit(new StoreCommand.Reset()));
+    }
+
+    // Method to narrow the stock list as the search text is typed
+    private void handleSearchField() {
+        view.getSearchField().textProperty().addListener((observable, oldValue, newValue) -> applySearch());
+    }
+
+    // Method to show the products matching the search box, with counts per product type
+    private void applySearch() {
+        String text = view.getSearchField().getText();
+        if (index == null) {
+            // Still being built, so the search is applied once it is ready; until then the list is
+            // unfiltered, but it still has to show the quantities that changed
+            view.update(engine.getStore());
+            return;
+        }
+        if (text == null || text.isBlank()) {
+            view.setFilter(engine.getStore(), null, "");
+            return;
+        }
+        ProductIndex.Query query = index.search(text);
+        StringBuilder facets = new StringBuilder().append(query.count()).append(" found");
+        String separator = ": ";
+        for (Map.Entry<String, Integer> facet : index.facetCounts(query.matches(), ProductIndex.Attribute.TYPE).entrySet()) {
+            facets.append(separator).append(facet.getKey()).append(' ').append(facet.getValue());
+            separator = ", ";
+        }
+        view.setFilter(engine.getStore(), query.matches(), facets.toString());
+    }
+
+    // Method to send purchase orders to the (simulated) suppliers, whose deliveries arrive after DELIVERY_TIME
+    private void placeOrders(List<PurchaseOrder> orders) {
+        Executor supplier = CompletableFuture.delayedExecutor(DELIVERY_TIME.toMillis(), TimeUnit.MILLISECONDS, modelExecutor);
+        for (PurchaseOrder order : orders) {
+            LOG.log(System.Logger.Level.INFO, "Purchase order {0} to {1}: {2} units", order.number(), order.supplier(), order.units());
+            supplier.execute(() -> engine.execute(new StoreCommand.Receive(order)));
+        }
+    }
+
+    // Method to run a command on the model thread; the view follows through the engine listener
+    private void submit(StoreCommand command) {
+        modelExecutor.execute(() -> engine.execute(command));
+    }
+
+    // Method to show the engine's sale count and revenue
+    private void showSummary() {
+        StoreEngine.Summary summary = engine.getSummary();
+        view.setSummary(summary.sales(), summary.revenueCents(), summary.revenuePerSaleCents());
     }
 
     private void handleLeaderboard() {
@@ -189,6 +328,138 @@ public class ElectronicStoreApp extends Application {
         });
     }
 
+    // Method to rank the leaderboard over the window picked above it
+    private void handleLeaderboardWindow() {
+        view.getLeaderboardWindow().getSelectionModel().selectedIndexProperty().addListener((observable, oldValue, newValue) -> {
+            int selected = newValue.intValue();
+            leaderboardWindow = selected > 0 ? SalesHistory.Window.values()[selected - 1] : null;
+            showLeaderboard();
+        });
+    }
+
+    // Method to fill the leaderboard for the current window
+    // A windowed ranking scans every product, so it is computed on the model thread
+    private void showLeaderboard() {
+        SalesHistory.Window window = leaderboardWindow;
+        if (window == null) {
+            view.setTop3Products(engine.getStore());
+            return;
+        }
+        modelExecutor.execute(() -> {
+            Product[] top = new Product[3];
+            int length = history.topSellers(engine.getStore(), window, top.length, top);
+            Platform.runLater(() -> {
+                // Drop the ranking if another window was picked meanwhile
+                if (leaderboardWindow == window) view.setLeaderboard(top, length);
+            });
+        });
+    }
+
+    @Override
+    public void stop() throws IOException, InterruptedException {
+        replenisher.shutdown();
+        if (metricsServer != null) metricsServer.stop(0);
+        modelExecutor.shutdown();
+        modelExecutor.awaitTermination(5, TimeUnit.SECONDS);
+        if (REPORT != null) {
+            SalesReport.Source source = new SalesReport.Source(engine.getStore(), engine.getReceipts());
+            SalesReport.endOfDay(List.of(source), LocalDate.now(), ZoneId.systemDefault()).writeCsv(Paths.get(REPORT));
+        }
+        engine.close();
+        if (image != null) image.close();
+        if (FRAME_STATS) {
+            frameMonitor.stop();
+            System.out.println(frameMonitor);
+        }
+    }
+
+    // Collects engine events from any thread and applies them to the view in at most one
+    // Platform.runLater per pulse, so a burst of commands costs a single refresh
+    // Every refresh reads the current state of the engine, which makes applying it twice harmless
+    private class EngineListener implements StoreEngineListener {
+        private static final int CART = 1;         // The whole cart changed (checkout, reset, rewind or expiry)
+        private static final int TOTALS = 1 << 1;  // Sales, revenue and the leaderboard changed
+        private static final int STORE = 1 << 2;   // Any product's quantities may have changed (reset, rewind, delivery or return)
+        private static final int CART_LINES = 1 << 3; // Only the lines of the changed products and the total changed
+
+        private final AtomicInteger dirty = new AtomicInteger();
+        private final Set<Product> changedProducts = ConcurrentHashMap.newKeySet();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        private volatile long firstChange; // When the first change of the pending refresh arrived
+
+        @Override
+        public void commandsExecuted(StoreEngine source, List<StoreEngine.Result> results) {
+            int flags = 0;
+            for (StoreEngine.Result result : results) {
+                if (!result.accepted()) continue;
+                switch (result.command()) {
+                    case StoreCommand.AddToCart add -> {
+                        changedProducts.add(result.product());
+                        flags |= CART_LINES;
+                    }
+                    case StoreCommand.RemoveFromCart remove -> {
+                        changedProducts.add(result.product());
+                        flags |= CART_LINES;
+                    }
+                    case StoreCommand.Punch punch -> flags |= CART | TOTALS;
+                    case StoreCommand.Reset reset -> flags |= CART | TOTALS | STORE;
+                    case StoreCommand.Receive receive -> flags |= STORE;
+                    case StoreCommand.Rewind rewind -> flags |= CART | TOTALS | STORE;
+                    case StoreCommand.ReturnUnits returned -> flags |= TOTALS | STORE;
+                }
+            }
+            if (flags != 0) markDirty(flags);
+        }
+
+        @Override
+        public void cartLinesExpired(StoreEngine source, List<Product> products) {
+            changedProducts.addAll(products);
+            markDirty(CART);
+        }
+
+        private void markDirty(int flags) {
+            dirty.getAndAccumulate(flags, (current, added) -> current | added);
+            if (scheduled.compareAndSet(false, true)) {
+                firstChange = System.nanoTime();
+                Platform.runLater(this::refresh);
+            }
+        }
+
+        // Method to apply everything that changed since the last refresh
+        private void refresh() {
+            long start = System.nanoTime();
+            long queuedSince = firstChange;
+            // Clear the schedule before taking the changes, so a change arriving now gets its own refresh
+            scheduled.set(false);
+            int flags = dirty.getAndSet(0);
+            List<Product> products = new ArrayList<>();
+            for (Iterator<Product> it = changedProducts.iterator(); it.hasNext(); ) {
+                products.add(it.next());
+                it.remove();
+            }
+
+            if ((flags & STORE) != 0) {
+                applySearch();
+            } else {
+                view.refresh(products);
+            }
+            if ((flags & CART) != 0) {
+                view.showCart(engine.getCart());
+            } else if ((flags & CART_LINES) != 0) {
+                view.updateCartLines(engine.getCart(), products);
+            }
+            if ((flags & TOTALS) != 0) {
+                showSummary();
+                showLeaderboard();
+            }
+
+            long end = System.nanoTime();
+            frameMonitor.recordLatency(start - queuedSince);
+            frameMonitor.recordRefresh(end - start);
+            metrics.getUiRefreshLatency().record(end - start, end);
+        }
+    }
+
     public static void main(String[] args) {
         launch(args);
     }
@@ -3,12 +3,15 @@ import javafx.geometry.HPos;
 import javafx.geometry.Insets;
 import javafx.geometry.Pos;
 import javafx.scene.control.Button;
+import javafx.scene.control.ChoiceBox;
 import javafx.scene.control.Label;
+import javafx.scene.control.ListCell;
 import javafx.scene.control.ListView;
 import javafx.scene.control.TextField;
 import javafx.scene.layout.GridPane;
 import javafx.scene.layout.HBox;
 import javafx.scene.layout.VBox;
+import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.Setter;
 import java.util.*;
@@ -17,7 +20,8 @@ import java.util.*;
 public class ElectronicStoreView extends HBox {
 
     // List Views
-    private final ListView<String> stockList, cart, leaderboard;
+    private final ListView<Product> stockList, leaderboard;
+    private final ListView<Cart.Line> cart;
 
     // Buttons
     private final Button add, remove, punch, reset;
@@ -30,14 +34,39 @@ public class ElectronicStoreView extends HBox {
     // Label
     private final Label cartLabel;
 
+    // Period the leaderboard ranks sales over: all time or one of the SalesHistory windows
+    private final ChoiceBox<String> leaderboardWindow;
+
+    // Search box over the stock list and the facet counts of its results
+    private final TextField searchField;
+    private final Label facetLabel;
+
+    // SKUs the search box narrows the stock list to, or null to show the whole catalog
+    @Getter(AccessLevel.NONE) private Bitmap filter;
+
+    // Reused buffer for the leaderboard entries
+    @Getter(AccessLevel.NONE) private final Product[] top3 = new Product[3];
+
+    // Orders list rows the way the catalog does
+    private static final Comparator<Product> BY_SKU = Comparator.comparingInt(Product::getSku);
+
     public ElectronicStoreView() {
         // Set screen size
         setPrefSize(800, 400);
 
         // Initialize list views
-        stockList = new ListView<>(); stockList.setPrefSize(300, 320);
+        stockList = new ListView<>(); stockList.setPrefSize(300, 270);
         cart = new ListView<>(); cart.setPrefSize(300, 320);
         leaderboard = new ListView<>(); leaderboard.setPrefSize(200, 160);
+        stockList.setCellFactory(list -> new ProductCell());
+        leaderboard.setCellFactory(list -> new ProductCell());
+        cart.setCellFactory(list -> new ListCell<>() {
+            @Override
+            protected void updateItem(Cart.Line line, boolean empty) {
+                super.updateItem(line, empty);
+                setText(empty || line == null ? null : line.getQuantity() + " x " + line.getProduct());
+            }
+        });
 
         // Initialize buttons
         add = new Button("Add"); add.setPrefSize(120, 40);
@@ -52,116 +81,163 @@ public class ElectronicStoreView extends HBox {
         // Initialize label
         cartLabel = new Label("Cart Stock: ($0.00):");
 
+        // Initialize leaderboard window picker
+        leaderboardWindow = new ChoiceBox<>();
+        leaderboardWindow.getItems().add("All time");
+        for (SalesHistory.Window window : SalesHistory.Window.values()) {
+            leaderboardWindow.getItems().add(window.toString());
+        }
+        leaderboardWindow.getSelectionModel().selectFirst();
+
+        // Initialize search box
+        searchField = new TextField();
+        searchField.setPromptText("Search, e.g. ssd laptop ram>=16 price<300");
+        facetLabel = new Label();
+
         // Add components to HBox
         setAlignment(Pos.CENTER);
         getChildren().addAll(createLeftPart(), createMiddlePart(), createRightPart());
     }
 
-    // Method to update view based on model changes
+    // Method to rebuild the stock list from the model in one batched change
+    // Only products matching the current search are listed
     public void update(ElectronicStore stockModel) {
-        displayModel(stockModel.getStock(), stockModel.getCurProducts(), stockList,false);
+        List<Product> inStock = new ArrayList<>();
+        if (filter == null) {
+            // Read the stock from the columns, so only the listed products are looked up
+            InventoryColumns columns = stockModel.getColumns();
+            for (int sku = 0; sku < columns.size(); sku++) {
+                if (columns.stockAt(sku) > 0) inStock.add(stockModel.getProduct(sku));
+            }
+        } else {
+            for (int sku = filter.nextSetBit(0); sku >= 0; sku = filter.nextSetBit(sku + 1)) {
+                Product product = stockModel.getProduct(sku);
+                if (product != null && product.getStockQuantity() > 0) inStock.add(product);
+            }
+        }
+        stockList.getItems().setAll(inStock);
+    }
+
+    // Method to narrow the stock list to the given SKUs (null lists everything) and show the facet counts
+    public void setFilter(ElectronicStore stockModel, Bitmap matches, String facets) {
+        filter = matches;
+        facetLabel.setText(facets);
+        update(stockModel);
     }
 
-    // Method to parse list entry string
-    public static String parseListEntry(String entry) {
-        String[] parts = entry.split("x");
-        return parts[1].trim();
+    // Method to update only the stock rows of the given products
+    // A product is shown while it has stock and matches the search, and its row is kept in SKU order
+    public void refresh(Collection<Product> changed) {
+        for (Product product : changed) {
+            refresh(product);
+        }
     }
 
-    // Method to parse list entry to integer
-    public static Integer parseListEntryToInt(String entry) {
-        String[] parts = entry.split("x");
-        return Integer.parseInt(parts[0].trim());
+    public void refresh(Product product) {
+        ObservableList<Product> items = stockList.getItems();
+        int index = Collections.binarySearch(items, product, BY_SKU);
+        boolean shown = index >= 0;
+        boolean listed = product.getStockQuantity() > 0 && (filter == null || filter.get(product.getSku()));
+        if (listed && !shown) {
+            items.add(-index - 1, product);
+        } else if (!listed && shown) {
+            items.remove(index);
+        }
     }
 
-    // Method to set value for 'Per Number' text field
-    public void setPerNumberTextField() {
-        int sale = Integer.parseInt(saleTextField.getText());
-        double revenue = Double.parseDouble(revenueTextField.getText());
-        String perNumberText = (sale != 0) ? String.format("%.2f", (revenue / sale)) : "N/A";
-        perNumberTextField.setText(perNumberText);
+    // Method to show the sale count, revenue and revenue per sale held by the model
+    // A negative revenue per sale means there have been no sales yet
+    public void setSummary(long sales, long revenueCents, long revenuePerSaleCents) {
+        saleTextField.setText(Long.toString(sales));
+        revenueTextField.setText(Money.format(revenueCents));
+        perNumberTextField.setText(revenuePerSaleCents >= 0 ? Money.format(revenuePerSaleCents) : "N/A");
     }
 
-    // Method to increment sale count
-    public void incrementSale() {
-        int currentSale = Integer.parseInt(saleTextField.getText());
-        currentSale++;
-        saleTextField.setText(Integer.toString(currentSale));
+    // Method to show the value of the cart and what promotions took off it
+    public void setCartTotal(long totalCents, long discountCents) {
+        String saved = discountCents > 0 ? ", saved $" + Money.format(discountCents) : "";
+        cartLabel.setText("Cart Stock: ($" + Money.format(totalCents) + saved + ")");
     }
 
-    // Method to update revenue
-    public void setRevenue() {
-        double revenue = extractCartVal() + Double.parseDouble(revenueTextField.getText());
-        revenueTextField.setText(String.format("%.2f", revenue));
+    // Method to show the cart line at index after one unit of its product was added or removed
+    // A null line means the line is gone; index is where it was
+    public void updateCartLine(int index, Cart.Line line) {
+        ObservableList<Cart.Line> items = cart.getItems();
+        if (line == null) {
+            items.remove(index);
+        } else if (index == items.size()) {
+            items.add(line);
+        } else {
+            items.set(index, line);
+        }
     }
 
-    // Method to add entry to cart
-    public void pushEntryToCart(String entry) {
-        for (String existingEntry : cart.getItems()) {
-            if (parseListEntry(existingEntry).equals(entry)) {
-                int quantity = Integer.parseInt(existingEntry.split(" x ")[0]);
-                quantity++;
-                cart.getItems().set(cart.getItems().indexOf(existingEntry), quantity + " x " + entry);
+    // Method to update the cart rows of the given products and the cart label from the cart model
+    // Rows of products that left the cart are removed before the others are set or appended, so every
+    // row lands where the cart has it; if the rows do not line up with the cart (a change not reported
+    // yet moved them) the whole list is rebuilt instead
+    public void updateCartLines(Cart cartModel, Collection<Product> changed) {
+        ObservableList<Cart.Line> items = cart.getItems();
+        List<Cart.Line> lines = new ArrayList<>(changed.size());
+        for (Product product : changed) {
+            Cart.Line line = cartModel.getLine(product);
+            if (line != null) {
+                lines.add(line);
+                continue;
+            }
+            for (int i = 0; i < items.size(); i++) {
+                if (items.get(i).getProduct() == product) {
+                    updateCartLine(i, null);
+                    break;
+                }
+            }
+        }
+        lines.sort(Comparator.comparingInt(Cart.Line::getPosition));
+        for (Cart.Line line : lines) {
+            int index = line.getPosition();
+            boolean lined = index == items.size() || index < items.size() && items.get(index).getProduct() == line.getProduct();
+            if (!lined) {
+                showCart(cartModel);
                 return;
             }
+            updateCartLine(index, line);
         }
-        cart.getItems().add("1 x " + entry);
-    }
-
-    // Method to set top 3 products in leaderboard
-    public void setTop3Products(Product[] products) {
-        Product[] filteredProducts = Arrays.stream(products)
-                .filter(Objects::nonNull)
-                .toArray(Product[]::new);
-        Arrays.sort(filteredProducts, Comparator.comparingInt(Product::getSoldQuantity).reversed());
-        int length = Math.min(3, filteredProducts.length);
-        Product[] top3 = new Product[length];
-        System.arraycopy(filteredProducts, 0, top3, 0, length);
-        displayModel(top3, top3.length, leaderboard,true);
+        if (items.size() != cartModel.getLineCount()) {
+            showCart(cartModel);
+            return;
+        }
+        setCartTotal(cartModel.getTotalCents(), cartModel.getDiscountCents());
     }
 
-    // Method to display model in list view
-    private void displayModel(Product[] products, int endsAt, ListView<String> list,boolean specialCase) {
-        ObservableList<String> items = list.getItems();
-        int lastIndexUpdated = 0;
-        for (int i = 0; i < endsAt; i++) {
-            Product product = products[i];
-            int stockQuantity = product.getStockQuantity();
-            if (stockQuantity > 0 || specialCase) {
-                String productName = product.toString();
-                if (lastIndexUpdated < items.size()) {
-                    String existingItem = items.get(lastIndexUpdated);
-                    if (!productName.equals(existingItem)) {
-                        list.getItems().set(lastIndexUpdated, productName);
-                    }
-                } else {
-                    list.getItems().add(productName);
+    // Method to rebuild the cart list and label from the cart model
+    // The selected line stays selected while its product is still in the cart
+    public void showCart(Cart cartModel) {
+        Cart.Line selected = cart.getSelectionModel().getSelectedItem();
+        List<Cart.Line> lines = cartModel.getLines();
+        cart.getItems().setAll(lines);
+        if (selected != null) {
+            for (int i = 0; i < lines.size(); i++) {
+                if (lines.get(i).getProduct() == selected.getProduct()) {
+                    cart.getSelectionModel().select(i);
+                    break;
                 }
-                lastIndexUpdated++;
             }
         }
-        list.getItems().remove(lastIndexUpdated, items.size());
+        setCartTotal(cartModel.getTotalCents(), cartModel.getDiscountCents());
     }
 
-    // Method to extract cart value
-    public double extractCartVal() {
-        String labelText = cartLabel.getText();
-        String numericPart = labelText.substring(labelText.indexOf("$") + 1).replaceAll("[^\\d.]", "");
-        return Double.parseDouble(numericPart);
+    // Method to set top 3 products in leaderboard
+    public void setTop3Products(ElectronicStore stockModel) {
+        setLeaderboard(top3, stockModel.topSellers(top3.length, top3));
     }
 
-    // Method to set cart value
-    public void setCartValue(double value, boolean direction) {
-        String labelText = cartLabel.getText();
-        String numericPart = labelText.substring(labelText.indexOf("$") + 1).replaceAll("[^\\d.]", "");
-        double currentTotal = Double.parseDouble(numericPart);
-        if (direction) {
-            currentTotal += value;
-        } else {
-            currentTotal -= value;
+    // Method to show the first length products of a ranking in the leaderboard
+    public void setLeaderboard(Product[] ranking, int length) {
+        List<Product> top = Arrays.asList(ranking).subList(0, length);
+        // Only touch the list when the ranking actually changed
+        if (!leaderboard.getItems().equals(top)) {
+            leaderboard.getItems().setAll(top);
         }
-        String formattedTotal = (currentTotal == 0.0) ? "Cart Stock: ($0.00)" : String.format("Cart Stock: ($%.2f)", currentTotal);
-        cartLabel.setText(formattedTotal);
     }
 
     // Create middle part of the UI
@@ -172,7 +248,8 @@ public class ElectronicStoreView extends HBox {
         VBox.setMargin(add, new Insets(5, 0, 0, 0));
         Label label = new Label("Store Stock:");
         label.setPadding(new Insets(0, 0, 5, 0));
-        box.getChildren().addAll(label, stockList, add);
+        VBox.setMargin(facetLabel, new Insets(2, 0, 2, 0));
+        box.getChildren().addAll(label, searchField, facetLabel, stockList, add);
         return box;
     }
 
@@ -249,8 +326,10 @@ public class ElectronicStoreView extends HBox {
         VBox box = new VBox();
         box.setAlignment(Pos.CENTER);
         Label label = new Label("Leaderboard:");
-        label.setPadding(new Insets(0, 0, 5, 0));
-        box.getChildren().addAll(label, leaderboard);
+        HBox header = new HBox(5, label, leaderboardWindow);
+        header.setAlignment(Pos.CENTER);
+        header.setPadding(new Insets(0, 0, 5, 0));
+        box.getChildren().addAll(header, leaderboard);
         return box;
     }
 }
@@ -0,0 +1,120 @@
+//Measures how busy the JavaFX Application Thread is, to check the UI stays inside its frame budget
+//Three latency histograms are kept:
+//  frame gaps   time between consecutive pulses, sampled by an AnimationTimer while running
+//  refresh      time spent applying one coalesced model refresh to the view
+//  latency      time from the first model change of a refresh to the start of that refresh
+//All methods must be called on the JavaFX Application Thread
+
+import javafx.animation.AnimationTimer;
+
+public class FrameMonitor {
+    public static final long FRAME_BUDGET_NANOS = 16_000_000; //60 Hz leaves roughly 16 ms per frame
+
+    private final Histogram frameGaps;
+    private final Histogram refreshTimes;
+    private final Histogram latencies;
+    private final AnimationTimer timer;
+    private long lastPulse;
+
+    public FrameMonitor() {
+        frameGaps = new Histogram();
+        refreshTimes = new Histogram();
+        latencies = new Histogram();
+        timer = new AnimationTimer() {
+            @Override
+            public void handle(long now) {
+                if (lastPulse != 0) frameGaps.record(now - lastPulse);
+                lastPulse = now;
+            }
+        };
+    }
+
+    //Starts sampling frame gaps; this keeps pulses running every frame, so it is opt-in
+    public void start() {
+        lastPulse = 0;
+        timer.start();
+    }
+
+    public void stop() {
+        timer.stop();
+    }
+
+    public void recordRefresh(long nanos) {
+        refreshTimes.record(nanos);
+    }
+
+    public void recordLatency(long nanos) {
+        latencies.record(nanos);
+    }
+
+    public Histogram getFrameGaps() {
+        return frameGaps;
+    }
+
+    public Histogram getRefreshTimes() {
+        return refreshTimes;
+    }
+
+    public Histogram getLatencies() {
+        return latencies;
+    }
+
+    @Override
+    public String toString() {
+        return "frame gaps: " + frameGaps + "\nrefresh: " + refreshTimes + "\nlatency: " + latencies;
+    }
+
+    //Fixed-size histogram of durations in 1 ms buckets; the last bucket collects everything above
+    public static final class Histogram {
+        private static final int BUCKETS = 128;
+        private static final long BUCKET_NANOS = 1_000_000;
+
+        private final long[] counts = new long[BUCKETS];
+        private long count;
+        private long overBudget;
+        private long totalNanos;
+        private long maxNanos;
+
+        public void record(long nanos) {
+            counts[(int) Math.min(BUCKETS - 1, nanos / BUCKET_NANOS)]++;
+            count++;
+            totalNanos += nanos;
+            if (nanos > maxNanos) maxNanos = nanos;
+            if (nanos > FRAME_BUDGET_NANOS) overBudget++;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        //Number of durations longer than the frame budget
+        public long getOverBudget() {
+            return overBudget;
+        }
+
+        public long getMaxNanos() {
+            return maxNanos;
+        }
+
+        public long getMeanNanos() {
+            return count == 0 ? 0 : totalNanos / count;
+        }
+
+        //Upper edge of the bucket holding the given percentile (0-1), capped at the maximum seen
+        public long percentileNanos(double percentile) {
+            long rank = (long) Math.ceil(percentile * count);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += counts[i];
+                if (seen >= rank && seen > 0) return Math.min(maxNanos, (i + 1) * BUCKET_NANOS);
+            }
+            return maxNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("n=%d mean=%.2fms p99<=%.2fms max=%.2fms over16ms=%d", count,
+                    getMeanNanos() / 1e6, percentileNanos(0.99) / 1e6, maxNanos / 1e6, overBudget);
+        }
+    }
+}
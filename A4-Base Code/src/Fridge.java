@@ -1,20 +1,18 @@
-//Class representing a single type of Fridge
-public class Fridge extends Appliance {
-    private final boolean hasFreezer;
-
-    public Fridge(double initPrice, int initQuantity, int initWattage, String initColor, String initBrand, boolean initFreezer) {
-        super(initPrice, initQuantity, initWattage, initColor, initBrand);
-        hasFreezer = initFreezer;
-    }
-
-    public String toString() {
-        String result = getBrand() + " Fridge ";
-        if (hasFreezer) {
-            result += "with Freezer ";
-        }
-
-        result += "(" + getColor() + ", " + getWattage() + " watts)";
-
-        return result;
-    }
+//Class representing a single type of Fridge
+public class Fridge extends Appliance {
+    private final boolean hasFreezer;
+
+    public Fridge(double initPrice, int initQuantity, int initWattage, String initColor, String initBrand, boolean initFreezer) {
+        super(initPrice, initQuantity, initWattage, initColor, initBrand);
+        hasFreezer = initFreezer;
+    }
+
+    public boolean hasFreezer() {
+        return hasFreezer;
+    }
+
+    @Override
+    protected String describe(DisplayNames names) {
+        return names.format(hasFreezer ? "fridge.freezer" : "fridge", getBrand(), getColor(), getWattage());
+    }
 }
\ No newline at end of file
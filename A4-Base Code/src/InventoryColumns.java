@@ -0,0 +1,17 @@
+//Read access to every SKU's price, category and quantities without going through its Product
+//Whole-catalog scans (snapshots, the leaderboard, the journal's shadow copy) read these, so a catalog
+//whose products are created on demand, like MappedInventory's, does not create a Product per SKU
+public interface InventoryColumns {
+    int size();
+
+    long priceCentsAt(int sku);
+
+    //Category of the product, as SalesMetrics.categoryOf names it
+    String categoryAt(int sku);
+
+    int stockAt(int sku);
+
+    int reservedAt(int sku);
+
+    long soldAt(int sku);
+}
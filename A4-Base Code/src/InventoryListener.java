@@ -0,0 +1,31 @@
+//Callback for changes to a product's stock, reserved or sold quantities
+//Called on the thread that made the change, right after it took effect. Every change is reported
+//once: sales, returns, deliveries and withdrawals by their own callback, and the changes without
+//one (reserving, releasing and restoring units) by quantitiesChanged
+public interface InventoryListener {
+    void quantitiesChanged(Product product);
+
+    //Called after amount units were sold, either directly or by committing a reservation
+    default void unitsSold(Product product, int amount) {
+    }
+
+    //Called after amount sold units were put back into stock
+    default void unitsReturned(Product product, int amount) {
+    }
+
+    //Called after amount units were added to stock without a sale, e.g. a delivery
+    default void unitsReceived(Product product, int amount) {
+    }
+
+    //Called after amount units were taken out of stock without a sale, e.g. a transfer
+    default void unitsWithdrawn(Product product, int amount) {
+    }
+
+    //Called by a store after it recorded a completed checkout worth amountCents
+    default void checkoutRecorded(long amountCents) {
+    }
+
+    //Called by a store after it refunded amountCents, e.g. for units returned against a receipt
+    default void refundRecorded(long amountCents) {
+    }
+}
@@ -0,0 +1,98 @@
+//Immutable inventory of a store at one point of its history: stock and sold units per SKU plus
+//the revenue and checkout totals. Units held by carts count as stock, as they would after a restart.
+//Quantities are kept in pages of 1024 SKUs; a snapshot taken from a StoreTimeline shares every page
+//it did not change with the snapshots before it, so taking one only copies the pages written since
+
+import lombok.AccessLevel;
+import lombok.Getter;
+
+@Getter
+public final class InventorySnapshot {
+    static final int PAGE_SHIFT = 10;
+    static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+
+    private final long sequence; //Number of timeline events that led to this state
+    private final long takenAtMillis; //Time of the last of those events
+    private final long checkouts;
+    private final long revenueCents;
+    private final int curProducts;
+    @Getter(AccessLevel.NONE)
+    final int[][] stockPages;
+    @Getter(AccessLevel.NONE)
+    final long[][] soldPages;
+
+    InventorySnapshot(long initSequence, long initTakenAtMillis, long initCheckouts, long initRevenueCents,
+                      int initCurProducts, int[][] initStockPages, long[][] initSoldPages) {
+        sequence = initSequence;
+        takenAtMillis = initTakenAtMillis;
+        checkouts = initCheckouts;
+        revenueCents = initRevenueCents;
+        curProducts = initCurProducts;
+        stockPages = initStockPages;
+        soldPages = initSoldPages;
+    }
+
+    //Captures the store's current quantities and totals as the start of a new history
+    //Must be called while no sales are in progress, or the totals may not match the quantities
+    public static InventorySnapshot of(ElectronicStore store) {
+        InventoryColumns columns = store.getColumns();
+        int count = columns.size();
+        int pageCount = pageCount(count);
+        int[][] stock = new int[pageCount][];
+        long[][] sold = new long[pageCount][];
+        for (int page = 0; page < pageCount; page++) {
+            int start = page << PAGE_SHIFT;
+            int length = Math.min(PAGE_SIZE, count - start);
+            stock[page] = new int[length];
+            sold[page] = new long[length];
+            for (int i = 0; i < length; i++) {
+                stock[page][i] = columns.stockAt(start + i) + columns.reservedAt(start + i);
+                sold[page][i] = columns.soldAt(start + i);
+            }
+        }
+        return new InventorySnapshot(0, System.currentTimeMillis(), store.getCheckouts(), store.getRevenueCents(),
+                count, stock, sold);
+    }
+
+    //Returns the units in stock of the product with the given SKU, or 0 if there is none
+    public int getStockQuantity(int sku) {
+        return sku >= 0 && sku < curProducts ? stockPages[sku >>> PAGE_SHIFT][sku & (PAGE_SIZE - 1)] : 0;
+    }
+
+    //Returns the units sold of the product with the given SKU, or 0 if there is none
+    public long getSoldQuantity(int sku) {
+        return sku >= 0 && sku < curProducts ? soldPages[sku >>> PAGE_SHIFT][sku & (PAGE_SIZE - 1)] : 0;
+    }
+
+    //Returns true if a product has less than 0 units in stock or sold, as a state between the events of
+    //concurrent sales can when they were logged in another order than the store took them
+    boolean hasNegativeQuantities() {
+        for (int page = 0; page < stockPages.length; page++) {
+            for (int i = 0; i < stockPages[page].length; i++) {
+                if (stockPages[page][i] < 0 || soldPages[page][i] < 0) return true;
+            }
+        }
+        return false;
+    }
+
+    //Overwrites the store's quantities and totals with this state, dropping any reservations
+    //Products whose quantities already match are left alone, so restoring a recent state only
+    //touches (and notifies listeners about) the products sold since; the rest are compared in the columns
+    void restore(ElectronicStore store) {
+        InventoryColumns columns = store.getColumns();
+        int count = Math.min(curProducts, columns.size());
+        for (int sku = 0; sku < count; sku++) {
+            int stock = getStockQuantity(sku);
+            long sold = getSoldQuantity(sku);
+            if (columns.stockAt(sku) != stock || columns.reservedAt(sku) != 0 || columns.soldAt(sku) != sold) {
+                store.getProduct(sku).restoreQuantities(stock, sold);
+            }
+        }
+        store.quantitiesRestored();
+        store.restoreTotals(revenueCents, checkouts);
+    }
+
+    static int pageCount(int count) {
+        return (count + PAGE_SIZE - 1) >>> PAGE_SHIFT;
+    }
+}
@@ -1,20 +1,17 @@
-//Class representing a single laptop product
-public class Laptop extends Computer {
-    private final double screenSize;
-
-    public Laptop(double initPrice, int initQuantity, double initCPUSpeed, int initRAM, boolean initSSD, int initStorage, double initScreen) {
-        super(initPrice, initQuantity, initCPUSpeed, initRAM, initSSD, initStorage);
-        screenSize = initScreen;
-    }
-
-    @Override
-    public String toString() {
-        String result = screenSize + " inch Laptop PC with " + getCPUSpeed() + "ghz CPU, " + getRAM() + "GB RAM, " + getStorage() + "GB ";
-        if (getSSD()) {
-            result += "SSD drive.";
-        } else {
-            result += "HDD drive.";
-        }
-        return result;
-    }
+import lombok.Getter;
+
+//Class representing a single laptop product
+public class Laptop extends Computer {
+    @Getter
+    private final double screenSize;
+
+    public Laptop(double initPrice, int initQuantity, double initCPUSpeed, int initRAM, boolean initSSD, int initStorage, double initScreen) {
+        super(initPrice, initQuantity, initCPUSpeed, initRAM, initSSD, initStorage);
+        screenSize = initScreen;
+    }
+
+    @Override
+    protected String describe(DisplayNames names) {
+        return names.format(getSSD() ? "laptop.ssd" : "laptop.hdd", screenSize, getCPUSpeed(), getRAM(), getStorage());
+    }
 }
\ No newline at end of file
@@ -0,0 +1,116 @@
+//Concurrent latency histogram with log-linear buckets, in the style of HdrHistogram
+//Each power of two is split into 16 sub-buckets, so a recorded value lands in a bucket at most
+//1/16 (about 6%) wider than itself, from nanoseconds up to centuries, in 1024 fixed counters.
+//Counts are kept per time window: quantiles cover the current and the previous window, so they
+//show the recent tail rather than the average since startup. The count, sum and maximum cover
+//all time, for rate calculations by the scraper.
+//Recording is a bucket computation and a few atomic adds, without locks or allocation
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+public class LatencyHistogram {
+    private static final int SUB_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int BUCKETS = 64 * SUB_BUCKETS;
+
+    private final long windowNanos;
+    private final AtomicLongArray[] windows; //Bucket counts of two alternating windows
+    private final AtomicLongArray windowEpochs; //Which window number each array currently counts
+    private final LongAdder count;
+    private final LongAdder sumNanos;
+    private final AtomicLong maxNanos;
+
+    public LatencyHistogram(long initWindowNanos) {
+        windowNanos = initWindowNanos;
+        windows = new AtomicLongArray[] {new AtomicLongArray(BUCKETS), new AtomicLongArray(BUCKETS)};
+        windowEpochs = new AtomicLongArray(2);
+        windowEpochs.set(0, Long.MIN_VALUE);
+        windowEpochs.set(1, Long.MIN_VALUE);
+        count = new LongAdder();
+        sumNanos = new LongAdder();
+        maxNanos = new AtomicLong();
+    }
+
+    //Records the time from startNanos (a System.nanoTime() reading) until now
+    public void recordSince(long startNanos) {
+        long now = System.nanoTime();
+        record(now - startNanos, now);
+    }
+
+    //Records a duration that ended at nowNanos
+    public void record(long nanos, long nowNanos) {
+        if (nanos < 0) nanos = 0;
+        long epoch = Math.floorDiv(nowNanos, windowNanos);
+        int slot = (int) (epoch & 1);
+        long counted = windowEpochs.get(slot);
+        // The first recording of a new window takes over the array of the window before last
+        if (counted != epoch && windowEpochs.compareAndSet(slot, counted, epoch)) {
+            AtomicLongArray stale = windows[slot];
+            for (int i = 0; i < BUCKETS; i++) {
+                stale.set(i, 0);
+            }
+        }
+        windows[slot].incrementAndGet(bucketOf(nanos));
+        count.increment();
+        sumNanos.add(nanos);
+        long max;
+        while (nanos > (max = maxNanos.get()) && !maxNanos.compareAndSet(max, nanos)) {
+            Thread.onSpinWait();
+        }
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getSumNanos() {
+        return sumNanos.sum();
+    }
+
+    public long getMaxNanos() {
+        return maxNanos.get();
+    }
+
+    //Returns the duration below which the given fraction (0-1) of recent recordings fall,
+    //as the highest value of its bucket, or 0 if nothing was recorded recently
+    public long valueAtQuantile(double quantile) {
+        long epoch = Math.floorDiv(System.nanoTime(), windowNanos);
+        long[] counts = new long[BUCKETS];
+        long total = 0;
+        for (int slot = 0; slot < 2; slot++) {
+            if (windowEpochs.get(slot) < epoch - 1) continue; //Older than the previous window
+            for (int i = 0; i < BUCKETS; i++) {
+                long c = windows[slot].get(i);
+                counts[i] += c;
+                total += c;
+            }
+        }
+        if (total == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(quantile * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank) return highestValueOf(i);
+        }
+        return highestValueOf(BUCKETS - 1);
+    }
+
+    static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) return (int) value;
+        int highestBit = 63 - Long.numberOfLeadingZeros(value);
+        int shift = highestBit - SUB_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) ((value >>> shift) & (SUB_BUCKETS - 1));
+    }
+
+    static long lowestValueOf(int bucket) {
+        int exponent = bucket / SUB_BUCKETS;
+        int sub = bucket % SUB_BUCKETS;
+        return exponent == 0 ? sub : (long) (SUB_BUCKETS + sub) << (exponent - 1);
+    }
+
+    static long highestValueOf(int bucket) {
+        return bucket + 1 < BUCKETS ? lowestValueOf(bucket + 1) - 1 : Long.MAX_VALUE;
+    }
+}
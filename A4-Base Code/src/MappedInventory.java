@@ -0,0 +1,388 @@
+//Inventory backend that keeps the whole catalog in fixed-width columns of a memory-mapped file
+//Price in cents, the packed stock/reserved word, units sold and every type-specific attribute live in their own
+//column; strings (tower profile, color, brand) are stored once in a dictionary and referenced by id.
+//Opening a file only maps it: Product objects are created on access as flyweight views whose
+//quantities are read and compare-and-set directly in the mapped quantities column, so nothing is
+//deserialized up front. Views are only weakly cached: a view stays the same object for as long as
+//anything holds on to it, and one nothing refers to any more is collected and created again on the
+//next access, so only the products in use take heap and the catalog does not have to fit on it.
+//Scans of the whole catalog read the columns directly (see InventoryColumns) instead of creating views.
+//A single mapping is limited to 2GB, which is roughly 30 million SKUs
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class MappedInventory implements InventoryColumns, AutoCloseable {
+    private static final int MAGIC = 0x4D494E56; //"MINV"
+    private static final int VERSION = 3;
+    private static final int HEADER_SIZE = 64;
+
+    private static final byte DESKTOP = 1;
+    private static final byte LAPTOP = 2;
+    private static final byte FRIDGE = 3;
+    private static final byte TOASTER_OVEN = 4;
+    private static final String[] CATEGORIES = {"", "Desktop", "Laptop", "Fridge", "ToasterOven"}; //By type
+
+    private static final int FLAG_SSD = 1;
+    private static final int FLAG_FREEZER = 2;
+    private static final int FLAG_CONVECTION = 4;
+
+    //Column widths in bytes, in file order
+    private static final int TYPE = 0, PRICE = 1, QUANTITIES = 2, CPU_SPEED = 3, SCREEN_SIZE = 4,
+            RAM = 5, STORAGE = 6, WATTAGE = 7, COLOR = 8, BRAND = 9, PROFILE = 10, FLAGS = 11, SOLD = 12;
+    private static final int[] WIDTHS = {1, 8, 8, 8, 8, 4, 4, 4, 4, 4, 4, 1, 8};
+
+    //Atomic access to the quantities and sold columns; the file is written big-endian like ByteBuffer
+    private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final int size;
+    private final int[] columnOffsets;
+    private final String[] dictionary;
+    private final Map<Integer, ViewReference> views; //Flyweights that may still be in use, by SKU
+    private final ReferenceQueue<Product> collected; //Flyweights the garbage collector has dropped
+    private volatile ElectronicStore owner; //The store built by toStore, which every view reports to
+
+    private MappedInventory(FileChannel initChannel, MappedByteBuffer initBuffer) throws IOException {
+        channel = initChannel;
+        buffer = initBuffer;
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw new IOException("Not a mapped inventory file");
+        }
+        size = buffer.getInt(8);
+        columnOffsets = layout(size);
+        dictionary = readDictionary(buffer, columnOffsets[WIDTHS.length]);
+        views = new ConcurrentHashMap<>();
+        collected = new ReferenceQueue<>();
+    }
+
+    //Maps an inventory file written by write; quantity changes are written back to the file
+    public static MappedInventory open(Path file) throws IOException {
+        return open(file, FileChannel.MapMode.READ_WRITE);
+    }
+
+    //Maps an inventory file written by write as a prebuilt store image: quantities can change in
+    //memory, but the file stays as it was built, e.g. when a sales journal owns the quantities
+    public static MappedInventory openImage(Path file) throws IOException {
+        return open(file, FileChannel.MapMode.PRIVATE);
+    }
+
+    private static MappedInventory open(Path file, FileChannel.MapMode mode) throws IOException {
+        //Even a private mapping needs a channel opened for writing
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            long length = channel.size();
+            if (length > Integer.MAX_VALUE) throw new IOException("Inventory file is larger than 2GB: " + file);
+            return new MappedInventory(channel, channel.map(mode, 0, length));
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    //Writes the given products, in SKU order, to a new inventory file
+    public static void write(Path file, List<Product> products) throws IOException {
+        int count = products.size();
+        int[] offsets = layout(count);
+        Map<String, Integer> ids = new HashMap<>();
+        ByteBuffer columns = ByteBuffer.allocate(offsets[WIDTHS.length]);
+        columns.putInt(0, MAGIC).putInt(4, VERSION).putInt(8, count);
+        for (int sku = 0; sku < count; sku++) {
+            Product product = products.get(sku);
+            columns.putLong(offsets[PRICE] + sku * 8, product.getPriceCents());
+            columns.putLong(offsets[QUANTITIES] + sku * 8, product.getPackedQuantities());
+            columns.putLong(offsets[SOLD] + sku * 8, product.getSoldQuantity());
+            int flags = 0;
+            if (product instanceof Computer computer) {
+                columns.putDouble(offsets[CPU_SPEED] + sku * 8, computer.getCPUSpeed());
+                columns.putInt(offsets[RAM] + sku * 4, computer.getRAM());
+                columns.putInt(offsets[STORAGE] + sku * 4, computer.getStorage());
+                if (computer.getSSD()) flags |= FLAG_SSD;
+            } else if (product instanceof Appliance appliance) {
+                columns.putInt(offsets[WATTAGE] + sku * 4, appliance.getWattage());
+                columns.putInt(offsets[COLOR] + sku * 4, intern(ids, appliance.getColor()));
+                columns.putInt(offsets[BRAND] + sku * 4, intern(ids, appliance.getBrand()));
+            }
+            byte type;
+            if (product instanceof Desktop desktop) {
+                type = DESKTOP;
+                columns.putInt(offsets[PROFILE] + sku * 4, intern(ids, desktop.getTowerProfile()));
+            } else if (product instanceof Laptop laptop) {
+                type = LAPTOP;
+                columns.putDouble(offsets[SCREEN_SIZE] + sku * 8, laptop.getScreenSize());
+            } else if (product instanceof Fridge fridge) {
+                type = FRIDGE;
+                if (fridge.hasFreezer()) flags |= FLAG_FREEZER;
+            } else if (product instanceof ToasterOven toasterOven) {
+                type = TOASTER_OVEN;
+                if (toasterOven.isConvection()) flags |= FLAG_CONVECTION;
+            } else {
+                throw new IllegalArgumentException("Unsupported product type: " + product.getClass().getName());
+            }
+            columns.put(offsets[TYPE] + sku, type);
+            columns.put(offsets[FLAGS] + sku, (byte) flags);
+        }
+        String[] strings = new String[ids.size()];
+        ids.forEach((value, id) -> strings[id] = value);
+        try (FileChannel out = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (columns.hasRemaining()) {
+                out.write(columns);
+            }
+            out.write(encodeDictionary(strings));
+            out.force(true);
+        }
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    //Column reads that do not create a Product view
+    @Override
+    public long priceCentsAt(int sku) {
+        return buffer.getLong(columnOffsets[PRICE] + checkIndex(sku) * 8);
+    }
+
+    @Override
+    public String categoryAt(int sku) {
+        byte type = buffer.get(columnOffsets[TYPE] + checkIndex(sku));
+        if (type < DESKTOP || type > TOASTER_OVEN) throw new IllegalStateException("Corrupt product type at SKU " + sku);
+        return CATEGORIES[type];
+    }
+
+    @Override
+    public int stockAt(int sku) {
+        return Product.stockOf(quantitiesAt(sku));
+    }
+
+    @Override
+    public int reservedAt(int sku) {
+        return Product.reservedOf(quantitiesAt(sku));
+    }
+
+    @Override
+    public long soldAt(int sku) {
+        return (long) LONGS.getVolatile(buffer, columnOffsets[SOLD] + checkIndex(sku) * 8);
+    }
+
+    //Returns the flyweight product for the SKU, creating it unless a view of it is still in use
+    //Views created before toStore is called do not report their sales to any store
+    public Product product(int sku) {
+        ViewReference reference = views.get(checkIndex(sku));
+        Product view = reference != null ? reference.get() : null;
+        if (view != null) return view;
+        expungeCollected();
+        Product[] found = new Product[1];
+        views.compute(sku, (key, current) -> {
+            found[0] = current != null ? current.get() : null;
+            if (found[0] != null) return current;
+            found[0] = createView(sku);
+            return new ViewReference(found[0], sku, collected);
+        });
+        return found[0];
+    }
+
+    //Builds the store over this inventory; its catalog creates the views onto the mapped columns as
+    //they are used. Can only be called once, since every view reports its sales to that store
+    public synchronized ElectronicStore toStore(String name) {
+        if (owner != null) throw new IllegalStateException("This inventory already backs a store");
+        ElectronicStore store = new ElectronicStore(name, new Catalog(), this);
+        owner = store;
+        return store;
+    }
+
+    //Flushes changed quantities to disk
+    public void force() {
+        buffer.force();
+    }
+
+    @Override
+    public void close() throws IOException {
+        force();
+        channel.close();
+    }
+
+    private Product createView(int sku) {
+        int flags = buffer.get(columnOffsets[FLAGS] + sku);
+        double price = buffer.getLong(columnOffsets[PRICE] + sku * 8) / 100.0; //Constructors take dollars
+        double cpuSpeed = buffer.getDouble(columnOffsets[CPU_SPEED] + sku * 8);
+        int ram = buffer.getInt(columnOffsets[RAM] + sku * 4);
+        int storage = buffer.getInt(columnOffsets[STORAGE] + sku * 4);
+        int wattage = buffer.getInt(columnOffsets[WATTAGE] + sku * 4);
+        String color = dictionary[buffer.getInt(columnOffsets[COLOR] + sku * 4)];
+        String brand = dictionary[buffer.getInt(columnOffsets[BRAND] + sku * 4)];
+        boolean ssd = (flags & FLAG_SSD) != 0;
+        //The quantity passed to the constructor is a placeholder; the real one is in the mapped column
+        Product product = switch (buffer.get(columnOffsets[TYPE] + sku)) {
+            case DESKTOP -> new Desktop(price, 0, cpuSpeed, ram, ssd, storage,
+                    dictionary[buffer.getInt(columnOffsets[PROFILE] + sku * 4)]);
+            case LAPTOP -> new Laptop(price, 0, cpuSpeed, ram, ssd, storage,
+                    buffer.getDouble(columnOffsets[SCREEN_SIZE] + sku * 8));
+            case FRIDGE -> new Fridge(price, 0, wattage, color, brand, (flags & FLAG_FREEZER) != 0);
+            case TOASTER_OVEN -> new ToasterOven(price, 0, wattage, color, brand, (flags & FLAG_CONVECTION) != 0);
+            default -> throw new IllegalStateException("Corrupt product type at SKU " + sku);
+        };
+        product.bindQuantities(new MappedQuantityCell(columnOffsets[QUANTITIES] + sku * 8, columnOffsets[SOLD] + sku * 8));
+        product.attach(sku, owner);
+        return product;
+    }
+
+    //Forgets the views the garbage collector has dropped
+    private void expungeCollected() {
+        for (Object reference = collected.poll(); reference != null; reference = collected.poll()) {
+            ViewReference view = (ViewReference) reference;
+            views.remove(view.sku, view);
+        }
+    }
+
+    private long quantitiesAt(int sku) {
+        return (long) LONGS.getVolatile(buffer, columnOffsets[QUANTITIES] + checkIndex(sku) * 8);
+    }
+
+    private int checkIndex(int sku) {
+        if (sku < 0 || sku >= size) throw new IndexOutOfBoundsException("SKU " + sku + " out of range for " + size + " products");
+        return sku;
+    }
+
+    //Start offset of every column for the given product count; the last entry is where the dictionary starts
+    private static int[] layout(int count) {
+        int[] offsets = new int[WIDTHS.length + 1];
+        long position = HEADER_SIZE;
+        for (int column = 0; column < WIDTHS.length; column++) {
+            offsets[column] = (int) position;
+            position += (long) WIDTHS[column] * count;
+            position = (position + 7) & ~7L; //Keep 8-byte columns aligned for atomic access
+        }
+        if (position > Integer.MAX_VALUE) throw new IllegalArgumentException("Too many products for one mapping: " + count);
+        offsets[WIDTHS.length] = (int) position;
+        return offsets;
+    }
+
+    //Dictionary id 0 is reserved for "no value"; a null string gets an id of its own and reads back as null
+    private static int intern(Map<String, Integer> ids, String value) {
+        if (ids.isEmpty()) ids.put("", 0);
+        return ids.computeIfAbsent(value, key -> ids.size());
+    }
+
+    //Dictionary layout: [count] then [int length][UTF-8 bytes] per string, a length of -1 standing for null
+    private static ByteBuffer encodeDictionary(String[] strings) {
+        byte[][] encoded = new byte[strings.length][];
+        int length = 4;
+        for (int i = 0; i < strings.length; i++) {
+            encoded[i] = strings[i] != null ? strings[i].getBytes(StandardCharsets.UTF_8) : null;
+            length += 4 + (encoded[i] != null ? encoded[i].length : 0);
+        }
+        ByteBuffer out = ByteBuffer.allocate(length);
+        out.putInt(strings.length);
+        for (byte[] bytes : encoded) {
+            if (bytes != null) {
+                out.putInt(bytes.length).put(bytes);
+            } else {
+                out.putInt(-1);
+            }
+        }
+        return out.flip();
+    }
+
+    private static String[] readDictionary(ByteBuffer buffer, int offset) {
+        int count = buffer.getInt(offset);
+        String[] strings = new String[Math.max(count, 1)];
+        strings[0] = "";
+        int position = offset + 4;
+        for (int i = 0; i < count; i++) {
+            int length = buffer.getInt(position);
+            if (length < 0) {
+                strings[i] = null;
+                position += 4;
+                continue;
+            }
+            byte[] bytes = new byte[length];
+            buffer.get(position + 4, bytes);
+            strings[i] = new String(bytes, StandardCharsets.UTF_8);
+            position += 4 + length;
+        }
+        return strings;
+    }
+
+    //Catalog of the store built by toStore: a fixed list of every SKU whose products are created on access
+    private final class Catalog extends AbstractList<Product> implements RandomAccess {
+        @Override
+        public Product get(int sku) {
+            return product(sku);
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+
+    //Weak reference to a view that remembers its SKU, so it can be forgotten once collected
+    private static final class ViewReference extends WeakReference<Product> {
+        private final int sku;
+
+        private ViewReference(Product view, int initSku, ReferenceQueue<Product> queue) {
+            super(view, queue);
+            sku = initSku;
+        }
+    }
+
+    //Quantities cell backed by one slot each of the mapped quantities and sold columns
+    private final class MappedQuantityCell implements QuantityCell {
+        private final int offset;
+        private final int soldOffset;
+
+        private MappedQuantityCell(int initOffset, int initSoldOffset) {
+            offset = initOffset;
+            soldOffset = initSoldOffset;
+        }
+
+        @Override
+        public long get() {
+            return (long) LONGS.getVolatile(buffer, offset);
+        }
+
+        @Override
+        public void set(long newValue) {
+            LONGS.setVolatile(buffer, offset, newValue);
+        }
+
+        @Override
+        public boolean compareAndSet(long expectedValue, long newValue) {
+            return LONGS.compareAndSet(buffer, offset, expectedValue, newValue);
+        }
+
+        @Override
+        public long getSold() {
+            return (long) LONGS.getVolatile(buffer, soldOffset);
+        }
+
+        @Override
+        public void setSold(long newValue) {
+            LONGS.setVolatile(buffer, soldOffset, newValue);
+        }
+
+        @Override
+        public boolean compareAndSetSold(long expectedValue, long newValue) {
+            return LONGS.compareAndSet(buffer, soldOffset, expectedValue, newValue);
+        }
+    }
+}
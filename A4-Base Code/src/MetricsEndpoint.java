@@ -0,0 +1,45 @@
+//Serves a store's SalesMetrics at /metrics in the Prometheus text format
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+
+public final class MetricsEndpoint {
+    private MetricsEndpoint() {
+    }
+
+    //Starts a small server of its own for the metrics, e.g. next to the desktop app
+    public static HttpServer start(int port, SalesMetrics metrics) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress(port), 16);
+        server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        server.createContext("/metrics", handler(metrics));
+        server.start();
+        return server;
+    }
+
+    //Returns a handler to mount on an existing server
+    public static HttpHandler handler(SalesMetrics metrics) {
+        return exchange -> {
+            try (exchange) {
+                send(exchange, metrics);
+            }
+        };
+    }
+
+    private static void send(HttpExchange exchange, SalesMetrics metrics) throws IOException {
+        StringBuilder text = new StringBuilder(4096);
+        metrics.writePrometheus(text);
+        byte[] body = text.toString().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+}
@@ -0,0 +1,34 @@
+//Helpers for money amounts held as a primitive long number of cents
+//Amounts stay exact through every sum and product; they only become text when rendered
+public final class Money {
+    private Money() {
+    }
+
+    //Converts a dollar amount, as written in the catalog, to cents
+    public static long ofDollars(double dollars) {
+        return Math.round(dollars * 100);
+    }
+
+    //Returns cents * quantity, failing instead of silently overflowing
+    public static long times(long cents, long quantity) {
+        return Math.multiplyExact(cents, quantity);
+    }
+
+    //Returns percent % of cents, rounded half up
+    public static long percentOf(long cents, int percent) {
+        return (Math.multiplyExact(cents, (long) percent) + 50) / 100;
+    }
+
+    //Formats cents as dollars with two decimals, e.g. 123456 -> "1234.56"
+    public static String format(long cents) {
+        StringBuilder text = new StringBuilder(24);
+        if (cents < 0) {
+            text.append('-');
+        }
+        long absolute = Math.abs(cents);
+        long fraction = absolute % 100;
+        text.append(absolute / 100).append('.');
+        if (fraction < 10) text.append('0');
+        return text.append(fraction).toString();
+    }
+}
@@ -1,34 +1,249 @@
-import lombok.Getter;
-
-//Base class for all products the store will sell
-@Getter
-public abstract class Product {
-    private final double price;
-    private int stockQuantity;
-    private int soldQuantity;
-
-    public Product(double initPrice, int initQuantity) {
-        price = initPrice;
-        stockQuantity = initQuantity;
-    }
-
-    //Returns the total revenue (price * amount) if there are at least amount items in stock
-    //Return 0 otherwise (i.e., there is no sale completed)
-    public double sellUnits(int amount) {
-        if (amount > 0 && stockQuantity >= amount) {
-            stockQuantity -= amount;
-            soldQuantity += amount;
-            return price * amount;
-        }
-        return 0.0;
-    }
-
-    //undo the sell operation
-    public double undoSellOperation(int amount){
-        if (amount <0) return 0.0;
-        stockQuantity+=amount;
-        soldQuantity-=amount;
-        return price*amount;
-    }
-
-}
\ No newline at end of file
+import lombok.AccessLevel;
+import lombok.Getter;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.atomic.AtomicLong;
+
+//Base class for all products the store will sell
+@Getter
+public abstract class Product {
+    public static final int MAX_QUANTITY = (1 << 21) - 1; //Largest stock or reservation a product can hold
+    private static final VarHandle DISPLAY_NAME;
+
+    static {
+        try {
+            DISPLAY_NAME = MethodHandles.lookup().findVarHandle(Product.class, "displayName", String.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final long priceCents; //Unit price in cents
+    //Stock and reserved quantities packed into one long, so both move together in a single compare-and-set,
+    //and units sold as a separate 64-bit counter that a lifetime of sales cannot fill. Selling takes the
+    //units out of the packed word first and adds them to sold right after, so stock + reserved + sold
+    //is constant whenever no sale is halfway through
+    @Getter(AccessLevel.NONE)
+    private QuantityCell quantities;
+    private int sku = -1; //Assigned by the store when the product is added to its catalog
+    @Getter(AccessLevel.NONE)
+    private InventoryListener listener; //The store's catalog, told about every quantity change
+    @Getter(AccessLevel.NONE)
+    private String displayName; //Built on first use and set once, see toString
+
+    public Product(double initPrice, int initQuantity) {
+        if (initQuantity < 0 || initQuantity > MAX_QUANTITY) {
+            throw new IllegalArgumentException("Quantity must be between 0 and " + MAX_QUANTITY + ": " + initQuantity);
+        }
+        priceCents = Money.ofDollars(initPrice);
+        quantities = new HeapQuantityCell(pack(initQuantity, 0));
+    }
+
+    //Moves the product's quantities into external storage, e.g. a memory-mapped column
+    //The cell keeps its current value; only used before the product is added to a store
+    void bindQuantities(QuantityCell cell) {
+        if (sku != -1) throw new IllegalStateException("Product is already in a store");
+        quantities = cell;
+    }
+
+    //Returns the packed stock/reserved word, for storage backends that persist it as is
+    long getPackedQuantities() {
+        return quantities.get();
+    }
+
+    //Called by ElectronicStore when the product is added to its catalog
+    void attach(int newSku, InventoryListener newListener) {
+        if (sku != -1) throw new IllegalStateException("Product already has SKU " + sku);
+        sku = newSku;
+        listener = newListener;
+    }
+
+    //Returns the product's display name, built from the DisplayNames templates on first use
+    //Every call returns the same String instance, so it also serves as the product's name key: threads
+    //racing on the first call may each build a name, but only the first one set is ever returned
+    @Override
+    public final String toString() {
+        String name = displayName;
+        if (name == null) {
+            String built = describe(DisplayNames.current());
+            name = (String) DISPLAY_NAME.compareAndExchange(this, null, built);
+            if (name == null) name = built;
+        }
+        return name;
+    }
+
+    //Builds the display name from the templates; called once per product unless threads race on toString
+    protected abstract String describe(DisplayNames names);
+
+    //Returns the number of units that can still be sold or reserved
+    public int getStockQuantity() {
+        return stockOf(quantities.get());
+    }
+
+    //Returns the number of units held by open carts
+    public int getReservedQuantity() {
+        return reservedOf(quantities.get());
+    }
+
+    public long getSoldQuantity() {
+        return quantities.getSold();
+    }
+
+    //Returns the total revenue in cents (price * amount) if there are at least amount items in stock
+    //Return 0 otherwise (i.e., there is no sale completed)
+    public long sellUnits(int amount) {
+        if (amount <= 0 || !adjust(-amount, 0)) return 0;
+        addSold(amount);
+        if (listener != null) listener.unitsSold(this, amount);
+        return Money.times(priceCents, amount);
+    }
+
+    //undo the sell operation
+    //Returns 0 if fewer than amount units have been sold, or the stock would exceed MAX_QUANTITY
+    public long undoSellOperation(int amount){
+        if (amount <= 0 || !takeSold(amount)) return 0;
+        if (!adjust(amount, 0)) {
+            addSold(amount);
+            return 0;
+        }
+        if (listener != null) listener.unitsReturned(this, amount);
+        return Money.times(priceCents, amount);
+    }
+
+    //Adds amount newly received units to stock, e.g. a delivery or a transfer from another branch
+    //Returns false if the stock would exceed MAX_QUANTITY
+    public boolean receiveUnits(int amount) {
+        if (amount <= 0 || !adjust(amount, 0)) return false;
+        if (listener != null) listener.unitsReceived(this, amount);
+        return true;
+    }
+
+    //Takes amount units out of stock without selling them, e.g. to ship them to another branch
+    //Returns false if there are fewer than amount units in stock
+    public boolean withdrawUnits(int amount) {
+        if (amount <= 0 || !adjust(-amount, 0)) return false;
+        if (listener != null) listener.unitsWithdrawn(this, amount);
+        return true;
+    }
+
+    //Moves amount units from stock into the reserved pool
+    //Returns false if there are fewer than amount units in stock
+    public boolean reserveUnits(int amount) {
+        if (amount <= 0 || !adjust(-amount, amount)) return false;
+        changed();
+        return true;
+    }
+
+    //Returns amount reserved units to stock
+    public boolean releaseReservedUnits(int amount) {
+        if (amount <= 0 || !adjust(amount, -amount)) return false;
+        changed();
+        return true;
+    }
+
+    //Turns amount reserved units into sold units and returns their total price in cents
+    //Return 0 if fewer than amount units are reserved
+    public long commitReservedUnits(int amount) {
+        return commitReserved(amount) ? Money.times(priceCents, amount) : 0;
+    }
+
+    //Turns amount reserved units into sold units; returns false if fewer than amount units are reserved
+    //Unlike commitReservedUnits, this tells a failed commit apart from a sale of free units
+    boolean commitReserved(int amount) {
+        if (amount <= 0 || !adjust(0, -amount)) return false;
+        addSold(amount);
+        if (listener != null) listener.unitsSold(this, amount);
+        return true;
+    }
+
+    //Overwrites the quantities with recovered values, dropping any reservations
+    //Only used while restoring a store, before it is shared or while its only seller is paused
+    void restoreQuantities(int stock, long sold) {
+        quantities.set(pack(stock, 0));
+        quantities.setSold(sold);
+        changed();
+    }
+
+    //Applies both deltas atomically, failing if either quantity would leave 0 to MAX_QUANTITY
+    private boolean adjust(int stockDelta, int reservedDelta) {
+        long current;
+        long next;
+        do {
+            current = quantities.get();
+            int stock = stockOf(current) + stockDelta;
+            int reserved = reservedOf(current) + reservedDelta;
+            if (stock < 0 || reserved < 0 || stock > MAX_QUANTITY || reserved > MAX_QUANTITY) return false;
+            next = pack(stock, reserved);
+        } while (!quantities.compareAndSet(current, next));
+        return true;
+    }
+
+    private void addSold(int amount) {
+        long sold;
+        do {
+            sold = quantities.getSold();
+        } while (!quantities.compareAndSetSold(sold, sold + amount));
+    }
+
+    //Takes amount units off the units sold; returns false if fewer were sold
+    private boolean takeSold(int amount) {
+        long sold;
+        do {
+            sold = quantities.getSold();
+            if (sold < amount) return false;
+        } while (!quantities.compareAndSetSold(sold, sold - amount));
+        return true;
+    }
+
+    private void changed() {
+        if (listener != null) listener.quantitiesChanged(this);
+    }
+
+    static long pack(int stock, int reserved) {
+        return ((long) stock << 32) | reserved;
+    }
+
+    static int stockOf(long packed) {
+        return (int) (packed >>> 32);
+    }
+
+    static int reservedOf(long packed) {
+        return (int) packed;
+    }
+
+    //Default cell keeping the quantities on the heap
+    private static final class HeapQuantityCell extends AtomicLong implements QuantityCell {
+        private static final VarHandle SOLD;
+
+        static {
+            try {
+                SOLD = MethodHandles.lookup().findVarHandle(HeapQuantityCell.class, "sold", long.class);
+            } catch (ReflectiveOperationException e) {
+                throw new ExceptionInInitializerError(e);
+            }
+        }
+
+        private volatile long sold;
+
+        private HeapQuantityCell(long initValue) {
+            super(initValue);
+        }
+
+        @Override
+        public long getSold() {
+            return sold;
+        }
+
+        @Override
+        public void setSold(long newValue) {
+            sold = newValue;
+        }
+
+        @Override
+        public boolean compareAndSetSold(long expectedValue, long newValue) {
+            return SOLD.compareAndSet(this, expectedValue, newValue);
+        }
+    }
+
+}
@@ -0,0 +1,12 @@
+import javafx.scene.control.ListCell;
+
+//List cell that shows a product's display name
+//Only the visible rows get cells, and products build their names once (see Product.toString),
+//so scrolling and repainting never rebuild them
+public class ProductCell extends ListCell<Product> {
+    @Override
+    protected void updateItem(Product product, boolean empty) {
+        super.updateItem(product, empty);
+        setText(empty || product == null ? null : product.toString());
+    }
+}
@@ -0,0 +1,377 @@
+//Faceted search index over the typed attributes of a store's catalog
+//Text attributes (type, colour, brand, ...) keep one Bitmap of SKUs per distinct value.
+//Numeric attributes (price, RAM, ...) keep the SKUs sorted by value plus cumulative bitmaps at
+//BUCKETS evenly spaced cut points, so "value < x" is one bitmap copy plus at most one bucket of
+//individual bits. Queries AND these bitmaps together, and facet counts are popcounts of the
+//result against each value's bitmap; neither depends on the catalog size beyond the bitmap width.
+//The index is built from a finished catalog and does not follow products added later.
+//Stock levels are not indexed; callers filter out products that are sold out when they list results
+//A product without a value for a text attribute (a null colour, brand or profile) has no facet for it,
+//as a product without a numeric attribute has no place in its range column
+
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+public class ProductIndex {
+    private static final int BUCKETS = 32; //Cut points per numeric attribute
+
+    //Attributes that can be filtered on
+    public enum Attribute {
+        TYPE(false), PRICE(true), CPU_SPEED(true), RAM(true), SSD(false), STORAGE(true), PROFILE(false),
+        SCREEN_SIZE(true), WATTAGE(true), COLOR(false), BRAND(false), FREEZER(false), CONVECTION(false);
+
+        private final boolean numeric;
+
+        Attribute(boolean initNumeric) {
+            numeric = initNumeric;
+        }
+
+        public boolean isNumeric() {
+            return numeric;
+        }
+    }
+
+    private final int size; //Catalog size when the index was built
+    private final Map<Attribute, Map<String, Bitmap>> values; //Text attribute -> value -> SKUs
+    private final Map<Attribute, RangeColumn> ranges; //Numeric attribute -> sorted column
+    private final String[] words; //Lower-case words of every text value, sorted, for prefix search
+    private final Bitmap[] wordSkus; //SKUs whose text values contain words[i]
+
+    public ProductIndex(ElectronicStore store) {
+        List<Product> stock = store.getStock();
+        size = stock.size();
+        values = new EnumMap<>(Attribute.class);
+        ranges = new EnumMap<>(Attribute.class);
+        Map<Attribute, double[]> numbers = new EnumMap<>(Attribute.class);
+        for (Attribute attribute : Attribute.values()) {
+            if (attribute.isNumeric()) {
+                double[] column = new double[size];
+                Arrays.fill(column, Double.NaN); //NaN marks products without the attribute
+                numbers.put(attribute, column);
+            } else {
+                values.put(attribute, new TreeMap<>());
+            }
+        }
+
+        for (int sku = 0; sku < size; sku++) {
+            Product product = stock.get(sku);
+            numbers.get(Attribute.PRICE)[sku] = product.getPriceCents() / 100.0;
+            if (product instanceof Computer computer) {
+                mark(Attribute.TYPE, product instanceof Desktop ? "Desktop" : "Laptop", sku);
+                numbers.get(Attribute.CPU_SPEED)[sku] = computer.getCPUSpeed();
+                numbers.get(Attribute.RAM)[sku] = computer.getRAM();
+                numbers.get(Attribute.STORAGE)[sku] = computer.getStorage();
+                mark(Attribute.SSD, computer.getSSD() ? "SSD" : "HDD", sku);
+                if (computer instanceof Desktop desktop) mark(Attribute.PROFILE, desktop.getTowerProfile(), sku);
+                if (computer instanceof Laptop laptop) numbers.get(Attribute.SCREEN_SIZE)[sku] = laptop.getScreenSize();
+            } else if (product instanceof Appliance appliance) {
+                numbers.get(Attribute.WATTAGE)[sku] = appliance.getWattage();
+                mark(Attribute.COLOR, appliance.getColor(), sku);
+                mark(Attribute.BRAND, appliance.getBrand(), sku);
+                if (appliance instanceof Fridge fridge) {
+                    mark(Attribute.TYPE, "Fridge", sku);
+                    mark(Attribute.FREEZER, fridge.hasFreezer() ? "Freezer" : "No Freezer", sku);
+                } else if (appliance instanceof ToasterOven oven) {
+                    mark(Attribute.TYPE, "Toaster Oven", sku);
+                    mark(Attribute.CONVECTION, oven.isConvection() ? "Convection" : "No Convection", sku);
+                }
+            }
+        }
+        for (Map.Entry<Attribute, double[]> column : numbers.entrySet()) {
+            ranges.put(column.getKey(), new RangeColumn(column.getValue()));
+        }
+
+        // Every word of every text value, e.g. "stainless" and "steel", points at the value's SKUs
+        Map<String, Bitmap> byWord = new TreeMap<>();
+        for (Map<String, Bitmap> attributeValues : values.values()) {
+            for (Map.Entry<String, Bitmap> value : attributeValues.entrySet()) {
+                if (value.getKey().startsWith("No ")) continue; //"no" words would match everything
+                for (String word : value.getKey().toLowerCase(Locale.ROOT).split("[^a-z0-9]+")) {
+                    if (word.isEmpty()) continue;
+                    byWord.computeIfAbsent(word, w -> new Bitmap(size)).or(value.getValue());
+                }
+            }
+        }
+        words = byWord.keySet().toArray(new String[0]);
+        wordSkus = byWord.values().toArray(new Bitmap[0]);
+    }
+
+    private void mark(Attribute attribute, String value, int sku) {
+        if (value == null) return;
+        values.get(attribute).computeIfAbsent(value, v -> new Bitmap(size)).set(sku);
+    }
+
+    //Returns the number of SKUs the index covers
+    public int size() {
+        return size;
+    }
+
+    //Starts a query that matches the whole catalog; each filter narrows it down
+    public Query query() {
+        return new Query();
+    }
+
+    //Runs a search box query. The text is split on spaces into terms:
+    //  attribute comparisons like ram>=16, price<300 or screen=15 (operators <, <=, =, >=, >)
+    //  anything else is a word prefix matched against type, brand, colour, profile and the
+    //  SSD/HDD, freezer and convection values, so "ssd lap" already finds SSD laptops; a plural
+    //  that is not itself the start of a word is matched in the singular, so "ssd laptops" does too
+    //Incomplete comparisons, as seen while typing, are ignored
+    public Query search(String text) {
+        Query query = new Query();
+        for (String term : text.trim().toLowerCase(Locale.ROOT).split("\\s+")) {
+            if (term.isEmpty()) continue;
+            int operator = indexOfOperator(term);
+            if (operator > 0) {
+                query.compare(term, operator);
+            } else if (operator < 0) {
+                query.word(firstWordWith(term) >= 0 ? term : singular(term));
+            }
+        }
+        return query;
+    }
+
+    //Returns how many SKUs in matches have each value of a text attribute, in value order
+    public Map<String, Integer> facetCounts(Bitmap matches, Attribute attribute) {
+        if (attribute.isNumeric()) throw new IllegalArgumentException(attribute + " is numeric");
+        Map<String, Integer> counts = new LinkedHashMap<>();
+        for (Map.Entry<String, Bitmap> value : values.get(attribute).entrySet()) {
+            int count = matches.andCardinality(value.getValue());
+            if (count > 0) counts.put(value.getKey(), count);
+        }
+        return counts;
+    }
+
+    //Returns the position of the first indexed word starting with prefix, or -1 if there is none
+    private int firstWordWith(String prefix) {
+        int first = Arrays.binarySearch(words, prefix);
+        if (first < 0) first = -first - 1;
+        return first < words.length && words[first].startsWith(prefix) ? first : -1;
+    }
+
+    //Returns the singular of an English plural ("batteries", "boxes", "laptops"), or the word itself
+    private static String singular(String word) {
+        if (word.endsWith("ies") && word.length() > 3) return word.substring(0, word.length() - 3) + "y";
+        if (word.endsWith("ses") || word.endsWith("xes") || word.endsWith("zes") || word.endsWith("ches") || word.endsWith("shes")) {
+            return word.substring(0, word.length() - 2);
+        }
+        if (word.endsWith("s") && !word.endsWith("ss") && word.length() > 1) return word.substring(0, word.length() - 1);
+        return word;
+    }
+
+    private static int indexOfOperator(String term) {
+        for (int i = 0; i < term.length(); i++) {
+            if (isOperator(term.charAt(i))) return i;
+        }
+        return -1;
+    }
+
+    private static boolean isOperator(char c) {
+        return c == '<' || c == '>' || c == '=';
+    }
+
+    private static Attribute attributeNamed(String name) {
+        return switch (name) {
+            case "price", "cost" -> Attribute.PRICE;
+            case "cpu", "ghz", "speed" -> Attribute.CPU_SPEED;
+            case "ram", "memory" -> Attribute.RAM;
+            case "storage", "disk" -> Attribute.STORAGE;
+            case "screen", "inch", "inches" -> Attribute.SCREEN_SIZE;
+            case "watts", "wattage", "power" -> Attribute.WATTAGE;
+            default -> null;
+        };
+    }
+
+    //A set of matching SKUs, narrowed down by each filter applied to it
+    public final class Query {
+        private final Bitmap matches;
+
+        private Query() {
+            matches = Bitmap.full(size);
+        }
+
+        //Keeps products whose text attribute has exactly the given value (case-insensitive)
+        public Query is(Attribute attribute, String value) {
+            if (attribute.isNumeric()) return between(attribute, Double.parseDouble(value), Double.parseDouble(value));
+            Bitmap union = new Bitmap(size);
+            for (Map.Entry<String, Bitmap> entry : values.get(attribute).entrySet()) {
+                if (entry.getKey().equalsIgnoreCase(value)) union.or(entry.getValue());
+            }
+            matches.and(union);
+            return this;
+        }
+
+        //Keeps products whose numeric attribute is within [low, high]
+        public Query between(Attribute attribute, double low, double high) {
+            RangeColumn column = ranges.get(attribute);
+            Bitmap range = column.below(column.upperBound(high));
+            range.andNot(column.below(column.lowerBound(low)));
+            matches.and(range);
+            return this;
+        }
+
+        public Query atLeast(Attribute attribute, double low) {
+            RangeColumn column = ranges.get(attribute);
+            Bitmap range = column.below(column.count());
+            range.andNot(column.below(column.lowerBound(low)));
+            matches.and(range);
+            return this;
+        }
+
+        public Query above(Attribute attribute, double low) {
+            RangeColumn column = ranges.get(attribute);
+            Bitmap range = column.below(column.count());
+            range.andNot(column.below(column.upperBound(low)));
+            matches.and(range);
+            return this;
+        }
+
+        public Query atMost(Attribute attribute, double high) {
+            RangeColumn column = ranges.get(attribute);
+            matches.and(column.below(column.upperBound(high)));
+            return this;
+        }
+
+        public Query below(Attribute attribute, double high) {
+            RangeColumn column = ranges.get(attribute);
+            matches.and(column.below(column.lowerBound(high)));
+            return this;
+        }
+
+        //Keeps products with a text value containing a word that starts with prefix
+        public Query word(String prefix) {
+            Bitmap union = new Bitmap(size);
+            int first = firstWordWith(prefix);
+            for (int i = first; i >= 0 && i < words.length && words[i].startsWith(prefix); i++) {
+                union.or(wordSkus[i]);
+            }
+            matches.and(union);
+            return this;
+        }
+
+        //Method to apply a term such as ram>=16 whose operator starts at the given position
+        //Two-character operators are taken whole, so => and =< are not read as = followed by a value
+        private void compare(String term, int operator) {
+            Attribute attribute = attributeNamed(term.substring(0, operator));
+            int valueStart = operator + 1;
+            if (valueStart < term.length() && isOperator(term.charAt(valueStart))) valueStart++;
+            String operatorText = term.substring(operator, valueStart);
+            String valueText = term.substring(valueStart).replace("$", "").replace("gb", "");
+            double value;
+            try {
+                value = Double.parseDouble(valueText);
+            } catch (NumberFormatException e) {
+                return; //Still being typed
+            }
+            if (attribute == null) return;
+            switch (operatorText) {
+                case "<" -> below(attribute, value);
+                case "<=", "=<" -> atMost(attribute, value);
+                case ">" -> above(attribute, value);
+                case ">=", "=>" -> atLeast(attribute, value);
+                case "=", "==" -> between(attribute, value, value);
+                default -> {
+                }
+            }
+        }
+
+        //Returns the matching SKUs; the bitmap belongs to the query
+        public Bitmap matches() {
+            return matches;
+        }
+
+        public int count() {
+            return matches.cardinality();
+        }
+    }
+
+    //One numeric attribute: SKUs sorted by value, with cumulative bitmaps at evenly spaced cut points
+    private final class RangeColumn {
+        private final double[] sortedValues;
+        private final int[] sortedSkus;
+        private final int bucketSpan; //Sorted positions between cut points
+        private final Bitmap[] prefixes; //prefixes[k] holds the SKUs at sorted positions below k * bucketSpan
+
+        RangeColumn(double[] column) {
+            int count = 0;
+            for (double value : column) {
+                if (!Double.isNaN(value)) count++;
+            }
+            // Sort SKUs by value: rank each value among the distinct values, then sort (rank, sku) pairs
+            double[] distinct = new double[count];
+            int next = 0;
+            for (double value : column) {
+                if (!Double.isNaN(value)) distinct[next++] = value;
+            }
+            Arrays.sort(distinct);
+            long[] keys = new long[count];
+            next = 0;
+            for (int sku = 0; sku < column.length; sku++) {
+                if (Double.isNaN(column[sku])) continue;
+                long rank = Arrays.binarySearch(distinct, column[sku]);
+                keys[next++] = rank << 32 | sku;
+            }
+            Arrays.sort(keys);
+            sortedValues = new double[count];
+            sortedSkus = new int[count];
+            for (int i = 0; i < count; i++) {
+                sortedSkus[i] = (int) keys[i];
+                sortedValues[i] = column[sortedSkus[i]];
+            }
+
+            bucketSpan = Math.max(1, (count + BUCKETS - 1) / BUCKETS);
+            prefixes = new Bitmap[count / bucketSpan + 1];
+            Bitmap running = new Bitmap(size);
+            for (int k = 0; k < prefixes.length; k++) {
+                prefixes[k] = running.copy();
+                int end = Math.min(count, (k + 1) * bucketSpan);
+                for (int i = k * bucketSpan; i < end; i++) {
+                    running.set(sortedSkus[i]);
+                }
+            }
+        }
+
+        int count() {
+            return sortedSkus.length;
+        }
+
+        //First sorted position whose value is >= value
+        int lowerBound(double value) {
+            int low = 0;
+            int high = sortedValues.length;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (sortedValues[middle] < value) low = middle + 1;
+                else high = middle;
+            }
+            return low;
+        }
+
+        //First sorted position whose value is > value
+        int upperBound(double value) {
+            int low = 0;
+            int high = sortedValues.length;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (sortedValues[middle] <= value) low = middle + 1;
+                else high = middle;
+            }
+            return low;
+        }
+
+        //Returns a new bitmap of the SKUs at sorted positions below position
+        Bitmap below(int position) {
+            int k = position / bucketSpan;
+            Bitmap result = prefixes[k].copy();
+            for (int i = k * bucketSpan; i < position; i++) {
+                result.set(sortedSkus[i]);
+            }
+            return result;
+        }
+    }
+}
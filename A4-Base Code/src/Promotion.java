@@ -0,0 +1,99 @@
+//Promotions the store can run, each selecting its products with a search query (see ProductIndex.search)
+//A promotion may be limited to a period; from is inclusive, until exclusive, and null leaves that side open.
+//Promotions are written one per line, for example:
+//  10% off ssd
+//  50% off toaster with laptop
+//  25% off fridge freezer from 2026-11-27T00:00:00Z until 2026-11-30T00:00:00Z
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+
+public sealed interface Promotion {
+    int percent();
+
+    Instant from();
+
+    Instant until();
+
+    //Takes percent off every unit of the matching products
+    record PercentOff(String products, int percent, Instant from, Instant until) implements Promotion {
+        public PercentOff {
+            checkPercent(percent);
+        }
+    }
+
+    //Takes percent off one unit of the matching products for each unit of the trigger products in the
+    //cart, cheapest units first. A unit that matches both can be either half of a pair, never both
+    record BuyGet(String trigger, String products, int percent, Instant from, Instant until) implements Promotion {
+        public BuyGet {
+            checkPercent(percent);
+        }
+    }
+
+    //Returns true if the promotion runs at the given time
+    default boolean isActiveAt(long millis) {
+        return (from() == null || from().toEpochMilli() <= millis) && (until() == null || millis < until().toEpochMilli());
+    }
+
+    //Parses one promotion: <percent>% off [products] [with trigger] [from instant] [until instant]
+    static Promotion parse(String line) {
+        String[] words = line.trim().split("\\s+");
+        if (words.length < 2 || !words[0].endsWith("%") || !words[1].equalsIgnoreCase("off")) {
+            throw new IllegalArgumentException("Expected \"<percent>% off ...\": " + line);
+        }
+        int percent;
+        try {
+            percent = Integer.parseInt(words[0].substring(0, words[0].length() - 1));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Not a percentage: " + words[0]);
+        }
+        StringBuilder products = new StringBuilder();
+        StringBuilder trigger = null;
+        StringBuilder part = products;
+        Instant from = null;
+        Instant until = null;
+        for (int i = 2; i < words.length; i++) {
+            String word = words[i];
+            if (word.equalsIgnoreCase("with")) {
+                trigger = new StringBuilder();
+                part = trigger;
+            } else if (word.equalsIgnoreCase("from") && i + 1 < words.length) {
+                from = instant(words[++i]);
+            } else if (word.equalsIgnoreCase("until") && i + 1 < words.length) {
+                until = instant(words[++i]);
+            } else {
+                if (!part.isEmpty()) part.append(' ');
+                part.append(word);
+            }
+        }
+        if (trigger == null) return new PercentOff(products.toString(), percent, from, until);
+        return new BuyGet(trigger.toString(), products.toString(), percent, from, until);
+    }
+
+    //Reads promotions from a file, one per line; blank lines and lines starting with # are skipped
+    static List<Promotion> read(Path file) throws IOException {
+        List<Promotion> promotions = new ArrayList<>();
+        for (String line : Files.readAllLines(file)) {
+            if (line.isBlank() || line.trim().startsWith("#")) continue;
+            promotions.add(parse(line));
+        }
+        return promotions;
+    }
+
+    private static Instant instant(String text) {
+        try {
+            return Instant.parse(text);
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("Not an instant like 2026-11-27T00:00:00Z: " + text);
+        }
+    }
+
+    private static void checkPercent(int percent) {
+        if (percent < 0 || percent > 100) throw new IllegalArgumentException("Percent must be between 0 and 100: " + percent);
+    }
+}
@@ -0,0 +1,199 @@
+//Promotions compiled against a catalog into a dispatch table
+//Every SKU is put in a pricing class: SKUs that the same promotions apply to, in the same roles,
+//share a class. Classes are found by refining the partition of the catalog with each promotion's
+//matching SKUs (from the ProductIndex), so the rules are only matched against products once.
+//Pricing a cart line then only looks at the rules of its class: percent-off rules sorted best
+//first, and the buy-get rules the class triggers or receives. Time limits are checked when pricing; the table knows when the next one starts or ends
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class PromotionTable {
+    static final int TRIGGER = 1; //Role bit: units of the class trigger the buy-get rule
+    static final int TARGET = 2; //Role bit: units of the class can get the buy-get rule's discount
+
+    private final List<Promotion> promotions;
+    private final int[] classOf; //Pricing class of each SKU
+    private final int[][] percentRules; //Per class: PercentOff rules, highest percent first
+    private final int[][] dealRules; //Per class: BuyGet rules the class takes part in
+    private final byte[][] dealRoles; //Per class: TRIGGER and/or TARGET for each of dealRules
+    private final long[] from; //Per rule: first millisecond it runs
+    private final long[] until; //Per rule: first millisecond it no longer runs
+    private final long[] boundaries; //Every from and until, sorted
+
+    public PromotionTable(List<Promotion> initPromotions, ProductIndex index) {
+        promotions = List.copyOf(initPromotions);
+        int count = promotions.size();
+        from = new long[count];
+        until = new long[count];
+        long[] times = new long[count * 2];
+        int timeCount = 0;
+        Partition partition = new Partition(index.size());
+        for (int rule = 0; rule < count; rule++) {
+            Promotion promotion = promotions.get(rule);
+            from[rule] = promotion.from() != null ? promotion.from().toEpochMilli() : Long.MIN_VALUE;
+            until[rule] = promotion.until() != null ? promotion.until().toEpochMilli() : Long.MAX_VALUE;
+            if (promotion.from() != null) times[timeCount++] = from[rule];
+            if (promotion.until() != null) times[timeCount++] = until[rule];
+            switch (promotion) {
+                case Promotion.PercentOff off -> partition.refine(index.search(off.products()).matches(), rule, 0);
+                case Promotion.BuyGet deal -> {
+                    partition.refine(index.search(deal.trigger()).matches(), rule, TRIGGER);
+                    partition.refine(index.search(deal.products()).matches(), rule, TARGET);
+                }
+            }
+        }
+        boundaries = Arrays.copyOf(times, timeCount);
+        Arrays.sort(boundaries);
+        classOf = partition.classOf;
+        int classes = partition.heads.size();
+        percentRules = new int[classes][];
+        dealRules = new int[classes][];
+        dealRoles = new byte[classes][];
+        Map<Integer, Integer> roles = new LinkedHashMap<>();
+        List<Integer> percents = new ArrayList<>();
+        for (int cls = 0; cls < classes; cls++) {
+            roles.clear();
+            percents.clear();
+            for (Node node = partition.heads.get(cls); node != null; node = node.next) {
+                if (node.role == 0) {
+                    percents.add(node.rule);
+                } else {
+                    roles.merge(node.rule, node.role, (a, b) -> a | b);
+                }
+            }
+            percentRules[cls] = percents.stream().mapToInt(Integer::intValue).toArray();
+            sortByPercent(percentRules[cls]);
+            dealRules[cls] = new int[roles.size()];
+            dealRoles[cls] = new byte[roles.size()];
+            int i = 0;
+            for (Map.Entry<Integer, Integer> role : roles.entrySet()) {
+                dealRules[cls][i] = role.getKey();
+                dealRoles[cls][i++] = (byte) (int) role.getValue();
+            }
+        }
+    }
+
+    //Compiles the promotions against the store's current catalog
+    public static PromotionTable compile(List<Promotion> promotions, ElectronicStore store) {
+        return new PromotionTable(promotions, new ProductIndex(store));
+    }
+
+    public List<Promotion> getPromotions() {
+        return promotions;
+    }
+
+    //Returns the number of distinct pricing classes
+    public int getClassCount() {
+        return percentRules.length;
+    }
+
+    //Returns the pricing class of the SKU; SKUs added after compiling share the class of SKUs without promotions
+    public int classOf(int sku) {
+        return sku >= 0 && sku < classOf.length ? classOf[sku] : 0;
+    }
+
+    //Returns true if any promotion applies to units of the class
+    public boolean hasRules(int cls) {
+        return percentRules[cls].length > 0 || dealRules[cls].length > 0;
+    }
+
+    //Returns the best percent off running at the given time for units of the class, or 0
+    public int bestPercent(int cls, long millis) {
+        for (int rule : percentRules[cls]) {
+            if (isActive(rule, millis)) return promotions.get(rule).percent();
+        }
+        return 0;
+    }
+
+    int[] dealRules(int cls) {
+        return dealRules[cls];
+    }
+
+    byte[] dealRoles(int cls) {
+        return dealRoles[cls];
+    }
+
+    int percentOf(int rule) {
+        return promotions.get(rule).percent();
+    }
+
+    boolean isActive(int rule, long millis) {
+        return from[rule] <= millis && millis < until[rule];
+    }
+
+    //Returns the first time after millis at which a promotion starts or ends, or Long.MAX_VALUE
+    public long nextChangeAfter(long millis) {
+        int position = Arrays.binarySearch(boundaries, millis);
+        position = position >= 0 ? position + 1 : -position - 1;
+        while (position < boundaries.length && boundaries[position] <= millis) position++;
+        return position < boundaries.length ? boundaries[position] : Long.MAX_VALUE;
+    }
+
+    private void sortByPercent(int[] rules) {
+        //Insertion sort; a class rarely has more than a handful of percent-off rules
+        for (int i = 1; i < rules.length; i++) {
+            int rule = rules[i];
+            int j = i - 1;
+            while (j >= 0 && percentOf(rules[j]) < percentOf(rule)) {
+                rules[j + 1] = rules[j];
+                j--;
+            }
+            rules[j + 1] = rule;
+        }
+    }
+
+    //One rule of a class's rule list; lists share their tails, so splitting a class costs one node
+    private record Node(int rule, int role, Node next) {
+    }
+
+    //Partition of the SKUs into classes, refined one rule at a time
+    private static final class Partition {
+        private final int[] classOf;
+        private int[] sizes = new int[16]; //Number of SKUs in each class
+        private final List<Node> heads = new ArrayList<>(); //Rules of each class, newest first
+        private int[] hits = new int[1];
+        private int[] split = new int[1];
+
+        private Partition(int size) {
+            classOf = new int[size];
+            sizes[0] = size;
+            heads.add(null);
+        }
+
+        //Adds the rule to every SKU in matches, splitting classes that only partly match
+        private void refine(Bitmap matches, int rule, int role) {
+            int classes = heads.size();
+            if (hits.length < classes) {
+                hits = new int[classes * 2];
+                split = new int[classes * 2];
+            }
+            Arrays.fill(hits, 0, classes, 0);
+            for (int sku = matches.nextSetBit(0); sku >= 0; sku = matches.nextSetBit(sku + 1)) {
+                hits[classOf[sku]]++;
+            }
+            for (int cls = 0; cls < classes; cls++) {
+                split[cls] = -1;
+                if (hits[cls] == 0) continue;
+                Node added = new Node(rule, role, heads.get(cls));
+                if (hits[cls] == sizes[cls]) {
+                    heads.set(cls, added);
+                } else {
+                    //The matching SKUs move to a new class with the old class's rules plus this one
+                    split[cls] = heads.size();
+                    if (split[cls] == sizes.length) sizes = Arrays.copyOf(sizes, sizes.length * 2);
+                    sizes[split[cls]] = hits[cls];
+                    sizes[cls] -= hits[cls];
+                    heads.add(added);
+                }
+            }
+            for (int sku = matches.nextSetBit(0); sku >= 0; sku = matches.nextSetBit(sku + 1)) {
+                int target = split[classOf[sku]];
+                if (target >= 0) classOf[sku] = target;
+            }
+        }
+    }
+}
@@ -0,0 +1,23 @@
+//Order for more stock from one supplier, as raised by a Replenisher
+//Also serves as the delivery note when the units arrive: each line is received into stock
+
+import java.util.List;
+
+public record PurchaseOrder(long number, String supplier, List<Line> lines) {
+    public PurchaseOrder {
+        lines = List.copyOf(lines);
+    }
+
+    //Returns the total number of units ordered
+    public int units() {
+        int units = 0;
+        for (Line line : lines) {
+            units += line.quantity();
+        }
+        return units;
+    }
+
+    //Units of one product on the order
+    public record Line(Product product, int quantity) {
+    }
+}
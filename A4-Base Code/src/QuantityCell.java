@@ -0,0 +1,15 @@
+//Storage for a product's quantities: the packed stock/reserved word and the units sold so far
+//Products keep them on the heap by default; MappedInventory binds them to slots in memory-mapped columns
+public interface QuantityCell {
+    long get();
+
+    void set(long newValue);
+
+    boolean compareAndSet(long expectedValue, long newValue);
+
+    long getSold();
+
+    void setSold(long newValue);
+
+    boolean compareAndSetSold(long expectedValue, long newValue);
+}
@@ -0,0 +1,90 @@
+//Immutable record of one checkout: its lines at the unit prices charged, the promotion discount and when it happened
+//Receipts are numbered from 1 in the order they were written to a ReceiptStore. Lines refer to products
+//by SKU, so printing a receipt looks their names up in the store's catalog
+
+import java.time.Instant;
+import java.util.List;
+
+public record Receipt(long number, long timeMillis, long discountCents, List<Line> lines) {
+    public Receipt {
+        lines = List.copyOf(lines);
+    }
+
+    //One product of the checkout: units bought and their list price
+    public record Line(int sku, int quantity, long unitPriceCents) {
+        public long totalCents() {
+            return Money.times(unitPriceCents, quantity);
+        }
+    }
+
+    //Units of one line handed back against a receipt and the amount refunded for them
+    public record Return(long receipt, long timeMillis, int sku, int quantity, long refundCents) {
+    }
+
+    //Value of the lines at list price, in cents
+    public long subtotalCents() {
+        long subtotal = 0;
+        for (Line line : lines) {
+            subtotal += line.totalCents();
+        }
+        return subtotal;
+    }
+
+    //Amount paid, in cents
+    public long totalCents() {
+        return subtotalCents() - discountCents;
+    }
+
+    //Returns the line of the product with the given SKU, or null if the receipt has none
+    public Line getLine(int sku) {
+        for (Line line : lines) {
+            if (line.sku() == sku) return line;
+        }
+        return null;
+    }
+
+    //Amount paid for units worth listCents at list price, with the discount spread over the lines by value
+    //Summed over every unit of the receipt this comes to exactly totalCents()
+    long netOf(long listCents) {
+        long subtotal = subtotalCents();
+        if (subtotal == 0) return 0;
+        return listCents - Math.multiplyExact(discountCents, listCents) / subtotal;
+    }
+
+    //Returns what was paid for each line, in line order, with the discount spread over the lines by value
+    public long[] lineNetCents() {
+        long subtotal = subtotalCents();
+        long[] net = new long[lines.size()];
+        long listSoFar = 0;
+        long paidSoFar = 0;
+        for (int i = 0; i < net.length; i++) {
+            listSoFar += lines.get(i).totalCents();
+            long paid = subtotal != 0 ? listSoFar - Math.multiplyExact(discountCents, listSoFar) / subtotal : 0;
+            net[i] = paid - paidSoFar;
+            paidSoFar = paid;
+        }
+        return net;
+    }
+
+    //Formats the receipt for printing, with the returns made against it so far
+    public String format(ElectronicStore store, List<Return> returns) {
+        StringBuilder text = new StringBuilder();
+        text.append(store.getName()).append('\n');
+        text.append("Receipt #").append(number).append("  ").append(Instant.ofEpochMilli(timeMillis)).append('\n');
+        for (Line line : lines) {
+            Product product = store.getProduct(line.sku());
+            text.append(line.quantity()).append(" x ").append(product != null ? product : "SKU " + line.sku())
+                    .append(" @ $").append(Money.format(line.unitPriceCents()))
+                    .append(" = $").append(Money.format(line.totalCents())).append('\n');
+        }
+        text.append("Subtotal: $").append(Money.format(subtotalCents())).append('\n');
+        if (discountCents != 0) text.append("Promotions: -$").append(Money.format(discountCents)).append('\n');
+        text.append("Total: $").append(Money.format(totalCents())).append('\n');
+        for (Return returned : returns) {
+            text.append("Returned ").append(Instant.ofEpochMilli(returned.timeMillis())).append(": ")
+                    .append(returned.quantity()).append(" x SKU ").append(returned.sku())
+                    .append(", refunded $").append(Money.format(returned.refundCents())).append('\n');
+        }
+        return text.toString();
+    }
+}
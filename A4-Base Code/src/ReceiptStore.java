@@ -0,0 +1,764 @@
+//Durable store of every checkout's receipt, indexed by number, by time and by product
+//Keeps five files in one directory:
+//  receipts.data      receipts as length-prefixed, CRC32C-checked records: [int length][int checksum][body],
+//                     the body being [varint number][long time][varint discount][varint lines] then
+//                     [varint sku][varint quantity][varint unit price] per line
+//  receipts.index     a fixed 32-byte entry per receipt: [data offset][time][sales so far][last return]
+//  receipts.returns   a fixed 48-byte entry per return: [receipt][time][refunds so far][previous return
+//                     against the receipt][int sku][int quantity][refund]
+//  receipts.products  checkpoint of the sorted receipt numbers that sold each SKU, written on close
+//  receipts.voided    a fixed 16-byte entry per void: [first receipt][last receipt]
+//Receipts and returns are numbered in the order they are written and their times never go back, so
+//a receipt is found by number in O(1) and the first receipt or return at a given time by binary
+//search in O(log n). The sales or refunds of any period are the difference of two running totals,
+//which makes a daily reconciliation O(log n) too. The receipts that sold a product are kept as a
+//sorted list per SKU in memory; receipts written after the last checkpoint are read back on open.
+//Every record is forced to disk before its index entry is written, so a crash can only lose the
+//last entries of each index, and opening the store repairs them from the records.
+//Concurrent checkouts share their fsyncs (group commit): each writes its record under the lock, then
+//whichever gets the commit lock first forces every record written so far, writes their index entries
+//and forces the index, so a batch of receipts costs two fsyncs instead of two each. A receipt is
+//only visible to readers once its batch is committed. If a batch cannot be committed the store
+//refuses every later receipt, and the records it could not commit are cut off the data file
+//A receipt is voided when the sale it records is undone some other way than a return, e.g. when the
+//store is reset or rewound to before it. A voided receipt still counts towards the totals (the money
+//was taken and the till has to match) but nothing can be returned against it any more
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.zip.CRC32C;
+
+public class ReceiptStore implements AutoCloseable {
+    private static final int DATA_MAGIC = 0x52435054; //"RCPT"
+    private static final int INDEX_MAGIC = 0x52494458; //"RIDX"
+    private static final int RETURNS_MAGIC = 0x52524554; //"RRET"
+    private static final int PRODUCTS_MAGIC = 0x52505244; //"RPRD"
+    private static final int VOIDED_MAGIC = 0x52564F44; //"RVOD"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8; //magic + version
+    private static final int RECORD_HEADER_SIZE = 8; //length + checksum
+    private static final int INDEX_ENTRY_SIZE = 32;
+    private static final int RETURN_ENTRY_SIZE = 48;
+    private static final int VOID_ENTRY_SIZE = 16;
+    private static final int SCAN_BUFFER_SIZE = 1 << 16;
+    private static final int TIME = 8, SALES = 16, LAST_RETURN = 24; //Index entry fields after the data offset
+    private static final int REFUNDS = 16, PREVIOUS = 24, SKU = 32, QUANTITY = 36, REFUND = 40; //Return entry fields
+
+    //Totals of the receipts and returns of a period
+    public record Totals(long receipts, long salesCents, long returns, long refundCents) {
+        //Sales less refunds, in cents
+        public long netCents() {
+            return salesCents - refundCents;
+        }
+    }
+
+    private final Path productsFile;
+    private final FileChannel data;
+    private final FileChannel index;
+    private final FileChannel returns;
+    private final FileChannel voids;
+    private final CRC32C crc;
+    private final ByteBuffer entry; //Scratch buffer for index and return entries
+    private final ReentrantLock commitLock; //Held while a batch of receipts is forced to disk
+    private ByteBuffer pendingEntries; //Index entries of the receipts written but not committed yet
+    private ByteBuffer committingEntries; //Index entries of the batch being committed
+    private List<Receipt> pendingReceipts; //Receipts written but not committed yet, oldest first
+    private long count; //Number of committed receipts
+    private long written; //Number of receipts written to the data file, committed or not
+    private long returnCount;
+    private long dataEnd; //Offset just past the last committed receipt record
+    private long writeEnd; //Offset just past the last receipt record written
+    private long lastTime; //Time of the last receipt
+    private long lastReturnTime;
+    private long salesCents; //Total of every committed receipt
+    private long writtenSales; //Total of every receipt written
+    private long refundCents; //Total of every return
+    private int[][] postings; //Per SKU: numbers of the receipts with a line for it, ascending
+    private int[] postingCounts;
+    private long[] voided; //Voided receipt numbers as [first, last] pairs, disjoint and ascending
+    private int voidedRanges;
+    private long voidCount; //Number of entries in the voided file
+    private UncheckedIOException failure; //Why a batch could not be committed; no receipt is taken after it
+
+    private ReceiptStore(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        productsFile = directory.resolve("receipts.products");
+        data = openFile(directory.resolve("receipts.data"), DATA_MAGIC);
+        index = openFile(directory.resolve("receipts.index"), INDEX_MAGIC);
+        returns = openFile(directory.resolve("receipts.returns"), RETURNS_MAGIC);
+        voids = openFile(directory.resolve("receipts.voided"), VOIDED_MAGIC);
+        crc = new CRC32C();
+        entry = ByteBuffer.allocate(RETURN_ENTRY_SIZE);
+        commitLock = new ReentrantLock();
+        pendingEntries = ByteBuffer.allocate(64 * INDEX_ENTRY_SIZE);
+        committingEntries = ByteBuffer.allocate(64 * INDEX_ENTRY_SIZE);
+        pendingReceipts = new ArrayList<>();
+        postings = new int[0][];
+        postingCounts = new int[0];
+        voided = new long[8];
+    }
+
+    //Opens (or creates) the receipt store in the given directory, repairing whatever a crash left half written
+    public static ReceiptStore open(Path directory) throws IOException {
+        ReceiptStore store = new ReceiptStore(directory);
+        try {
+            store.recover();
+        } catch (IOException | RuntimeException e) {
+            store.closeFiles();
+            throw e;
+        }
+        return store;
+    }
+
+    //Writes a receipt for a checkout made now and returns it once it is on disk
+    //Throws UncheckedIOException if it could not be written, in which case it will not be recovered either
+    public Receipt append(List<Receipt.Line> lines, long discountCents) {
+        Receipt receipt;
+        synchronized (this) {
+            throwIfFailed();
+            if (written == Integer.MAX_VALUE) throw new IllegalStateException("Receipt store is full");
+            long number = written + 1;
+            long time = Math.max(System.currentTimeMillis(), lastTime);
+            receipt = new Receipt(number, time, discountCents, lines);
+            ByteBuffer record = encode(receipt);
+            try {
+                //A record cut short here is overwritten by the next one
+                write(data, record, writeEnd);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not write receipt " + number, e);
+            }
+            if (pendingEntries.remaining() < INDEX_ENTRY_SIZE) {
+                ByteBuffer larger = ByteBuffer.allocate(pendingEntries.capacity() * 2);
+                larger.put(pendingEntries.flip());
+                pendingEntries = larger;
+            }
+            writtenSales += receipt.totalCents();
+            pendingEntries.putLong(writeEnd).putLong(time).putLong(writtenSales).putLong(0);
+            pendingReceipts.add(receipt);
+            writeEnd += record.limit();
+            written = number;
+            lastTime = time;
+        }
+        commit(receipt.number());
+        return receipt;
+    }
+
+    //Returns once the receipt with the given number is committed, committing every receipt written
+    //so far unless a concurrent append already did
+    private void commit(long number) {
+        commitLock.lock();
+        try {
+            ByteBuffer entries;
+            List<Receipt> batch;
+            long first;
+            long last;
+            long end;
+            long sales;
+            synchronized (this) {
+                if (count >= number) return;
+                throwIfFailed();
+                entries = pendingEntries.flip();
+                pendingEntries = committingEntries.clear();
+                committingEntries = entries;
+                batch = pendingReceipts;
+                pendingReceipts = new ArrayList<>();
+                first = count + 1;
+                last = written;
+                end = writeEnd;
+                sales = writtenSales;
+            }
+            try {
+                data.force(false);
+                write(index, entries, entryPosition(first));
+                index.force(false);
+            } catch (IOException e) {
+                synchronized (this) {
+                    failure = new UncheckedIOException("Could not commit receipts " + first + " to " + last, e);
+                    discardUncommitted();
+                    throw failure;
+                }
+            }
+            synchronized (this) {
+                count = last;
+                dataEnd = end;
+                salesCents = sales;
+                for (Receipt receipt : batch) {
+                    addPostings(receipt);
+                }
+            }
+        } finally {
+            commitLock.unlock();
+        }
+    }
+
+    //Cuts the receipts that were never committed off the files, so opening the store does not recover them
+    private void discardUncommitted() {
+        try {
+            data.truncate(dataEnd);
+            index.truncate(entryPosition(count + 1));
+        } catch (IOException e) {
+            failure.addSuppressed(e);
+        }
+    }
+
+    private void throwIfFailed() {
+        if (failure != null) throw new UncheckedIOException(failure.getMessage(), failure.getCause());
+    }
+
+    //Returns the number of receipts written
+    public synchronized long size() {
+        return count;
+    }
+
+    //Returns the receipt with the given number, or null if there is none
+    public synchronized Receipt get(long number) {
+        if (number < 1 || number > count) return null;
+        try {
+            long offset = readLong(index, entryPosition(number));
+            ByteBuffer body = readBody(offset);
+            if (body == null) throw new IOException("Receipt " + number + " is corrupt");
+            return decode(body);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    //Returns the returns made against the receipt, oldest first
+    public synchronized List<Receipt.Return> getReturns(long number) {
+        List<Receipt.Return> found = new ArrayList<>();
+        if (number < 1 || number > count) return found;
+        try {
+            for (long position = readLong(index, entryPosition(number) + LAST_RETURN); position != 0;
+                 position = entry.getLong(PREVIOUS)) {
+                read(returns, entry, position, RETURN_ENTRY_SIZE);
+                found.add(new Receipt.Return(number, entry.getLong(TIME), entry.getInt(SKU), entry.getInt(QUANTITY),
+                        entry.getLong(REFUND)));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        Collections.reverse(found);
+        return found;
+    }
+
+    //Voids every receipt written so far from the given number on, so nothing more can be returned against them
+    //Receipts written later are not affected. The void is on disk when this returns
+    public synchronized void voidFrom(long first) {
+        first = Math.max(first, 1);
+        if (first > written) return;
+        try {
+            entry.clear();
+            entry.putLong(first).putLong(written).flip();
+            write(voids, entry, voidPosition(voidCount + 1));
+            voids.force(false);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not void receipts " + first + " to " + written, e);
+        }
+        voidCount++;
+        addVoided(first, written);
+    }
+
+    //Returns true if the receipt was voided
+    public synchronized boolean isVoided(long number) {
+        //The last range that starts at or before number is the only one that can hold it
+        int low = 0;
+        int high = voidedRanges;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (voided[2 * middle] <= number) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low > 0 && number <= voided[2 * (low - 1) + 1];
+    }
+
+    //Returns how many units of the product sold on the receipt have not been returned yet
+    //A voided receipt has nothing left to return
+    public synchronized int getReturnable(long number, int sku) {
+        if (isVoided(number)) return 0;
+        Receipt receipt = get(number);
+        Receipt.Line line = receipt != null ? receipt.getLine(sku) : null;
+        if (line == null) return 0;
+        int returnable = line.quantity();
+        for (Receipt.Return returned : getReturns(number)) {
+            if (returned.sku() == sku) returnable -= returned.quantity();
+        }
+        return returnable;
+    }
+
+    //Records that quantity units of the product were handed back against the receipt and returns the return
+    //The refund is what was paid for those units, with the receipt's discount spread over its lines by value;
+    //returning everything refunds exactly the receipt's total
+    public synchronized Receipt.Return recordReturn(long number, int sku, int quantity) {
+        if (isVoided(number)) throw new IllegalArgumentException("Receipt " + number + " was voided");
+        Receipt receipt = get(number);
+        Receipt.Line line = receipt != null ? receipt.getLine(sku) : null;
+        if (line == null) throw new IllegalArgumentException("Receipt " + number + " has no line for SKU " + sku);
+        int returnable = line.quantity();
+        long returnedCents = 0; //Earlier returns against the receipt, at list price
+        List<Receipt.Return> earlier = getReturns(number);
+        for (Receipt.Return returned : earlier) {
+            if (returned.sku() == sku) returnable -= returned.quantity();
+            returnedCents += Money.times(receipt.getLine(returned.sku()).unitPriceCents(), returned.quantity());
+        }
+        if (quantity <= 0 || quantity > returnable) {
+            throw new IllegalArgumentException("Only " + returnable + " units of SKU " + sku + " can be returned on receipt " + number);
+        }
+        long listCents = Money.times(line.unitPriceCents(), quantity);
+        long refund = receipt.netOf(returnedCents + listCents) - receipt.netOf(returnedCents);
+        long time = Math.max(System.currentTimeMillis(), lastReturnTime);
+        long position = returnPosition(returnCount + 1);
+        try {
+            long previous = readLong(index, entryPosition(number) + LAST_RETURN);
+            entry.clear();
+            entry.putLong(number).putLong(time).putLong(refundCents + refund).putLong(previous)
+                    .putInt(sku).putInt(quantity).putLong(refund).flip();
+            write(returns, entry, position);
+            returns.force(false);
+            entry.clear();
+            entry.putLong(position).flip();
+            write(index, entry, entryPosition(number) + LAST_RETURN);
+            index.force(false);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not write a return against receipt " + number, e);
+        }
+        returnCount++;
+        lastReturnTime = time;
+        refundCents += refund;
+        return new Receipt.Return(number, time, sku, quantity, refund);
+    }
+
+    //Returns the number of the first receipt written at or after the given time, or size() + 1 if there is none
+    public synchronized long firstReceiptAt(Instant time) {
+        try {
+            return firstAt(index, entryPosition(1), INDEX_ENTRY_SIZE, count, time.toEpochMilli());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    //Calls action with every receipt numbered in [first, end), oldest first
+    //Only the range is looked up under the lock; the records before the end of the data file never
+    //change, so they are read without it and checkouts carry on writing receipts meanwhile
+    public void forEach(long first, long end, Consumer<Receipt> action) {
+        long start;
+        long stop;
+        synchronized (this) {
+            first = Math.max(first, 1);
+            end = Math.min(end, count + 1);
+            if (first >= end) return;
+            try {
+                start = readLong(index, entryPosition(first));
+                stop = end <= count ? readLong(index, entryPosition(end)) : dataEnd;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        CRC32C checksum = new CRC32C();
+        ByteBuffer buffer = ByteBuffer.allocate(SCAN_BUFFER_SIZE).flip();
+        long next = start; //Offset of the first byte not read into the buffer yet
+        try {
+            while (true) {
+                int position = buffer.position();
+                if (buffer.remaining() < RECORD_HEADER_SIZE
+                        || buffer.remaining() < RECORD_HEADER_SIZE + buffer.getInt(position)) {
+                    if (next >= stop) break;
+                    buffer.compact();
+                    if (!buffer.hasRemaining()) {
+                        //A record larger than the buffer
+                        ByteBuffer larger = ByteBuffer.allocate(buffer.capacity() * 2);
+                        larger.put(buffer.flip());
+                        buffer = larger;
+                    }
+                    buffer.limit(buffer.position() + (int) Math.min(buffer.remaining(), stop - next));
+                    while (buffer.hasRemaining()) {
+                        int read = data.read(buffer, next);
+                        if (read < 0) throw new EOFException();
+                        next += read;
+                    }
+                    buffer.flip();
+                    continue;
+                }
+                int length = buffer.getInt(position);
+                checksum.reset();
+                checksum.update(buffer.array(), position + RECORD_HEADER_SIZE, length);
+                if ((int) checksum.getValue() != buffer.getInt(position + 4)) {
+                    throw new IOException("Corrupt receipt record at offset " + (next - buffer.remaining()));
+                }
+                action.accept(decode(buffer.slice(position + RECORD_HEADER_SIZE, length)));
+                buffer.position(position + RECORD_HEADER_SIZE + length);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (buffer.hasRemaining()) throw new UncheckedIOException(new IOException("Receipt record cut short"));
+    }
+
+    //Returns the numbers of the receipts written in [from, until) that sold the product, oldest first
+    public synchronized long[] receiptsWith(int sku, Instant from, Instant until) {
+        if (sku < 0 || sku >= postings.length || postings[sku] == null) return new long[0];
+        int[] numbers = postings[sku];
+        int start = lowerBound(numbers, postingCounts[sku], firstReceiptAt(from));
+        int end = lowerBound(numbers, postingCounts[sku], firstReceiptAt(until));
+        long[] found = new long[Math.max(0, end - start)];
+        for (int i = 0; i < found.length; i++) {
+            found[i] = numbers[start + i];
+        }
+        return found;
+    }
+
+    //Returns the totals of the receipts and returns written in [from, until)
+    public synchronized Totals totalsBetween(Instant from, Instant until) {
+        try {
+            long firstReceipt = firstAt(index, entryPosition(1), INDEX_ENTRY_SIZE, count, from.toEpochMilli());
+            long endReceipt = firstAt(index, entryPosition(1), INDEX_ENTRY_SIZE, count, until.toEpochMilli());
+            long firstReturn = firstAt(returns, returnPosition(1), RETURN_ENTRY_SIZE, returnCount, from.toEpochMilli());
+            long endReturn = firstAt(returns, returnPosition(1), RETURN_ENTRY_SIZE, returnCount, until.toEpochMilli());
+            if (endReceipt < firstReceipt) endReceipt = firstReceipt;
+            if (endReturn < firstReturn) endReturn = firstReturn;
+            long sales = salesUpTo(endReceipt - 1) - salesUpTo(firstReceipt - 1);
+            long refunds = refundsUpTo(endReturn - 1) - refundsUpTo(firstReturn - 1);
+            return new Totals(endReceipt - firstReceipt, sales, endReturn - firstReturn, refunds);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    //Returns the totals of one day in the given time zone, to reconcile against the till
+    public Totals reconcile(LocalDate day, ZoneId zone) {
+        return totalsBetween(day.atStartOfDay(zone).toInstant(), day.plusDays(1).atStartOfDay(zone).toInstant());
+    }
+
+    //Checkpoints the product index and closes the files, after the batch being committed, if any
+    @Override
+    public void close() throws IOException {
+        commitLock.lock();
+        try {
+            synchronized (this) {
+                try {
+                    writeProducts();
+                } finally {
+                    closeFiles();
+                }
+            }
+        } finally {
+            commitLock.unlock();
+        }
+    }
+
+    private void recover() throws IOException {
+        //An index entry cut short by a crash is dropped and rebuilt from its record below
+        count = (index.size() - HEADER_SIZE) / INDEX_ENTRY_SIZE;
+        index.truncate(entryPosition(count + 1));
+        dataEnd = HEADER_SIZE;
+        if (count > 0) {
+            long last = entryPosition(count);
+            long offset = readLong(index, last);
+            dataEnd = offset + RECORD_HEADER_SIZE + readBody(offset).limit();
+            lastTime = readLong(index, last + TIME);
+            salesCents = readLong(index, last + SALES);
+        }
+        //Records written but not indexed yet
+        for (ByteBuffer body = readBody(dataEnd); body != null; body = readBody(dataEnd)) {
+            Receipt receipt = decode(body);
+            if (receipt.number() != count + 1) break;
+            salesCents += receipt.totalCents();
+            entry.clear();
+            entry.putLong(dataEnd).putLong(receipt.timeMillis()).putLong(salesCents).putLong(0).flip();
+            write(index, entry, entryPosition(receipt.number()));
+            dataEnd += RECORD_HEADER_SIZE + body.limit();
+            count = receipt.number();
+            lastTime = receipt.timeMillis();
+        }
+        index.force(false);
+        data.truncate(dataEnd);
+        returnCount = (returns.size() - HEADER_SIZE) / RETURN_ENTRY_SIZE;
+        returns.truncate(returnPosition(returnCount + 1));
+        if (returnCount > 0) {
+            long position = returnPosition(returnCount);
+            read(returns, entry, position, RETURN_ENTRY_SIZE);
+            long number = entry.getLong(0);
+            lastReturnTime = entry.getLong(TIME);
+            refundCents = entry.getLong(REFUNDS);
+            //The last return may have been written without being linked to its receipt
+            if (number >= 1 && number <= count && readLong(index, entryPosition(number) + LAST_RETURN) < position) {
+                entry.clear();
+                entry.putLong(position).flip();
+                write(index, entry, entryPosition(number) + LAST_RETURN);
+                index.force(false);
+            }
+        }
+        for (long number = loadProducts() + 1; number <= count; number++) {
+            addPostings(get(number));
+        }
+        //A void entry cut short by a crash was never acknowledged, so it is dropped
+        voidCount = (voids.size() - HEADER_SIZE) / VOID_ENTRY_SIZE;
+        voids.truncate(voidPosition(voidCount + 1));
+        for (long number = 1; number <= voidCount; number++) {
+            read(voids, entry, voidPosition(number), VOID_ENTRY_SIZE);
+            addVoided(entry.getLong(0), Math.min(entry.getLong(8), count));
+        }
+        written = count;
+        writeEnd = dataEnd;
+        writtenSales = salesCents;
+    }
+
+    //Loads the product index checkpoint and returns the number of receipts it covers
+    private long loadProducts() throws IOException {
+        if (!Files.exists(productsFile)) return 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(productsFile), 1 << 16))) {
+            if (in.readInt() != PRODUCTS_MAGIC || in.readInt() != VERSION) return 0;
+            long covered = in.readLong();
+            if (covered > count) return 0;
+            int skus = in.readInt();
+            int[][] loaded = new int[skus][];
+            int[] counts = new int[skus];
+            for (int sku = 0; sku < skus; sku++) {
+                counts[sku] = in.readInt();
+                if (counts[sku] == 0) continue;
+                loaded[sku] = new int[counts[sku]];
+                for (int i = 0; i < counts[sku]; i++) {
+                    loaded[sku][i] = in.readInt();
+                }
+            }
+            postings = loaded;
+            postingCounts = counts;
+            return covered;
+        } catch (EOFException e) {
+            //A checkpoint cut short is rebuilt from the receipts
+            postings = new int[0][];
+            postingCounts = new int[0];
+            return 0;
+        }
+    }
+
+    private void writeProducts() throws IOException {
+        Path temp = productsFile.resolveSibling(productsFile.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16));
+            out.writeInt(PRODUCTS_MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(count);
+            out.writeInt(postings.length);
+            for (int sku = 0; sku < postings.length; sku++) {
+                out.writeInt(postingCounts[sku]);
+                for (int i = 0; i < postingCounts[sku]; i++) {
+                    out.writeInt(postings[sku][i]);
+                }
+            }
+            out.flush();
+            channel.force(true);
+        }
+        Files.move(temp, productsFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void closeFiles() throws IOException {
+        try (data; index; returns; voids) {
+            //Closed by the try
+        }
+    }
+
+    private void addPostings(Receipt receipt) {
+        for (Receipt.Line line : receipt.lines()) {
+            int sku = line.sku();
+            if (sku >= postings.length) {
+                int size = Math.max(sku + 1, postings.length * 2);
+                postings = Arrays.copyOf(postings, size);
+                postingCounts = Arrays.copyOf(postingCounts, size);
+            }
+            int[] numbers = postings[sku];
+            if (numbers == null) {
+                numbers = new int[4];
+            } else if (postingCounts[sku] == numbers.length) {
+                numbers = Arrays.copyOf(numbers, numbers.length * 2);
+            }
+            numbers[postingCounts[sku]++] = (int) receipt.number();
+            postings[sku] = numbers;
+        }
+    }
+
+    //Adds [first, last] to the voided ranges; last is never below the last of any earlier range
+    private void addVoided(long first, long last) {
+        if (first > last) return;
+        //Ranges the new one covers are dropped, and one it touches or overlaps is merged into it
+        while (voidedRanges > 0 && voided[2 * (voidedRanges - 1)] >= first) {
+            voidedRanges--;
+        }
+        if (voidedRanges > 0 && voided[2 * (voidedRanges - 1) + 1] >= first - 1) {
+            voided[2 * (voidedRanges - 1) + 1] = Math.max(last, voided[2 * (voidedRanges - 1) + 1]);
+            return;
+        }
+        if (2 * voidedRanges == voided.length) voided = Arrays.copyOf(voided, voided.length * 2);
+        voided[2 * voidedRanges] = first;
+        voided[2 * voidedRanges + 1] = last;
+        voidedRanges++;
+    }
+
+    private long salesUpTo(long number) throws IOException {
+        return number > 0 ? readLong(index, entryPosition(number) + SALES) : 0;
+    }
+
+    private long refundsUpTo(long number) throws IOException {
+        return number > 0 ? readLong(returns, returnPosition(number) + REFUNDS) : 0;
+    }
+
+    //Binary search over fixed-size entries whose time never decreases: number (from 1) of the first
+    //entry at or after millis, or size + 1
+    private long firstAt(FileChannel file, long first, int entrySize, long size, long millis) throws IOException {
+        long low = 1;
+        long high = size + 1;
+        while (low < high) {
+            long middle = (low + high) >>> 1;
+            if (readLong(file, first + (middle - 1) * entrySize + TIME) < millis) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private static int lowerBound(int[] numbers, int size, long number) {
+        if (number > Integer.MAX_VALUE) return size;
+        int position = Arrays.binarySearch(numbers, 0, size, (int) number);
+        return position >= 0 ? position : -position - 1;
+    }
+
+    private static long entryPosition(long number) {
+        return HEADER_SIZE + (number - 1) * INDEX_ENTRY_SIZE;
+    }
+
+    private static long returnPosition(long number) {
+        return HEADER_SIZE + (number - 1) * RETURN_ENTRY_SIZE;
+    }
+
+    private static long voidPosition(long number) {
+        return HEADER_SIZE + (number - 1) * VOID_ENTRY_SIZE;
+    }
+
+    private ByteBuffer encode(Receipt receipt) {
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_SIZE + 33 + receipt.lines().size() * 20);
+        record.position(RECORD_HEADER_SIZE);
+        putVarLong(record, receipt.number());
+        record.putLong(receipt.timeMillis());
+        putVarLong(record, receipt.discountCents());
+        putVarLong(record, receipt.lines().size());
+        for (Receipt.Line line : receipt.lines()) {
+            putVarLong(record, line.sku());
+            putVarLong(record, line.quantity());
+            putVarLong(record, line.unitPriceCents());
+        }
+        int length = record.position() - RECORD_HEADER_SIZE;
+        crc.reset();
+        crc.update(record.array(), RECORD_HEADER_SIZE, length);
+        record.putInt(0, length).putInt(4, (int) crc.getValue());
+        record.flip();
+        return record;
+    }
+
+    private static Receipt decode(ByteBuffer body) {
+        long number = getVarLong(body);
+        long time = body.getLong();
+        long discount = getVarLong(body);
+        int size = (int) getVarLong(body);
+        List<Receipt.Line> lines = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            lines.add(new Receipt.Line((int) getVarLong(body), (int) getVarLong(body), getVarLong(body)));
+        }
+        return new Receipt(number, time, discount, lines);
+    }
+
+    //Reads the body of the record at the offset, or returns null if there is no intact record there
+    private ByteBuffer readBody(long offset) throws IOException {
+        long size = data.size();
+        if (offset + RECORD_HEADER_SIZE > size) return null;
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+        read(data, header, offset, RECORD_HEADER_SIZE);
+        int length = header.getInt(0);
+        if (length <= 0 || offset + RECORD_HEADER_SIZE + length > size) return null;
+        ByteBuffer body = ByteBuffer.allocate(length);
+        read(data, body, offset + RECORD_HEADER_SIZE, length);
+        crc.reset();
+        crc.update(body.array(), 0, length);
+        return (int) crc.getValue() == header.getInt(4) ? body : null;
+    }
+
+    //Unsigned LEB128: seven bits per byte, lowest first, the high bit set on every byte but the last
+    private static void putVarLong(ByteBuffer buffer, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer.put((byte) (value & 0x7F | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    private static long getVarLong(ByteBuffer buffer) {
+        long value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) return value;
+        }
+    }
+
+    private long readLong(FileChannel file, long position) throws IOException {
+        read(file, entry, position, Long.BYTES);
+        return entry.getLong(0);
+    }
+
+    //Reads length bytes at the position into the start of the buffer
+    private static void read(FileChannel file, ByteBuffer buffer, long position, int length) throws IOException {
+        buffer.clear().limit(length);
+        while (buffer.hasRemaining()) {
+            if (file.read(buffer, position + buffer.position()) < 0) throw new EOFException();
+        }
+        buffer.flip();
+    }
+
+    private static void write(FileChannel file, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += file.write(buffer, position);
+        }
+    }
+
+    private static FileChannel openFile(Path file, int magic) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        if (channel.size() < HEADER_SIZE) {
+            header.putInt(magic).putInt(VERSION).flip();
+            channel.truncate(0);
+            write(channel, header, 0);
+            channel.force(true);
+            return channel;
+        }
+        read(channel, header, 0, HEADER_SIZE);
+        if (header.getInt(0) != magic || header.getInt(4) != VERSION) {
+            channel.close();
+            throw new IOException("Not a receipt store file: " + file);
+        }
+        return channel;
+    }
+}
@@ -0,0 +1,175 @@
+//Notices products running low and batches orders for more of them by supplier
+//The replenisher listens to the store's quantity changes, so it only ever looks at products whose
+//stock just changed: a product whose sellable stock plus units already on order falls to its reorder
+//point is queued. Queued products are turned into purchase orders in batches, one order per supplier,
+//each product ordered back up to its order-up-to level. Deliveries are received into stock in bulk
+//and taken off the units on order.
+//Checking reorder points costs O(changed SKUs) per checkout. The catalog is only swept once, for
+//products that were low from the start, when the first batch is made rather than at startup
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+public class Replenisher implements InventoryListener {
+    private static final System.Logger LOG = System.getLogger(Replenisher.class.getName());
+
+    private final ElectronicStore store;
+    private final Function<Product, String> supplierOf;
+    private final int[] reorderPoint; //Per SKU: order when stock plus units on order is at or below this
+    private final int[] orderUpTo; //Per SKU: stock plus units on order after ordering
+    private final AtomicIntegerArray onOrder; //Per SKU: units ordered but not delivered yet
+    private final Set<Integer> low; //SKUs that reached their reorder point since the last batch
+    private long nextOrderNumber = 1;
+    private boolean scanned; //The whole catalog has been checked once
+    private ScheduledExecutorService executor;
+
+    //Watches every product of the store, ordering when stock falls to reorderPoint and
+    //ordering back up to orderUpTo; supplierOf names the supplier each product is ordered from
+    public Replenisher(ElectronicStore initStore, int initReorderPoint, int initOrderUpTo,
+                       Function<Product, String> initSupplierOf) {
+        if (initOrderUpTo <= initReorderPoint) throw new IllegalArgumentException("Order-up-to level must be above the reorder point");
+        store = initStore;
+        supplierOf = initSupplierOf;
+        int count = store.getCurProducts();
+        reorderPoint = new int[count];
+        orderUpTo = new int[count];
+        Arrays.fill(reorderPoint, initReorderPoint);
+        Arrays.fill(orderUpTo, initOrderUpTo);
+        onOrder = new AtomicIntegerArray(count);
+        low = ConcurrentHashMap.newKeySet();
+        store.addInventoryListener(this);
+    }
+
+    public Replenisher(ElectronicStore initStore, int initReorderPoint, int initOrderUpTo) {
+        this(initStore, initReorderPoint, initOrderUpTo, Replenisher::supplierOf);
+    }
+
+    //Default supplier of a product: the brand for appliances, the product type otherwise
+    public static String supplierOf(Product product) {
+        return product instanceof Appliance appliance ? appliance.getBrand() : product.getClass().getSimpleName();
+    }
+
+    //Sets the reorder point and order-up-to level of one product
+    public synchronized void setReorderPoint(int sku, int point, int upTo) {
+        if (upTo <= point) throw new IllegalArgumentException("Order-up-to level must be above the reorder point");
+        reorderPoint[sku] = point;
+        orderUpTo[sku] = upTo;
+        check(store.getProduct(sku));
+    }
+
+    //Returns the units of the product ordered but not delivered yet
+    public int getOnOrder(int sku) {
+        return onOrder.get(sku);
+    }
+
+    @Override
+    public void quantitiesChanged(Product product) {
+        check(product);
+    }
+
+    @Override
+    public void unitsSold(Product product, int amount) {
+        check(product);
+    }
+
+    @Override
+    public void unitsWithdrawn(Product product, int amount) {
+        check(product);
+    }
+
+    private void check(Product product) {
+        int sku = product.getSku();
+        if (sku >= reorderPoint.length) return; //Added after the replenisher was set up
+        if (product.getStockQuantity() + onOrder.get(sku) <= reorderPoint[sku]) low.add(sku);
+    }
+
+    //Turns every product that reached its reorder point into purchase orders, one per supplier
+    //Products that got restocked since they were queued are skipped
+    public synchronized List<PurchaseOrder> createPurchaseOrders() {
+        if (!scanned) {
+            //Products that were low from the start are the only ones found by looking at the whole catalog
+            //The columns are read so only low products are looked up
+            InventoryColumns columns = store.getColumns();
+            int count = Math.min(columns.size(), reorderPoint.length);
+            for (int sku = 0; sku < count; sku++) {
+                if (columns.stockAt(sku) + onOrder.get(sku) <= reorderPoint[sku]) low.add(sku);
+            }
+            scanned = true;
+        }
+        Map<String, List<PurchaseOrder.Line>> bySupplier = new TreeMap<>();
+        for (Iterator<Integer> it = low.iterator(); it.hasNext(); ) {
+            int sku = it.next();
+            it.remove();
+            Product product = store.getProduct(sku);
+            int available = product.getStockQuantity() + onOrder.get(sku);
+            if (available > reorderPoint[sku]) continue;
+            int quantity = Math.min(orderUpTo[sku], Product.MAX_QUANTITY) - available;
+            if (quantity <= 0) continue;
+            onOrder.addAndGet(sku, quantity);
+            bySupplier.computeIfAbsent(supplierOf.apply(product), supplier -> new ArrayList<>())
+                    .add(new PurchaseOrder.Line(product, quantity));
+        }
+        List<PurchaseOrder> orders = new ArrayList<>(bySupplier.size());
+        for (Map.Entry<String, List<PurchaseOrder.Line>> supplier : bySupplier.entrySet()) {
+            orders.add(new PurchaseOrder(nextOrderNumber++, supplier.getKey(), supplier.getValue()));
+        }
+        return orders;
+    }
+
+    //Receives a delivery for an order into stock and takes it off the units on order
+    //Returns the number of units received; a line that would overflow a product's stock is refused
+    //Units only leave the units on order once the line was received (or refused, as refused units never
+    //arrive), so a sale checking the reorder point meanwhile still counts them and orders nothing twice
+    public int receive(PurchaseOrder delivery) {
+        int received = 0;
+        for (PurchaseOrder.Line line : delivery.lines()) {
+            int sku = line.product().getSku();
+            if (line.product().receiveUnits(line.quantity())) {
+                received += line.quantity();
+            } else {
+                LOG.log(System.Logger.Level.WARNING, "Refused {0} units of SKU {1} on order {2}, stock is full",
+                        line.quantity(), sku, delivery.number());
+            }
+            if (sku < reorderPoint.length) onOrder.getAndUpdate(sku, units -> Math.max(0, units - line.quantity()));
+        }
+        return received;
+    }
+
+    //Raises purchase orders every interval on a background thread and hands them to the sink
+    public synchronized void start(Duration interval, Consumer<List<PurchaseOrder>> sink) {
+        if (executor != null) throw new IllegalStateException("Already started");
+        executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "replenisher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = interval.toMillis();
+        executor.scheduleAtFixedRate(() -> {
+            try {
+                List<PurchaseOrder> orders = createPurchaseOrders();
+                if (!orders.isEmpty()) sink.accept(orders);
+            } catch (RuntimeException e) {
+                // Keep the schedule alive; an exception here would cancel it
+                LOG.log(System.Logger.Level.ERROR, "Could not create purchase orders", e);
+            }
+        }, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void shutdown() {
+        if (executor != null) executor.shutdownNow();
+        store.removeInventoryListener(this);
+    }
+}
@@ -0,0 +1,53 @@
+//Counter over a sliding window of the last N seconds, kept as one slot per second
+//Slots are reused round-robin: the first add in a new second clears the slot it lands on.
+//An add racing with that clear may be lost, which is fine for rates shown to operators
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+public class RollingCounter {
+    private final int seconds;
+    private final AtomicLongArray counts;
+    private final AtomicLongArray stamps; //Second each slot is counting
+
+    public RollingCounter(int initSeconds) {
+        seconds = initSeconds;
+        counts = new AtomicLongArray(initSeconds);
+        stamps = new AtomicLongArray(initSeconds);
+        for (int i = 0; i < initSeconds; i++) {
+            stamps.set(i, Long.MIN_VALUE);
+        }
+    }
+
+    //Adds amount to the slot of the given second (see now())
+    public void add(long amount, long second) {
+        int slot = Math.floorMod(second, seconds);
+        long stamp = stamps.get(slot);
+        if (stamp != second && stamps.compareAndSet(slot, stamp, second)) {
+            counts.set(slot, 0);
+        }
+        counts.addAndGet(slot, amount);
+    }
+
+    //Returns the total of the window ending at the given second
+    public long sum(long second) {
+        long total = 0;
+        for (int slot = 0; slot < seconds; slot++) {
+            if (stamps.get(slot) > second - seconds) total += counts.get(slot);
+        }
+        return total;
+    }
+
+    //Returns the average per second over the window ending at the given second
+    public double ratePerSecond(long second) {
+        return (double) sum(second) / seconds;
+    }
+
+    public int getSeconds() {
+        return seconds;
+    }
+
+    //Current second on the monotonic clock the counters are kept on
+    public static long now() {
+        return System.nanoTime() / 1_000_000_000L;
+    }
+}
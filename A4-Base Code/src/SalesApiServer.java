@@ -0,0 +1,306 @@
+//Embedded HTTP/JSON sales API over an ElectronicStore, for web and kiosk channels
+//Every request runs on its own virtual thread. The store is shared and lock-free; each
+//web cart is a Cart with its own lock, so requests only contend when they touch the same cart.
+//
+//  GET    /products                     catalog listing
+//  GET    /products/{sku}               stock lookup for one product
+//  POST   /carts                        open a cart, returns its id
+//  GET    /carts/{id}                   cart lines and total
+//  POST   /carts/{id}/items/{sku}       reserve one unit
+//  DELETE /carts/{id}/items/{sku}       hand one unit back
+//  POST   /carts/{id}/checkout          check the cart out
+//  DELETE /carts/{id}                   abandon the cart
+//  GET    /metrics                      sales metrics in the Prometheus text format
+//
+//Money is reported in cents. Abandoned carts are released by a CartSweeper once their lines expire.
+//A checkout or DELETE closes the cart before finishing it, so an item request that raced with it
+//gets a 404 instead of reserving units into a cart nobody can reach any more.
+//
+//The built-in server leaves Nagle's algorithm on, which parks small JSON replies behind delayed
+//ACKs; launch with -Dsun.net.httpserver.nodelay=true to turn it off
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class SalesApiServer implements AutoCloseable {
+    private static final Duration CART_TTL = Duration.ofMinutes(15);
+    private static final Duration SWEEP_INTERVAL = Duration.ofSeconds(30);
+
+    private final ElectronicStore store;
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final CartSweeper sweeper;
+    private final Map<Long, Cart> carts;
+    private final AtomicLong nextCartId;
+    private final SalesMetrics metrics;
+
+    public SalesApiServer(ElectronicStore initStore, int port) throws IOException {
+        store = initStore;
+        carts = new ConcurrentHashMap<>();
+        nextCartId = new AtomicLong(1);
+        sweeper = new CartSweeper(SWEEP_INTERVAL);
+        executor = Executors.newVirtualThreadPerTaskExecutor();
+        server = HttpServer.create(new InetSocketAddress(port), 1024);
+        server.setExecutor(executor);
+        if (store.getMetrics() == null) store.setMetrics(new SalesMetrics());
+        metrics = store.getMetrics();
+        metrics.gauge("store_open_carts", "Carts open on the sales API", carts::size);
+        server.createContext("/products", timed(this::handleProducts));
+        server.createContext("/carts", timed(this::handleCarts));
+        server.createContext("/metrics", MetricsEndpoint.handler(metrics));
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    //Returns the port the server listens on, useful when it was started on port 0
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdown();
+        sweeper.shutdown();
+        for (Cart cart : carts.values()) {
+            cart.close();
+            cart.clear();
+        }
+        carts.clear();
+    }
+
+    //Method to time every request of a handler into the request latency histogram
+    private HttpHandler timed(HttpHandler handler) {
+        return exchange -> {
+            long start = System.nanoTime();
+            try {
+                handler.handle(exchange);
+            } finally {
+                metrics.getRequestLatency().recordSince(start);
+            }
+        };
+    }
+
+    private void handleProducts(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            String[] path = segments(exchange);
+            if (!exchange.getRequestMethod().equals("GET")) {
+                send(exchange, 405, error("Method not allowed"));
+            } else if (path.length == 1) {
+                StringBuilder json = new StringBuilder(store.getCurProducts() * 128).append('[');
+                for (Product product : store.getStock()) {
+                    if (json.length() > 1) json.append(',');
+                    appendProduct(json, product);
+                }
+                send(exchange, 200, json.append(']').toString());
+            } else if (path.length == 2) {
+                Product product = store.getProduct(parseInt(path[1]));
+                if (product == null) {
+                    send(exchange, 404, error("No such product"));
+                } else {
+                    send(exchange, 200, appendProduct(new StringBuilder(), product).toString());
+                }
+            } else {
+                send(exchange, 404, error("Not found"));
+            }
+        }
+    }
+
+    private void handleCarts(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            String method = exchange.getRequestMethod();
+            String[] path = segments(exchange);
+            if (path.length == 1) {
+                if (method.equals("POST")) {
+                    send(exchange, 201, "{\"id\":" + openCart() + "}");
+                } else {
+                    send(exchange, 405, error("Method not allowed"));
+                }
+                return;
+            }
+            long id = parseLong(path[1]);
+            Cart cart = carts.get(id);
+            if (cart == null) {
+                send(exchange, 404, error("No such cart"));
+            } else if (path.length == 2 && method.equals("GET")) {
+                send(exchange, 200, cartJson(id, cart));
+            } else if (path.length == 2 && method.equals("DELETE")) {
+                if (carts.remove(id, cart) && cart.close()) {
+                    sweeper.unregister(cart);
+                    cart.clear();
+                }
+                send(exchange, 200, "{\"id\":" + id + "}");
+            } else if (path.length == 3 && path[2].equals("checkout") && method.equals("POST")) {
+                checkout(exchange, id, cart);
+            } else if (path.length == 4 && path[2].equals("items")) {
+                changeItem(exchange, id, cart, method, parseInt(path[3]));
+            } else {
+                send(exchange, 404, error("Not found"));
+            }
+        }
+    }
+
+    private long openCart() {
+        long id = nextCartId.getAndIncrement();
+        Cart cart = new Cart(store, CART_TTL);
+        // Once every line of a cart has expired the cart itself is dropped; closing it first
+        // keeps a concurrent add from landing in the cart after it left the map
+        cart.setOnExpired(expired -> {
+            if (cart.closeIfEmpty()) {
+                carts.remove(id, cart);
+                sweeper.unregister(cart);
+            }
+        });
+        carts.put(id, cart);
+        sweeper.register(cart);
+        return id;
+    }
+
+    private void changeItem(HttpExchange exchange, long id, Cart cart, String method, int sku) throws IOException {
+        Product product = store.getProduct(sku);
+        if (product == null) {
+            send(exchange, 404, error("No such product"));
+        } else if (method.equals("POST")) {
+            if (cart.add(product) < 0) {
+                sendRefused(exchange, cart, "Out of stock");
+            } else {
+                send(exchange, 200, cartJson(id, cart));
+            }
+        } else if (method.equals("DELETE")) {
+            if (cart.remove(product) < 0) {
+                sendRefused(exchange, cart, "Not in cart");
+            } else {
+                send(exchange, 200, cartJson(id, cart));
+            }
+        } else {
+            send(exchange, 405, error("Method not allowed"));
+        }
+    }
+
+    private void checkout(HttpExchange exchange, long id, Cart cart) throws IOException {
+        if (cart.isEmpty()) {
+            send(exchange, 409, error("Cart is empty"));
+            return;
+        }
+        // Removing the cart first makes a second checkout of the same cart a 404, and closing it
+        // makes any item request still holding it a 404 as well
+        if (!carts.remove(id, cart) || !cart.close()) {
+            send(exchange, 404, error("No such cart"));
+            return;
+        }
+        sweeper.unregister(cart);
+        long total = cart.checkout();
+        if (total < 0) {
+            send(exchange, 409, error("Reservations were released"));
+            return;
+        }
+        send(exchange, 200, "{\"id\":" + id + ",\"totalCents\":" + total + "}");
+    }
+
+    //Method to answer a refused item request; a closed cart was checked out or abandoned meanwhile
+    private static void sendRefused(HttpExchange exchange, Cart cart, String reason) throws IOException {
+        if (cart.isClosed()) {
+            send(exchange, 404, error("No such cart"));
+        } else {
+            send(exchange, 409, error(reason));
+        }
+    }
+
+    private static StringBuilder appendProduct(StringBuilder json, Product product) {
+        json.append("{\"sku\":").append(product.getSku()).append(",\"name\":");
+        appendString(json, product.toString());
+        return json.append(",\"priceCents\":").append(product.getPriceCents())
+                .append(",\"stock\":").append(product.getStockQuantity())
+                .append(",\"sold\":").append(product.getSoldQuantity()).append('}');
+    }
+
+    private static String cartJson(long id, Cart cart) {
+        List<Cart.Line> lines = cart.getLines();
+        StringBuilder json = new StringBuilder(64 + lines.size() * 64);
+        json.append("{\"id\":").append(id).append(",\"lines\":[");
+        for (int i = 0; i < lines.size(); i++) {
+            Cart.Line line = lines.get(i);
+            if (i > 0) json.append(',');
+            json.append("{\"sku\":").append(line.getProduct().getSku())
+                    .append(",\"quantity\":").append(line.getQuantity()).append('}');
+        }
+        return json.append("],\"totalCents\":").append(cart.getTotalCents())
+                .append(",\"discountCents\":").append(cart.getDiscountCents()).append('}').toString();
+    }
+
+    private static String error(String message) {
+        return appendString(new StringBuilder("{\"error\":"), message).append('}').toString();
+    }
+
+    private static StringBuilder appendString(StringBuilder json, String value) {
+        json.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                json.append('\\').append(c);
+            } else if (c < 0x20) {
+                json.append(String.format("\\u%04x", (int) c));
+            } else {
+                json.append(c);
+            }
+        }
+        return json.append('"');
+    }
+
+    private static String[] segments(HttpExchange exchange) {
+        String path = exchange.getRequestURI().getPath();
+        return path.replaceAll("^/+|/+$", "").split("/+");
+    }
+
+    //Malformed numbers map to -1, which never matches a product or cart
+    private static int parseInt(String text) {
+        try {
+            return Integer.parseInt(text);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static long parseLong(String text) {
+        try {
+            return Long.parseLong(text);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static void send(HttpExchange exchange, int status, String json) throws IOException {
+        byte[] body = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    //Serves the default store: java SalesApiServer [port] [promotions file]
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 8080;
+        ElectronicStore store = ElectronicStore.createStore();
+        if (args.length > 1) store.setPromotions(PromotionTable.compile(Promotion.read(Paths.get(args[1])), store));
+        SalesApiServer server = new SalesApiServer(store, port);
+        server.start();
+        System.out.println("Sales API listening on http://localhost:" + server.getPort());
+    }
+}
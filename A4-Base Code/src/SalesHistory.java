@@ -0,0 +1,349 @@
+//Time-bucketed sales history of a store's products, for windowed rankings and revenue per period
+//Units sold are counted per SKU in four rings of time slots: 60 minutes, 24 hours, 31 days and 53 weeks.
+//Each slot is a column of ints indexed by SKU, so the history costs at most (60 + 24 + 31 + 53) * 4 = 672
+//bytes per SKU no matter how long it runs. Columns are split into pages that are allocated by the first
+//sale on them and never copied, so a catalog growing while sales run cannot lose a count. When a ring
+//wraps around, the first sale in the new period clears the column it reuses. Revenue is also kept per
+//minute, hour and day for the whole store, the days going back a year.
+//The history listens to the store (see ElectronicStore.addInventoryListener) and counts net sales:
+//returned units are taken off the period they are returned in. Revenue is what the store books: the
+//amount of each recorded checkout, after promotions, less each refund, so it matches the till and
+//the receipts rather than list prices. Periods follow the wall clock in the
+//given time zone, daylight saving changes included. A sale racing with the clearing of its column may
+//be lost, which only happens at period boundaries and is fine for statistics
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.zone.ZoneOffsetTransition;
+import java.time.zone.ZoneRules;
+import java.util.Arrays;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+public class SalesHistory implements InventoryListener {
+    private static final VarHandle INTS = MethodHandles.arrayElementVarHandle(int[].class);
+    private static final VarHandle PAGES = MethodHandles.arrayElementVarHandle(int[][].class);
+    private static final int MAX_PAGE_SHIFT = 10; //Pages hold at most 1024 SKUs
+
+    //Sliding windows rankings can be asked for
+    public enum Window {
+        LAST_HOUR("Last hour"), LAST_DAY("Last day"), LAST_30_DAYS("Last 30 days"), LAST_52_WEEKS("Last 52 weeks");
+
+        private final String label;
+
+        Window(String initLabel) {
+            label = initLabel;
+        }
+
+        @Override
+        public String toString() {
+            return label;
+        }
+    }
+
+    private final Clock clock;
+    private final ZoneRules zoneRules;
+    private volatile Offset offset; //Offset of the zone from UTC, and the times it holds between
+    private final Ring minutes;
+    private final Ring hours;
+    private final Ring days;
+    private final Ring weeks;
+    private final RevenueRing revenueMinutes;
+    private final RevenueRing revenueHours;
+    private final RevenueRing revenueDays;
+
+    public SalesHistory(int initCapacity, Clock initClock) {
+        clock = initClock;
+        zoneRules = initClock.getZone().getRules();
+        offset = offsetAt(initClock.millis());
+        minutes = new Ring(60, initCapacity);
+        hours = new Ring(24, initCapacity);
+        days = new Ring(31, initCapacity);
+        weeks = new Ring(53, initCapacity);
+        revenueMinutes = new RevenueRing(60);
+        revenueHours = new RevenueRing(24);
+        revenueDays = new RevenueRing(371); //53 weeks, so every day of the weekly window is still kept
+    }
+
+    public SalesHistory(int initCapacity) {
+        this(initCapacity, Clock.systemDefaultZone());
+    }
+
+    @Override
+    public void quantitiesChanged(Product product) {
+    }
+
+    @Override
+    public void unitsSold(Product product, int amount) {
+        countUnits(product.getSku(), amount);
+    }
+
+    @Override
+    public void unitsReturned(Product product, int amount) {
+        countUnits(product.getSku(), -amount);
+    }
+
+    @Override
+    public void checkoutRecorded(long amountCents) {
+        addRevenue(amountCents);
+    }
+
+    @Override
+    public void refundRecorded(long amountCents) {
+        addRevenue(-amountCents);
+    }
+
+    private void countUnits(int sku, int amount) {
+        long minute = currentMinute();
+        minutes.add(sku, minute, amount);
+        hours.add(sku, minute / 60, amount);
+        days.add(sku, minute / 1440, amount);
+        weeks.add(sku, weekOf(minute / 1440), amount);
+    }
+
+    private void addRevenue(long cents) {
+        long minute = currentMinute();
+        revenueMinutes.add(minute, cents);
+        revenueHours.add(minute / 60, cents);
+        revenueDays.add(minute / 1440, cents);
+    }
+
+    //Minutes since the epoch on local time
+    //The zone's offset is looked up again once the clock passes its next transition, so periods keep
+    //starting on local time across daylight saving changes without a rules lookup per sale
+    private long currentMinute() {
+        long millis = clock.millis();
+        Offset current = offset;
+        if (millis < current.fromMillis() || millis >= current.untilMillis()) {
+            current = offsetAt(millis);
+            offset = current;
+        }
+        return Math.floorDiv(millis, 60_000L) + current.minutes();
+    }
+
+    private Offset offsetAt(long millis) {
+        Instant instant = Instant.ofEpochMilli(millis);
+        ZoneOffsetTransition next = zoneRules.nextTransition(instant);
+        long until = next != null ? next.toEpochSecond() * 1000 : Long.MAX_VALUE;
+        return new Offset(zoneRules.getOffset(instant).getTotalSeconds() / 60, millis, until);
+    }
+
+    //Weeks since the epoch, starting on Monday (the epoch day was a Thursday)
+    private static long weekOf(long day) {
+        return Math.floorDiv(day + 3, 7);
+    }
+
+    //Returns the net units of a product sold in the window
+    public long unitsSold(int sku, Window window) {
+        long minute = currentMinute();
+        return switch (window) {
+            case LAST_HOUR -> minutes.sum(sku, minute, 60);
+            case LAST_DAY -> hours.sum(sku, minute / 60, 24);
+            case LAST_30_DAYS -> days.sum(sku, minute / 1440, 30);
+            case LAST_52_WEEKS -> weeks.sum(sku, weekOf(minute / 1440), 52);
+        };
+    }
+
+    //Returns the revenue of the window in cents: its checkouts less its refunds
+    public long revenueCents(Window window) {
+        long minute = currentMinute();
+        return switch (window) {
+            case LAST_HOUR -> revenueMinutes.sum(minute, 60);
+            case LAST_DAY -> revenueHours.sum(minute / 60, 24);
+            case LAST_30_DAYS -> revenueDays.sum(minute / 1440, 30);
+            case LAST_52_WEEKS -> {
+                //The days of this week so far and of the 51 whole weeks before it
+                long today = minute / 1440;
+                yield revenueDays.sum(today, (int) (today - (weekOf(today) - 51) * 7 + 3) + 1);
+            }
+        };
+    }
+
+    //Returns the revenue of each of the last count days (at most 366) in cents, oldest first
+    //The last entry is today so far
+    public long[] revenuePerDay(int count) {
+        long today = currentMinute() / 1440;
+        long[] perDay = new long[Math.min(count, 366)];
+        for (int i = 0; i < perDay.length; i++) {
+            perDay[i] = revenueDays.get(today - perDay.length + 1 + i);
+        }
+        return perDay;
+    }
+
+    //Copies the k products of the store that sold the most units in the window into the array,
+    //best first, and returns how many were copied; products without sales in the window are left out
+    public int topSellers(ElectronicStore store, Window window, int k, Product[] into) {
+        long[] sold = totals(window, store.getCurProducts());
+        int limit = Math.min(k, into.length);
+        PriorityQueue<Integer> best = new PriorityQueue<>(limit + 1, (a, b) -> Long.compare(sold[a], sold[b]));
+        for (int sku = 0; sku < sold.length; sku++) {
+            if (sold[sku] <= 0) continue;
+            if (best.size() < limit) {
+                best.add(sku);
+            } else if (limit > 0 && sold[sku] > sold[best.peek()]) {
+                best.poll();
+                best.add(sku);
+            }
+        }
+        int length = best.size();
+        for (int i = length - 1; i >= 0; i--) {
+            into[i] = store.getProduct(best.poll());
+        }
+        return length;
+    }
+
+    //Method to add up the window's slots for every SKU, one column at a time
+    private long[] totals(Window window, int size) {
+        long minute = currentMinute();
+        return switch (window) {
+            case LAST_HOUR -> minutes.totals(minute, 60, size);
+            case LAST_DAY -> hours.totals(minute / 60, 24, size);
+            case LAST_30_DAYS -> days.totals(minute / 1440, 30, size);
+            case LAST_52_WEEKS -> weeks.totals(weekOf(minute / 1440), 52, size);
+        };
+    }
+
+    //Ring of per-SKU count columns, one column per period
+    //A column is a list of pages of SKUs; a page is allocated by the first sale on it, so a new history
+    //costs no memory up front. Widening the ring copies only the page lists: the pages themselves are
+    //shared with the old lists, so a sale still counting into a page it read before the copy is kept
+    private static final class Ring {
+        private final int length;
+        private final int pageShift;
+        private final AtomicLongArray periods; //Period each column currently counts
+        private volatile int[][][] columns; //columns[slot][page][sku within the page], pages null until used
+
+        Ring(int initLength, int capacity) {
+            length = initLength;
+            pageShift = Math.min(MAX_PAGE_SHIFT, Math.max(4, 32 - Integer.numberOfLeadingZeros(Math.max(1, capacity - 1))));
+            periods = new AtomicLongArray(initLength);
+            for (int slot = 0; slot < initLength; slot++) {
+                periods.set(slot, Long.MIN_VALUE);
+            }
+            int pages = Math.max(1, (capacity + (1 << pageShift) - 1) >>> pageShift);
+            columns = new int[initLength][pages][];
+        }
+
+        void add(int sku, long period, int amount) {
+            int slot = (int) Math.floorMod(period, (long) length);
+            long counted = periods.get(slot);
+            int[] page = page(slot, sku >>> pageShift);
+            if (counted != period && periods.compareAndSet(slot, counted, period)) {
+                for (int[] cleared : columns[slot]) {
+                    if (cleared != null) Arrays.fill(cleared, 0);
+                }
+            }
+            INTS.getAndAdd(page, sku & ((1 << pageShift) - 1), amount);
+        }
+
+        //Returns the page of a column, allocating it on first use
+        private int[] page(int slot, int index) {
+            int[][] pages = columns[slot];
+            int[] page = index < pages.length ? (int[]) PAGES.getVolatile(pages, index) : null;
+            return page != null ? page : allocate(slot, index);
+        }
+
+        //Pages are only created here, in the newest page lists, so widening cannot drop one
+        private synchronized int[] allocate(int slot, int index) {
+            int[][][] current = columns;
+            if (index >= current[slot].length) {
+                int newLength = Math.max(index + 1, current[slot].length * 2);
+                int[][][] wider = new int[length][][];
+                for (int s = 0; s < length; s++) {
+                    wider[s] = Arrays.copyOf(current[s], newLength);
+                }
+                columns = wider;
+                current = wider;
+            }
+            int[] page = current[slot][index];
+            if (page == null) {
+                page = new int[1 << pageShift];
+                PAGES.setVolatile(current[slot], index, page);
+            }
+            return page;
+        }
+
+        long sum(int sku, long period, int window) {
+            if (sku < 0) return 0;
+            int[][][] current = columns;
+            int index = sku >>> pageShift;
+            long total = 0;
+            for (int slot = 0; slot < length; slot++) {
+                int[][] pages = current[slot];
+                int[] page = index < pages.length ? (int[]) PAGES.getVolatile(pages, index) : null;
+                if (page != null && inWindow(periods.get(slot), period, window)) {
+                    total += (int) INTS.getVolatile(page, sku & ((1 << pageShift) - 1));
+                }
+            }
+            return total;
+        }
+
+        long[] totals(long period, int window, int size) {
+            int[][][] current = columns;
+            long[] totals = new long[size];
+            for (int slot = 0; slot < length; slot++) {
+                if (!inWindow(periods.get(slot), period, window)) continue;
+                int[][] pages = current[slot];
+                for (int index = 0; index < pages.length; index++) {
+                    int[] page = (int[]) PAGES.getVolatile(pages, index);
+                    if (page == null) continue;
+                    int first = index << pageShift;
+                    int count = Math.min(page.length, size - first);
+                    for (int i = 0; i < count; i++) {
+                        totals[first + i] += page[i];
+                    }
+                }
+            }
+            return totals;
+        }
+    }
+
+    //Ring of store-wide revenue, one long per period
+    private static final class RevenueRing {
+        private final int length;
+        private final AtomicLongArray periods;
+        private final AtomicLongArray cents;
+
+        RevenueRing(int initLength) {
+            length = initLength;
+            periods = new AtomicLongArray(initLength);
+            for (int slot = 0; slot < initLength; slot++) {
+                periods.set(slot, Long.MIN_VALUE);
+            }
+            cents = new AtomicLongArray(initLength);
+        }
+
+        void add(long period, long amount) {
+            int slot = (int) Math.floorMod(period, (long) length);
+            long counted = periods.get(slot);
+            if (counted != period && periods.compareAndSet(slot, counted, period)) {
+                cents.set(slot, 0);
+            }
+            cents.addAndGet(slot, amount);
+        }
+
+        long get(long period) {
+            int slot = (int) Math.floorMod(period, (long) length);
+            return periods.get(slot) == period ? cents.get(slot) : 0;
+        }
+
+        long sum(long period, int window) {
+            long total = 0;
+            for (int slot = 0; slot < length; slot++) {
+                if (inWindow(periods.get(slot), period, window)) total += cents.get(slot);
+            }
+            return total;
+        }
+    }
+
+    //Offset from UTC in minutes, valid from fromMillis until the zone's next transition at untilMillis
+    private record Offset(long minutes, long fromMillis, long untilMillis) {
+    }
+
+    //Whether a slot counting the given period lies in the window of periods ending at current
+    private static boolean inWindow(long counted, long current, int window) {
+        return counted <= current && counted > current - window;
+    }
+}
@@ -0,0 +1,537 @@
+//Append-only, write-ahead journal of the store's sales
+//Every sale, undo, checkout, refund, delivery and withdrawal is appended as a binary, length-prefixed record:
+//  [int length][int CRC32C of the body][byte type][int catalog id][payload]
+//Records are buffered in memory and written by a single writer thread, which forces each
+//batch to disk with one fsync (group commit). On startup the newest snapshot is loaded and
+//the journal written after it is replayed; a torn or corrupt tail is cut off.
+//Records are numbered by a log sequence number (LSN) that keeps counting across snapshots. A snapshot
+//is not read from the live store, whose products change before their records are appended, but from
+//a shadow copy of the quantities and totals that append updates under the journal lock: it is
+//exactly the state after the records up to its LSN, however many sales are in progress.
+//Snapshots and the journal carry a generation number and their LSN, so a crash between writing a
+//snapshot and truncating the journal never applies the same records twice.
+//Replay applies the records to a shadow copy too, as plain deltas, because concurrent sales of one
+//product may have appended their records in another order than the product took them; only the end
+//state is written to the store, and one with a negative quantity means the journal is corrupt.
+//Records are appended from the store's listeners, after the product already changed, so append never
+//throws: once a write failed (or the journal was closed) it counts the records it drops, and sync,
+//snapshot and snapshotIfDue report the failure to the caller instead.
+//SKUs are positions in the catalog, so every record and snapshot carries the catalog's id, and open
+//refuses a journal written for a different catalog. Products added after open are not journaled
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32C;
+
+public class SalesJournal implements AutoCloseable {
+    private static final int JOURNAL_MAGIC = 0x534A5232; //"SJR2"
+    private static final int SNAPSHOT_MAGIC = 0x53534E33; //"SSN3"
+    private static final int HEADER_SIZE = 24; //magic + generation + LSN + catalog id
+    private static final int RECORD_HEADER_SIZE = 8; //length + checksum
+    private static final int MAX_BODY_SIZE = 64;
+
+    private static final byte SALE = 1;
+    private static final byte UNDO = 2;
+    private static final byte CHECKOUT = 3;
+    private static final byte RECEIPT = 4;
+    private static final byte WITHDRAWAL = 5;
+    private static final byte REFUND = 6;
+
+    private final Path journalFile;
+    private final Path snapshotFile;
+    private final FileChannel channel;
+    private final int snapshotEvery; //Records between automatic snapshots
+    private final CRC32C appendCrc;
+    private final int catalogId; //Id of the catalog whose SKUs the records refer to
+
+    private final ReentrantLock lock;
+    private final Condition hasPending;
+    private final Condition flushed;
+    private ByteBuffer pending; //Records appended but not yet handed to the writer
+    private ByteBuffer writing; //Batch currently being written
+    private long appendedSeq; //LSN of the last appended record
+    private long durableSeq; //LSN of the last record forced to disk
+    private long generation;
+    //State after the record at appendedSeq, with reservations counted as stock since they are not journaled
+    private int[] shadowStock;
+    private long[] shadowSold;
+    private long shadowRevenueCents;
+    private long shadowCheckouts;
+    private long recordsSinceSnapshot;
+    private IOException failure;
+    private long dropped; //Records not journaled since the failure
+    private boolean closed;
+    private final Thread writer;
+
+    private SalesJournal(Path directory, int initSnapshotEvery, int initCatalogId) throws IOException {
+        Files.createDirectories(directory);
+        journalFile = directory.resolve("sales.journal");
+        snapshotFile = directory.resolve("sales.snapshot");
+        channel = FileChannel.open(journalFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        snapshotEvery = initSnapshotEvery;
+        appendCrc = new CRC32C();
+        catalogId = initCatalogId;
+        lock = new ReentrantLock();
+        hasPending = lock.newCondition();
+        flushed = lock.newCondition();
+        pending = ByteBuffer.allocate(64 * 1024);
+        writing = ByteBuffer.allocate(64 * 1024);
+        writer = new Thread(this::writeLoop, "sales-journal-writer");
+        writer.setDaemon(true);
+    }
+
+    //Opens the journal in the given directory, restores the store from it and starts journaling the store's sales
+    //snapshotEvery is the number of records after which snapshotIfDue takes a new snapshot
+    public static SalesJournal open(Path directory, ElectronicStore store, int snapshotEvery) throws IOException {
+        SalesJournal journal = new SalesJournal(directory, snapshotEvery, store.getCatalogId());
+        try {
+            journal.recover(store);
+            journal.copyShadow(store);
+        } catch (IOException | RuntimeException e) {
+            journal.channel.close();
+            throw e;
+        }
+        journal.writer.start();
+        store.setJournal(journal);
+        return journal;
+    }
+
+    public void recordSale(int sku, int amount) {
+        append(SALE, sku, amount, 0L);
+    }
+
+    public void recordUndo(int sku, int amount) {
+        append(UNDO, sku, amount, 0L);
+    }
+
+    public void recordCheckout(long revenueCents) {
+        append(CHECKOUT, 0, 0, revenueCents);
+    }
+
+    public void recordRefund(long refundCents) {
+        append(REFUND, 0, 0, refundCents);
+    }
+
+    public void recordReceipt(int sku, int amount) {
+        append(RECEIPT, sku, amount, 0L);
+    }
+
+    public void recordWithdrawal(int sku, int amount) {
+        append(WITHDRAWAL, sku, amount, 0L);
+    }
+
+    //Blocks until every record appended so far has been forced to disk
+    //Throws UncheckedIOException if a write failed, after which no record is journaled any more
+    public void sync() {
+        lock.lock();
+        try {
+            long target = appendedSeq;
+            while (durableSeq < target && failure == null) {
+                flushed.awaitUninterruptibly();
+            }
+            throwIfFailed();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    //Takes a snapshot once snapshotEvery records have been written since the last one
+    //Throws UncheckedIOException if a write failed, after which no record is journaled any more
+    public void snapshotIfDue() {
+        lock.lock();
+        try {
+            throwIfFailed();
+            if (recordsSinceSnapshot < snapshotEvery) return;
+        } finally {
+            lock.unlock();
+        }
+        snapshot();
+    }
+
+    //Writes the state after the last appended record to a new snapshot and empties the journal
+    //Safe while sales are in progress: a sale whose record is not appended yet is in neither, and
+    //its record lands in the emptied journal. Appends wait while the snapshot is written
+    public void snapshot() {
+        lock.lock();
+        try {
+            awaitIdle();
+            long nextGeneration = generation + 1;
+            writeSnapshot(nextGeneration);
+            restartJournal(nextGeneration);
+        } catch (IOException e) {
+            failure = e;
+            throw new UncheckedIOException(e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    //Starts the journal over from the store's current state, after it was overwritten without being
+    //journaled (a rewind). Must only be called while no sales are in progress
+    public void rebase(ElectronicStore store) {
+        lock.lock();
+        try {
+            awaitIdle();
+            copyShadow(store);
+        } finally {
+            lock.unlock();
+        }
+        snapshot();
+    }
+
+    //Discards all journaled history, e.g. when the store is rebuilt from scratch
+    //The store must already be back in the state it is built in, and no sales may be in progress
+    public void reset(ElectronicStore store) {
+        lock.lock();
+        try {
+            awaitIdle();
+            //Empty the journal under a newer generation before dropping the snapshot,
+            //so a crash in between still recovers to the empty state
+            restartJournal(generation + 1);
+            Files.deleteIfExists(snapshotFile);
+            copyShadow(store);
+        } catch (IOException e) {
+            failure = e;
+            throw new UncheckedIOException(e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    //Flushes outstanding records and stops the writer
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            if (closed) return;
+            //The writer drains whatever is still pending before it exits
+            closed = true;
+            hasPending.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        channel.close();
+    }
+
+    //Called from the store's listeners after the change took effect, so it must not throw
+    private void append(byte type, int sku, int amount, long cents) {
+        lock.lock();
+        try {
+            if (closed && failure == null) failure = new IOException("Sales journal is closed");
+            if (failure != null) {
+                dropped++;
+                return;
+            }
+            if (pending.remaining() < RECORD_HEADER_SIZE + MAX_BODY_SIZE) {
+                ByteBuffer larger = ByteBuffer.allocate(pending.capacity() * 2);
+                pending.flip();
+                larger.put(pending);
+                pending = larger;
+            }
+            int start = pending.position();
+            pending.position(start + RECORD_HEADER_SIZE);
+            pending.put(type).putInt(catalogId);
+            if (type == CHECKOUT || type == REFUND) {
+                pending.putLong(cents);
+            } else {
+                pending.putInt(sku).putInt(amount);
+            }
+            applyToShadow(type, sku, amount, cents);
+            int length = pending.position() - start - RECORD_HEADER_SIZE;
+            appendCrc.reset();
+            appendCrc.update(pending.array(), start + RECORD_HEADER_SIZE, length);
+            pending.putInt(start, length);
+            pending.putInt(start + 4, (int) appendCrc.getValue());
+            appendedSeq++;
+            recordsSinceSnapshot++;
+            hasPending.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    //Keeps the shadow state in step with the records, in the order they are appended
+    private void applyToShadow(byte type, int sku, int amount, long cents) {
+        if (type == CHECKOUT) {
+            shadowRevenueCents += cents;
+            shadowCheckouts++;
+        } else if (type == REFUND) {
+            shadowRevenueCents -= cents;
+        } else if (sku >= 0 && sku < shadowStock.length) {
+            if (type == SALE) {
+                shadowStock[sku] -= amount;
+                shadowSold[sku] += amount;
+            } else if (type == UNDO) {
+                shadowStock[sku] += amount;
+                shadowSold[sku] -= amount;
+            } else if (type == RECEIPT) {
+                shadowStock[sku] += amount;
+            } else if (type == WITHDRAWAL) {
+                shadowStock[sku] -= amount;
+            }
+        }
+    }
+
+    //Takes the shadow state from the store; only while nothing changes it
+    private void copyShadow(ElectronicStore store) {
+        InventoryColumns columns = store.getColumns();
+        int count = columns.size();
+        shadowStock = new int[count];
+        shadowSold = new long[count];
+        for (int sku = 0; sku < count; sku++) {
+            shadowStock[sku] = columns.stockAt(sku) + columns.reservedAt(sku);
+            shadowSold[sku] = columns.soldAt(sku);
+        }
+        shadowRevenueCents = store.getRevenueCents();
+        shadowCheckouts = store.getCheckouts();
+    }
+
+    //Writer thread: takes everything appended so far, writes it and forces it with a single fsync
+    private void writeLoop() {
+        while (true) {
+            long target;
+            lock.lock();
+            try {
+                while (pending.position() == 0 && !closed) {
+                    hasPending.awaitUninterruptibly();
+                }
+                if (pending.position() == 0) return;
+                ByteBuffer batch = pending;
+                pending = writing;
+                writing = batch;
+                target = appendedSeq;
+            } finally {
+                lock.unlock();
+            }
+            IOException error = null;
+            try {
+                writing.flip();
+                while (writing.hasRemaining()) {
+                    channel.write(writing);
+                }
+                channel.force(false);
+            } catch (IOException e) {
+                error = e;
+            } finally {
+                writing.clear();
+            }
+            lock.lock();
+            try {
+                if (error != null) {
+                    failure = error;
+                } else {
+                    durableSeq = target;
+                }
+                flushed.signalAll();
+                if (error != null) return;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    //Waits, holding the lock, until the writer has nothing left to write
+    private void awaitIdle() {
+        while (durableSeq < appendedSeq && failure == null) {
+            flushed.awaitUninterruptibly();
+        }
+        throwIfFailed();
+    }
+
+    private void throwIfFailed() {
+        if (failure != null) {
+            throw new UncheckedIOException("Sales journal write failed, " + dropped + " records since were not journaled", failure);
+        }
+    }
+
+    //Returns true once a write failed or the journal was closed; records appended from then on are dropped
+    public boolean hasFailed() {
+        lock.lock();
+        try {
+            return failure != null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void recover(ElectronicStore store) throws IOException {
+        ByteBuffer snapshot = Files.exists(snapshotFile) ? readSnapshotHeader() : null;
+        long snapshotGeneration = snapshot != null ? snapshot.getLong(4) : 0;
+        long snapshotLsn = snapshot != null ? snapshot.getLong(12) : 0;
+        ByteBuffer journal = readJournalHeader();
+        if (journal == null || snapshotGeneration > journal.getLong(4)) {
+            //No journal yet, or one that the snapshot already covers
+            if (snapshot != null) loadSnapshot(store);
+            appendedSeq = snapshotLsn;
+            durableSeq = snapshotLsn;
+            restartJournal(snapshotGeneration);
+            return;
+        }
+        //A snapshot older than the journal predates a reset and no longer applies
+        boolean loaded = snapshotGeneration == journal.getLong(4) && snapshot != null;
+        if (loaded) loadSnapshot(store);
+        generation = journal.getLong(4);
+        copyShadow(store);
+        long validEnd = replay(journal.getLong(12), loaded ? snapshotLsn : 0);
+        restoreFromShadow(store);
+        channel.truncate(validEnd);
+        channel.position(validEnd);
+    }
+
+    //Writes the replayed shadow state to the store's products and totals
+    private void restoreFromShadow(ElectronicStore store) throws IOException {
+        for (int sku = 0; sku < shadowStock.length; sku++) {
+            if (shadowStock[sku] < 0 || shadowStock[sku] > Product.MAX_QUANTITY || shadowSold[sku] < 0) {
+                throw new IOException(journalFile + " is corrupt: it leaves SKU " + sku + " with " + shadowStock[sku]
+                        + " in stock and " + shadowSold[sku] + " sold");
+            }
+        }
+        InventoryColumns columns = store.getColumns();
+        for (int sku = 0; sku < shadowStock.length; sku++) {
+            if (columns.stockAt(sku) != shadowStock[sku] || columns.soldAt(sku) != shadowSold[sku]) {
+                store.getProduct(sku).restoreQuantities(shadowStock[sku], shadowSold[sku]);
+            }
+        }
+        store.quantitiesRestored();
+        store.restoreTotals(shadowRevenueCents, shadowCheckouts);
+    }
+
+    //Reads and checks the journal's header, or returns null if there is no journal yet
+    private ByteBuffer readJournalHeader() throws IOException {
+        if (channel.size() < HEADER_SIZE) return null;
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        channel.read(header, 0);
+        if (header.getInt(0) != JOURNAL_MAGIC) throw new IOException("Not a sales journal: " + journalFile);
+        checkCatalog(header.getInt(20), journalFile);
+        return header;
+    }
+
+    private void checkCatalog(int id, Path file) throws IOException {
+        if (id != catalogId) throw new IOException(file + " was written for a different catalog");
+    }
+
+    //Truncates the journal to an empty one of the given generation, starting after the last appended record
+    private void restartJournal(long newGeneration) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(JOURNAL_MAGIC).putLong(newGeneration).putLong(appendedSeq).putInt(catalogId).flip();
+        channel.truncate(0);
+        channel.write(header, 0);
+        channel.force(true);
+        channel.position(HEADER_SIZE);
+        generation = newGeneration;
+        recordsSinceSnapshot = 0;
+    }
+
+    //Applies every intact record after the LSN skipUpTo to the shadow state and returns the offset just past the last one
+    //startLsn is the LSN of the record before the journal's first one
+    private long replay(long startLsn, long skipUpTo) throws IOException {
+        long lsn = startLsn;
+        ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        CRC32C crc = new CRC32C();
+        long validEnd = HEADER_SIZE;
+        channel.position(HEADER_SIZE);
+        while (true) {
+            int read = channel.read(buffer);
+            buffer.flip();
+            while (buffer.remaining() >= RECORD_HEADER_SIZE) {
+                int start = buffer.position();
+                int length = buffer.getInt(start);
+                int checksum = buffer.getInt(start + 4);
+                if (length <= 0 || length > MAX_BODY_SIZE) return validEnd;
+                if (buffer.remaining() < RECORD_HEADER_SIZE + length) break;
+                crc.reset();
+                crc.update(buffer.array(), start + RECORD_HEADER_SIZE, length);
+                if ((int) crc.getValue() != checksum) return validEnd;
+                checkCatalog(buffer.getInt(start + RECORD_HEADER_SIZE + 1), journalFile);
+                lsn++;
+                if (lsn > skipUpTo) {
+                    buffer.position(start + RECORD_HEADER_SIZE);
+                    apply(buffer);
+                    recordsSinceSnapshot++;
+                }
+                buffer.position(start + RECORD_HEADER_SIZE + length);
+                validEnd += RECORD_HEADER_SIZE + length;
+            }
+            buffer.compact();
+            if (read <= 0) {
+                appendedSeq = lsn;
+                durableSeq = lsn;
+                return validEnd;
+            }
+        }
+    }
+
+    private void apply(ByteBuffer record) {
+        byte type = record.get();
+        record.getInt(); //Catalog id, checked by replay
+        if (type == CHECKOUT || type == REFUND) {
+            applyToShadow(type, 0, 0, record.getLong());
+        } else {
+            applyToShadow(type, record.getInt(), record.getInt(), 0);
+        }
+    }
+
+    //Reads and checks the snapshot's header
+    private ByteBuffer readSnapshotHeader() throws IOException {
+        try (FileChannel in = FileChannel.open(snapshotFile, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            in.read(header, 0);
+            if (header.position() < HEADER_SIZE || header.getInt(0) != SNAPSHOT_MAGIC) {
+                throw new IOException("Not a sales snapshot: " + snapshotFile);
+            }
+            checkCatalog(header.getInt(20), snapshotFile);
+            return header;
+        }
+    }
+
+    //Snapshot layout: [magic][generation][LSN][catalog id][revenue cents][checkouts][count]
+    //then [int stock][long sold] per SKU
+    private void loadSnapshot(ElectronicStore store) throws IOException {
+        ByteBuffer data = ByteBuffer.wrap(Files.readAllBytes(snapshotFile));
+        data.position(HEADER_SIZE);
+        store.restoreTotals(data.getLong(), data.getLong());
+        int count = data.getInt();
+        for (int sku = 0; sku < count; sku++) {
+            int stock = data.getInt();
+            long sold = data.getLong();
+            Product product = store.getProduct(sku);
+            if (product != null) product.restoreQuantities(stock, sold);
+        }
+        store.quantitiesRestored();
+    }
+
+    //Writes the shadow state, which is the state after the record at appendedSeq
+    private void writeSnapshot(long snapshotGeneration) throws IOException {
+        int count = shadowStock.length;
+        ByteBuffer data = ByteBuffer.allocate(HEADER_SIZE + 20 + count * 12);
+        data.putInt(SNAPSHOT_MAGIC).putLong(snapshotGeneration).putLong(appendedSeq).putInt(catalogId);
+        data.putLong(shadowRevenueCents).putLong(shadowCheckouts).putInt(count);
+        for (int sku = 0; sku < count; sku++) {
+            //Reservations are not journaled, so a restored store gets them back as stock
+            data.putInt(shadowStock[sku]);
+            data.putLong(shadowSold[sku]);
+        }
+        data.flip();
+        Path temp = snapshotFile.resolveSibling(snapshotFile.getFileName() + ".tmp");
+        try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (data.hasRemaining()) {
+                out.write(data);
+            }
+            out.force(true);
+        }
+        Files.move(temp, snapshotFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -0,0 +1,176 @@
+//Ranking of every product by units sold, kept sorted in place as sales happen
+//The ranking is an array of SKUs, best seller first, with the units each was placed with beside it
+//and the position of every SKU, so a sale or a return moves its product without searching for it.
+//A product whose sales change moves past one group of equally-selling products per hop: it swaps
+//with the first (or last) of the group next to it, found by binary search, so a move costs
+//O(log n) per distinct sales figure it passes, and a sale of a few units usually passes one.
+//Reading the k best sellers copies the front of the ranking: O(k) for any k, allocating nothing.
+//Only SKUs are kept, so the leaderboard never holds on to products a catalog creates on demand.
+//When the units sold of many products are overwritten at once (a restore), the ranking is marked
+//stale and sorted again from the sold column on the next read; sales in the meantime are not moved.
+//Products with equal sales are in no particular order
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+public class SalesLeaderboard {
+    private static final long MAX_PACKED_SOLD = (1L << 32) - 1; //Largest units sold sortable packed with a SKU
+
+    private final List<Product> products; //Every product that can rank, by SKU
+    private final InventoryColumns columns; //Units sold by SKU, read when the ranking is sorted again
+
+    //Guarded by this
+    private int size; //SKUs ranked
+    private int[] order; //SKUs, best seller first
+    private long[] sold; //Units sold each SKU in order was placed with
+    private int[] rank; //Position in order of each SKU
+    private boolean stale; //The ranking must be sorted again before it is read
+
+    public SalesLeaderboard(List<Product> initProducts, InventoryColumns initColumns) {
+        products = initProducts;
+        columns = initColumns;
+        order = new int[16];
+        sold = new long[16];
+        rank = new int[16];
+    }
+
+    //Moves the product to its rank for its current units sold; called after they changed
+    public synchronized void update(Product product) {
+        if (stale) return;
+        int sku = product.getSku();
+        while (size <= sku) {
+            add(size);
+        }
+        move(sku, product.getSoldQuantity());
+    }
+
+    //Marks the ranking stale after the units sold of any number of products were overwritten
+    public synchronized void invalidate() {
+        stale = true;
+    }
+
+    //Copies the k best sellers into the given array and returns how many were copied
+    public synchronized int top(int k, Product[] into) {
+        if (stale) sort();
+        int length = Math.min(Math.min(k, size), into.length);
+        for (int i = 0; i < length; i++) {
+            into[i] = products.get(order[i]);
+        }
+        return length;
+    }
+
+    //Appends a SKU below every ranked one; it is moved to its rank by the update that added it
+    private void add(int sku) {
+        if (size == order.length) {
+            int capacity = order.length * 2;
+            order = Arrays.copyOf(order, capacity);
+            sold = Arrays.copyOf(sold, capacity);
+            rank = Arrays.copyOf(rank, capacity);
+        }
+        order[size] = sku;
+        sold[size] = -1;
+        rank[sku] = size++;
+    }
+
+    //Moves the SKU to where units places it, one group of equal sales at a time
+    private void move(int sku, long units) {
+        int position = rank[sku];
+        if (units > sold[position]) {
+            while (position > 0 && sold[position - 1] < units) {
+                swap(position, groupStart(sold[position - 1], position - 1));
+                position = rank[sku];
+            }
+        } else {
+            while (position < size - 1 && sold[position + 1] > units) {
+                swap(position, groupEnd(sold[position + 1], position + 1));
+                position = rank[sku];
+            }
+        }
+        sold[position] = units;
+    }
+
+    //First position of the group that sold units, which holds position end
+    private int groupStart(long units, int end) {
+        int low = 0;
+        int high = end;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (sold[middle] > units) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    //Last position of the group that sold units, which holds position start
+    private int groupEnd(long units, int start) {
+        int low = start;
+        int high = size - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (sold[middle] < units) {
+                high = middle - 1;
+            } else {
+                low = middle;
+            }
+        }
+        return low;
+    }
+
+    private void swap(int a, int b) {
+        int skuA = order[a];
+        int skuB = order[b];
+        long soldA = sold[a];
+        order[a] = skuB;
+        sold[a] = sold[b];
+        rank[skuB] = a;
+        order[b] = skuA;
+        sold[b] = soldA;
+        rank[skuA] = b;
+    }
+
+    //Ranks the whole catalog again from the sold column
+    private void sort() {
+        int count = products.size();
+        if (count > order.length) {
+            order = new int[count];
+            sold = new long[count];
+            rank = new int[count];
+        }
+        long[] units = new long[count];
+        long most = 0;
+        for (int sku = 0; sku < count; sku++) {
+            units[sku] = columns.soldAt(sku);
+            most = Math.max(most, units[sku]);
+        }
+        if (most <= MAX_PACKED_SOLD) {
+            //Sorting the units sold packed with their SKU needs no boxing
+            long[] packed = new long[count];
+            for (int sku = 0; sku < count; sku++) {
+                packed[sku] = (MAX_PACKED_SOLD - units[sku]) << 31 | sku;
+            }
+            Arrays.sort(packed);
+            for (int i = 0; i < count; i++) {
+                order[i] = (int) (packed[i] & Integer.MAX_VALUE);
+            }
+        } else {
+            Integer[] skus = new Integer[count];
+            for (int sku = 0; sku < count; sku++) {
+                skus[sku] = sku;
+            }
+            Arrays.sort(skus, Comparator.comparingLong((Integer sku) -> units[sku]).reversed());
+            for (int i = 0; i < count; i++) {
+                order[i] = skus[i];
+            }
+        }
+        for (int i = 0; i < count; i++) {
+            sold[i] = units[order[i]];
+            rank[order[i]] = i;
+        }
+        size = count;
+        stale = false;
+    }
+}
@@ -0,0 +1,164 @@
+//Local load-test client for SalesApiServer
+//Each client is a virtual thread running the same shopping session in a loop: look a product up,
+//open a cart, reserve two units, read the cart back and check out. Every request's latency is
+//recorded and the run ends with throughput and latency percentiles.
+//
+//  java SalesLoadTest [--url http://host:port] [--clients 64] [--seconds 10] [--catalog 100]
+//
+//Without --url an in-process server is started on a generated catalog deep enough in stock that
+//the run never sells out
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class SalesLoadTest {
+    private final HttpClient client;
+    private final String baseUrl;
+    private final int catalogSize;
+    private final AtomicLong failures;
+
+    public SalesLoadTest(HttpClient initClient, String initBaseUrl, int initCatalogSize) {
+        client = initClient;
+        baseUrl = initBaseUrl;
+        catalogSize = initCatalogSize;
+        failures = new AtomicLong();
+    }
+
+    //Method to run sessions until the deadline, returning every request latency in nanoseconds
+    private long[] runClient(long deadline) {
+        long[] latencies = new long[1024];
+        int count = 0;
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        while (System.nanoTime() < deadline) {
+            int sku = random.nextInt(catalogSize);
+            if (count + 6 > latencies.length) latencies = Arrays.copyOf(latencies, latencies.length * 2);
+            call("GET", "/products/" + sku, latencies, count++);
+            String cart = call("POST", "/carts", latencies, count++);
+            if (cart == null) continue;
+            String id = idOf(cart);
+            call("POST", "/carts/" + id + "/items/" + sku, latencies, count++);
+            call("POST", "/carts/" + id + "/items/" + random.nextInt(catalogSize), latencies, count++);
+            call("GET", "/carts/" + id, latencies, count++);
+            call("POST", "/carts/" + id + "/checkout", latencies, count++);
+        }
+        return Arrays.copyOf(latencies, count);
+    }
+
+    //Method to send one request and record its latency; returns the body, or null on failure
+    private String call(String method, String path, long[] latencies, int slot) {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(baseUrl + path))
+                .method(method, HttpRequest.BodyPublishers.noBody()).build();
+        long start = System.nanoTime();
+        try {
+            HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+            latencies[slot] = System.nanoTime() - start;
+            if (response.statusCode() >= 300) {
+                failures.incrementAndGet();
+                return null;
+            }
+            return response.body();
+        } catch (IOException e) {
+            latencies[slot] = System.nanoTime() - start;
+            failures.incrementAndGet();
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            latencies[slot] = System.nanoTime() - start;
+            failures.incrementAndGet();
+            return null;
+        }
+    }
+
+    private static String idOf(String json) {
+        int start = json.indexOf("\"id\":") + 5;
+        int end = start;
+        while (end < json.length() && Character.isDigit(json.charAt(end))) end++;
+        return json.substring(start, end);
+    }
+
+    //Method to build a catalog of laptops that each hold the largest stock a product allows
+    private static ElectronicStore generatedStore(int size) {
+        ElectronicStore store = new ElectronicStore("Load Test Electronics");
+        for (int i = 0; i < size; i++) {
+            store.addProduct(new Laptop(100 + i, Product.MAX_QUANTITY, 2.5, 16, true, 256 + i, 15));
+        }
+        return store;
+    }
+
+    public static void main(String[] args) throws Exception {
+        String url = null;
+        int clients = 64;
+        int seconds = 10;
+        int catalog = 100;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--url" -> url = args[i + 1];
+                case "--clients" -> clients = Integer.parseInt(args[i + 1]);
+                case "--seconds" -> seconds = Integer.parseInt(args[i + 1]);
+                case "--catalog" -> catalog = Integer.parseInt(args[i + 1]);
+                default -> throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+
+        SalesApiServer server = null;
+        if (url == null) {
+            server = new SalesApiServer(generatedStore(catalog), 0);
+            server.start();
+            url = "http://localhost:" + server.getPort();
+        }
+
+        try (ExecutorService threads = Executors.newVirtualThreadPerTaskExecutor()) {
+            HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1)
+                    .executor(threads).connectTimeout(Duration.ofSeconds(5)).build();
+            SalesLoadTest test = new SalesLoadTest(client, url, catalog);
+
+            System.out.println("Running " + clients + " clients against " + url + " for " + seconds + "s");
+            long start = System.nanoTime();
+            long deadline = start + Duration.ofSeconds(seconds).toNanos();
+            List<Future<long[]>> runs = new ArrayList<>(clients);
+            for (int i = 0; i < clients; i++) {
+                runs.add(threads.submit(() -> test.runClient(deadline)));
+            }
+            long[][] perClient = new long[clients][];
+            int total = 0;
+            for (int i = 0; i < clients; i++) {
+                perClient[i] = runs.get(i).get();
+                total += perClient[i].length;
+            }
+            double elapsed = (System.nanoTime() - start) / 1e9;
+
+            long[] all = new long[total];
+            int offset = 0;
+            for (long[] latencies : perClient) {
+                System.arraycopy(latencies, 0, all, offset, latencies.length);
+                offset += latencies.length;
+            }
+            Arrays.sort(all);
+            System.out.printf("requests %d, failures %d, throughput %.0f req/s%n",
+                    total, test.failures.get(), total / elapsed);
+            if (total > 0) {
+                System.out.printf("latency p50 %.3f ms, p99 %.3f ms, p99.9 %.3f ms, max %.3f ms%n",
+                        percentile(all, 0.50), percentile(all, 0.99), percentile(all, 0.999),
+                        all[total - 1] / 1e6);
+            }
+        } finally {
+            if (server != null) server.close();
+        }
+    }
+
+    private static double percentile(long[] sorted, double p) {
+        return sorted[Math.min(sorted.length - 1, (int) (sorted.length * p))] / 1e6;
+    }
+}
@@ -0,0 +1,203 @@
+//Sales metrics of one store: counters, rolling sales rates and latency histograms
+//Attached with ElectronicStore.setMetrics, it follows every sale and return as an inventory listener,
+//and the store, carts, the UI and the HTTP API time their operations into its histograms.
+//Everything is lock-free on the recording side. writePrometheus renders the current values in the
+//Prometheus text format; MetricsEndpoint serves that over HTTP
+
+import lombok.Getter;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+public class SalesMetrics implements InventoryListener {
+    public static final int RATE_WINDOW_SECONDS = 60;
+    private static final long LATENCY_WINDOW_NANOS = TimeUnit.SECONDS.toNanos(60);
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    private final LongAdder unitsSold;
+    private final LongAdder unitsReturned;
+    private final LongAdder checkouts;
+    private final LongAdder revenueCents;
+    private final LongAdder refundCents;
+    private final Map<String, RollingCounter> categoryRates; //Units sold per product category
+    private final Map<Product, RollingCounter> productRates; //Units sold per product, for products that sold
+    private final List<Gauge> gauges;
+
+    @Getter
+    private final LatencyHistogram sellLatency; //ElectronicStore.removeFromStock
+    @Getter
+    private final LatencyHistogram checkoutLatency; //Cart.checkout
+    @Getter
+    private final LatencyHistogram uiRefreshLatency; //One coalesced view refresh on the FX thread
+    @Getter
+    private final LatencyHistogram requestLatency; //One SalesApiServer request
+
+    public SalesMetrics() {
+        unitsSold = new LongAdder();
+        unitsReturned = new LongAdder();
+        checkouts = new LongAdder();
+        revenueCents = new LongAdder();
+        refundCents = new LongAdder();
+        categoryRates = new ConcurrentHashMap<>();
+        productRates = new ConcurrentHashMap<>();
+        gauges = new CopyOnWriteArrayList<>();
+        sellLatency = new LatencyHistogram(LATENCY_WINDOW_NANOS);
+        checkoutLatency = new LatencyHistogram(LATENCY_WINDOW_NANOS);
+        uiRefreshLatency = new LatencyHistogram(LATENCY_WINDOW_NANOS);
+        requestLatency = new LatencyHistogram(LATENCY_WINDOW_NANOS);
+    }
+
+    //Adds a gauge read at export time, e.g. the number of open carts
+    public void gauge(String name, String help, LongSupplier value) {
+        gauges.add(new Gauge(name, help, value));
+    }
+
+    @Override
+    public void quantitiesChanged(Product product) {
+    }
+
+    @Override
+    public void unitsSold(Product product, int amount) {
+        unitsSold.add(amount);
+        long second = RollingCounter.now();
+        categoryRates.computeIfAbsent(categoryOf(product), c -> new RollingCounter(RATE_WINDOW_SECONDS))
+                .add(amount, second);
+        productRates.computeIfAbsent(product, p -> new RollingCounter(RATE_WINDOW_SECONDS)).add(amount, second);
+    }
+
+    @Override
+    public void unitsReturned(Product product, int amount) {
+        unitsReturned.add(amount);
+    }
+
+    //Called by the store for every completed checkout
+    @Override
+    public void checkoutRecorded(long amountCents) {
+        checkouts.increment();
+        revenueCents.add(amountCents);
+    }
+
+    //Called by the store for every refund; kept apart from the revenue so both counters only go up
+    @Override
+    public void refundRecorded(long amountCents) {
+        refundCents.add(amountCents);
+    }
+
+    public long getUnitsSold() {
+        return unitsSold.sum();
+    }
+
+    public long getCheckouts() {
+        return checkouts.sum();
+    }
+
+    public long getRevenueCents() {
+        return revenueCents.sum();
+    }
+
+    public long getRefundCents() {
+        return refundCents.sum();
+    }
+
+    //Returns the units of a category sold per second over the last RATE_WINDOW_SECONDS
+    public double getCategoryRate(String category) {
+        RollingCounter counter = categoryRates.get(category);
+        return counter != null ? counter.ratePerSecond(RollingCounter.now()) : 0;
+    }
+
+    //Returns the units of a product sold per second over the last RATE_WINDOW_SECONDS
+    public double getProductRate(Product product) {
+        RollingCounter counter = productRates.get(product);
+        return counter != null ? counter.ratePerSecond(RollingCounter.now()) : 0;
+    }
+
+    static String categoryOf(Product product) {
+        return product.getClass().getSimpleName();
+    }
+
+    //Renders every metric in the Prometheus text exposition format
+    //Products only appear while they have sales inside the rate window
+    public void writePrometheus(StringBuilder out) {
+        counter(out, "store_units_sold_total", "Units sold", unitsSold.sum());
+        counter(out, "store_units_returned_total", "Sold units put back into stock", unitsReturned.sum());
+        counter(out, "store_checkouts_total", "Completed checkouts", checkouts.sum());
+        counter(out, "store_revenue_cents_total", "Revenue in cents", revenueCents.sum());
+        counter(out, "store_refunds_cents_total", "Refunds in cents", refundCents.sum());
+
+        long second = RollingCounter.now();
+        header(out, "store_category_units_sold_per_second", "gauge",
+                "Units sold per second over the last " + RATE_WINDOW_SECONDS + "s, by category");
+        for (Map.Entry<String, RollingCounter> entry : categoryRates.entrySet()) {
+            out.append("store_category_units_sold_per_second{category=\"");
+            label(out, entry.getKey());
+            out.append("\"} ").append(entry.getValue().ratePerSecond(second)).append('\n');
+        }
+        header(out, "store_product_units_sold_per_second", "gauge",
+                "Units sold per second over the last " + RATE_WINDOW_SECONDS + "s, by product");
+        for (Map.Entry<Product, RollingCounter> entry : productRates.entrySet()) {
+            long sold = entry.getValue().sum(second);
+            if (sold == 0) continue;
+            Product product = entry.getKey();
+            out.append("store_product_units_sold_per_second{sku=\"").append(product.getSku()).append("\",product=\"");
+            label(out, product.toString());
+            out.append("\"} ").append((double) sold / RATE_WINDOW_SECONDS).append('\n');
+        }
+
+        summary(out, "store_sell_latency_seconds", "Time to sell a unit by name", sellLatency);
+        summary(out, "store_checkout_latency_seconds", "Time to check a cart out", checkoutLatency);
+        summary(out, "store_ui_refresh_seconds", "Time spent on one view refresh on the FX thread", uiRefreshLatency);
+        summary(out, "store_http_request_seconds", "Time to serve one sales API request", requestLatency);
+
+        for (Gauge gauge : gauges) {
+            header(out, gauge.name(), "gauge", gauge.help());
+            out.append(gauge.name()).append(' ').append(gauge.value().getAsLong()).append('\n');
+        }
+    }
+
+    private static void counter(StringBuilder out, String name, String help, long value) {
+        header(out, name, "counter", help);
+        out.append(name).append(' ').append(value).append('\n');
+    }
+
+    //Quantiles cover the recent latency window; count, sum and max cover all time
+    private static void summary(StringBuilder out, String name, String help, LatencyHistogram histogram) {
+        header(out, name, "summary", help + " (quantiles over the last 1-2 minutes)");
+        for (double quantile : QUANTILES) {
+            out.append(name).append("{quantile=\"").append(quantile).append("\"} ")
+                    .append(seconds(histogram.valueAtQuantile(quantile))).append('\n');
+        }
+        out.append(name).append("_sum ").append(seconds(histogram.getSumNanos())).append('\n');
+        out.append(name).append("_count ").append(histogram.getCount()).append('\n');
+        header(out, name + "_max", "gauge", help + ", longest since startup");
+        out.append(name).append("_max ").append(seconds(histogram.getMaxNanos())).append('\n');
+    }
+
+    private static void header(StringBuilder out, String name, String type, String help) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static double seconds(long nanos) {
+        return nanos / 1e9;
+    }
+
+    private static void label(StringBuilder out, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '\\' -> out.append("\\\\");
+                case '"' -> out.append("\\\"");
+                case '\n' -> out.append("\\n");
+                default -> out.append(c);
+            }
+        }
+    }
+
+    private record Gauge(String name, String help, LongSupplier value) {
+    }
+}
@@ -0,0 +1,359 @@
+//End-of-day sales report over one store or a whole chain: units and revenue by category (computers
+//and appliances), product type, brand, price band and hour of the day, exported as CSV
+//Sales come from each branch's ReceiptStore, so they can be limited to a period and split by hour;
+//revenue is what was paid after promotions. A branch without receipts is reported from its
+//inventory's units sold at list price, which covers its whole history and has no hours.
+//Every dimension value is a slot in one flat array, and every SKU of a branch is mapped to its
+//slots once up front, so tallying a line is a few array additions. The work is split with fork/join:
+//each branch's receipts (or SKUs) are halved until a chunk is small enough, chunks are tallied on
+//every core of the pool and the tallies are added up. Receipts are read without holding the receipt
+//store's lock, so checkouts keep going while a report runs
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.zone.ZoneOffsetTransition;
+import java.time.zone.ZoneRules;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+public class SalesReport {
+    private static final int RECEIPTS_PER_TASK = 1 << 14; //Receipts a task tallies without splitting further
+    private static final int SKUS_PER_TASK = 1 << 16;
+    private static final long MILLIS_PER_HOUR = 3_600_000;
+    private static final String[] CATEGORIES = {"Computer", "Appliance", "Other"};
+    private static final long[] PRICE_BANDS_CENTS = {5000, 10000, 25000, 50000, 100000}; //Lower bounds of every band but the first
+    private static final String NO_BRAND = "(no brand)";
+
+    //One branch to report on; receipts may be null to report from the inventory instead
+    public record Source(ElectronicStore store, ReceiptStore receipts) {
+    }
+
+    //Units and revenue of one value of a dimension, e.g. dimension "brand" and key "Sub Zero"
+    public record Row(String dimension, String key, long units, long revenueCents) {
+    }
+
+    private final Instant from;
+    private final Instant until;
+    private final long receipts;
+    private final long revenueCents;
+    private final List<Row> rows;
+
+    private SalesReport(Instant initFrom, Instant initUntil, long initReceipts, long initRevenueCents, List<Row> initRows) {
+        from = initFrom;
+        until = initUntil;
+        receipts = initReceipts;
+        revenueCents = initRevenueCents;
+        rows = Collections.unmodifiableList(initRows);
+    }
+
+    //Reports on the sales made in [from, until), hours being counted in the given time zone,
+    //using the given pool's threads
+    public static SalesReport compute(List<Source> sources, Instant from, Instant until, ZoneId zone, ForkJoinPool pool) {
+        Slots slots = new Slots(sources);
+        List<Task> tasks = new ArrayList<>();
+        for (int i = 0; i < sources.size(); i++) {
+            Source source = sources.get(i);
+            if (source.receipts() != null) {
+                long first = source.receipts().firstReceiptAt(from);
+                long end = source.receipts().firstReceiptAt(until);
+                tasks.add(new Task(slots, i, zone.getRules(), first, end));
+            } else {
+                tasks.add(new Task(slots, i, null, 0, source.store().getCurProducts()));
+            }
+        }
+        Tally total = pool.invoke(new RecursiveTask<Tally>() {
+            @Override
+            protected Tally compute() {
+                Tally sum = new Tally(slots.names.size());
+                for (Task task : invokeAll(tasks)) {
+                    sum.add(task.join());
+                }
+                return sum;
+            }
+        });
+        List<Row> rows = new ArrayList<>(slots.names.size());
+        for (int slot = 0; slot < slots.names.size(); slot++) {
+            rows.add(new Row(slots.dimensions.get(slot), slots.names.get(slot), total.units[slot], total.revenueCents[slot]));
+        }
+        return new SalesReport(from, until, total.receipts, total.revenue, rows);
+    }
+
+    public static SalesReport compute(List<Source> sources, Instant from, Instant until, ZoneId zone) {
+        return compute(sources, from, until, zone, ForkJoinPool.commonPool());
+    }
+
+    //Reports on one day in the given time zone
+    public static SalesReport endOfDay(List<Source> sources, LocalDate day, ZoneId zone) {
+        return compute(sources, day.atStartOfDay(zone).toInstant(), day.plusDays(1).atStartOfDay(zone).toInstant(), zone);
+    }
+
+    public Instant getFrom() {
+        return from;
+    }
+
+    public Instant getUntil() {
+        return until;
+    }
+
+    //Number of receipts the report covers
+    public long getReceipts() {
+        return receipts;
+    }
+
+    //Revenue of every sale in the report, in cents
+    public long getRevenueCents() {
+        return revenueCents;
+    }
+
+    //Returns every row, dimension by dimension
+    public List<Row> getRows() {
+        return rows;
+    }
+
+    //Returns the rows of one dimension: "category", "type", "brand", "price band" or "hour"
+    public List<Row> getRows(String dimension) {
+        return rows.stream().filter(row -> row.dimension().equals(dimension)).collect(Collectors.toList());
+    }
+
+    //Writes the report as CSV: a header, then dimension,key,units,revenue per row, revenue in dollars
+    public void writeCsv(Appendable out) throws IOException {
+        out.append("dimension,key,units,revenue\n");
+        for (Row row : rows) {
+            out.append(csv(row.dimension())).append(',').append(csv(row.key())).append(',')
+                    .append(Long.toString(row.units())).append(',').append(Money.format(row.revenueCents())).append('\n');
+        }
+    }
+
+    public void writeCsv(Path file) throws IOException {
+        try (BufferedWriter out = Files.newBufferedWriter(file)) {
+            writeCsv(out);
+        }
+    }
+
+    //Writes the end-of-day report of the receipts in a data directory, for the standard catalog
+    //Arguments: directory [day, e.g. 2026-11-27, default today] [output file, default standard output]
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: SalesReport <data directory> [day] [output.csv]");
+            System.exit(2);
+        }
+        LocalDate day = args.length > 1 ? LocalDate.parse(args[1]) : LocalDate.now();
+        try (ReceiptStore receipts = ReceiptStore.open(Paths.get(args[0]))) {
+            long start = System.nanoTime();
+            SalesReport report = endOfDay(List.of(new Source(ElectronicStore.createStore(), receipts)), day, ZoneId.systemDefault());
+            if (args.length > 2) {
+                report.writeCsv(Paths.get(args[2]));
+            } else {
+                report.writeCsv(System.out);
+            }
+            System.err.printf("%d receipts in %.1f ms%n", report.getReceipts(), (System.nanoTime() - start) / 1e6);
+        }
+    }
+
+    private static String csv(String value) {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0) return value;
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+
+    private static int band(long priceCents) {
+        int band = 0;
+        while (band < PRICE_BANDS_CENTS.length && priceCents >= PRICE_BANDS_CENTS[band]) band++;
+        return band;
+    }
+
+    private static String bandName(int band) {
+        if (band == 0) return "under $" + Money.format(PRICE_BANDS_CENTS[0]);
+        if (band == PRICE_BANDS_CENTS.length) return "$" + Money.format(PRICE_BANDS_CENTS[band - 1]) + " and up";
+        return "$" + Money.format(PRICE_BANDS_CENTS[band - 1]) + " to $" + Money.format(PRICE_BANDS_CENTS[band]);
+    }
+
+    private static String brandOf(Product product) {
+        return product instanceof Appliance appliance ? appliance.getBrand() : NO_BRAND;
+    }
+
+    private static int categoryOf(Product product) {
+        if (product instanceof Computer) return 0;
+        return product instanceof Appliance ? 1 : 2;
+    }
+
+    //Row layout of the report and, per branch, the slots every SKU adds to
+    private static final class Slots {
+        private static final int PER_SKU = 4; //category, type, brand and price band
+        private final List<Source> sources;
+        private final List<String> dimensions = new ArrayList<>();
+        private final List<String> names = new ArrayList<>();
+        private final int firstHour;
+        private final int[][] skuSlots; //Per branch: PER_SKU slots for each SKU
+
+        private Slots(List<Source> initSources) {
+            sources = initSources;
+            //Types and brands of every catalog, in name order so reports compare line by line
+            TreeSet<String> types = sources.parallelStream().flatMap(source -> source.store().getStock().stream())
+                    .map(product -> product.getClass().getSimpleName()).collect(Collectors.toCollection(TreeSet::new));
+            TreeSet<String> brands = sources.parallelStream().flatMap(source -> source.store().getStock().stream())
+                    .map(SalesReport::brandOf).collect(Collectors.toCollection(TreeSet::new));
+            for (String category : CATEGORIES) {
+                add("category", category);
+            }
+            Map<String, Integer> typeSlots = new HashMap<>();
+            for (String type : types) {
+                typeSlots.put(type, add("type", type));
+            }
+            Map<String, Integer> brandSlots = new HashMap<>();
+            for (String brand : brands) {
+                brandSlots.put(brand, add("brand", brand));
+            }
+            int firstBand = names.size();
+            for (int band = 0; band <= PRICE_BANDS_CENTS.length; band++) {
+                add("price band", bandName(band));
+            }
+            firstHour = names.size();
+            for (int hour = 0; hour < 24; hour++) {
+                add("hour", String.format("%02d:00", hour));
+            }
+            skuSlots = new int[sources.size()][];
+            IntStream.range(0, sources.size()).parallel().forEach(i -> {
+                List<Product> stock = sources.get(i).store().getStock();
+                int[] mapped = new int[stock.size() * PER_SKU];
+                for (int sku = 0; sku < stock.size(); sku++) {
+                    Product product = stock.get(sku);
+                    mapped[sku * PER_SKU] = categoryOf(product);
+                    mapped[sku * PER_SKU + 1] = typeSlots.get(product.getClass().getSimpleName());
+                    mapped[sku * PER_SKU + 2] = brandSlots.get(brandOf(product));
+                    mapped[sku * PER_SKU + 3] = firstBand + band(product.getPriceCents());
+                }
+                skuSlots[i] = mapped;
+            });
+        }
+
+        private int add(String dimension, String name) {
+            dimensions.add(dimension);
+            names.add(name);
+            return names.size() - 1;
+        }
+    }
+
+    //Partial sums of a report
+    private static final class Tally {
+        private final long[] units;
+        private final long[] revenueCents;
+        private long receipts;
+        private long revenue;
+
+        private Tally(int slotCount) {
+            units = new long[slotCount];
+            revenueCents = new long[slotCount];
+        }
+
+        private void addLine(int[] skuSlots, int sku, long quantity, long cents) {
+            if (sku < 0 || (sku + 1) * Slots.PER_SKU > skuSlots.length) return;
+            for (int i = sku * Slots.PER_SKU; i < (sku + 1) * Slots.PER_SKU; i++) {
+                units[skuSlots[i]] += quantity;
+                revenueCents[skuSlots[i]] += cents;
+            }
+        }
+
+        private void add(Tally other) {
+            for (int slot = 0; slot < units.length; slot++) {
+                units[slot] += other.units[slot];
+                revenueCents[slot] += other.revenueCents[slot];
+            }
+            receipts += other.receipts;
+            revenue += other.revenue;
+        }
+    }
+
+    //Tallies receipts [first, end) of a branch, or its SKUs [first, end) when rules is null
+    private static final class Task extends RecursiveTask<Tally> {
+        private final Slots slots;
+        private final int source;
+        private final ZoneRules rules;
+        private final long first;
+        private final long end;
+
+        private Task(Slots initSlots, int initSource, ZoneRules initRules, long initFirst, long initEnd) {
+            slots = initSlots;
+            source = initSource;
+            rules = initRules;
+            first = initFirst;
+            end = initEnd;
+        }
+
+        @Override
+        protected Tally compute() {
+            long size = end - first;
+            if (size > (rules != null ? RECEIPTS_PER_TASK : SKUS_PER_TASK)) {
+                long middle = first + size / 2;
+                Task right = new Task(slots, source, rules, middle, end);
+                right.fork();
+                Tally tally = new Task(slots, source, rules, first, middle).compute();
+                tally.add(right.join());
+                return tally;
+            }
+            Tally tally = new Tally(slots.names.size());
+            if (rules != null) {
+                tallyReceipts(tally);
+            } else {
+                tallyInventory(tally);
+            }
+            return tally;
+        }
+
+        private void tallyReceipts(Tally tally) {
+            int[] skuSlots = slots.skuSlots[source];
+            //Receipts come in time order, so the zone offset only has to be looked up again at a transition
+            long[] offset = {0, Long.MIN_VALUE, Long.MIN_VALUE}; //offset, valid from, valid until
+            slots.sources.get(source).receipts().forEach(first, end, receipt -> {
+                long millis = receipt.timeMillis();
+                if (millis < offset[1] || millis >= offset[2]) {
+                    Instant instant = Instant.ofEpochMilli(millis);
+                    offset[0] = rules.getOffset(instant).getTotalSeconds() * 1000L;
+                    ZoneOffsetTransition previous = rules.previousTransition(instant.plusMillis(1));
+                    ZoneOffsetTransition next = rules.nextTransition(instant);
+                    offset[1] = previous != null ? previous.toEpochSecond() * 1000 : Long.MIN_VALUE;
+                    offset[2] = next != null ? next.toEpochSecond() * 1000 : Long.MAX_VALUE;
+                }
+                int hour = (int) Math.floorMod(Math.floorDiv(millis + offset[0], MILLIS_PER_HOUR), 24L);
+                long[] net = receipt.lineNetCents();
+                int units = 0;
+                for (int i = 0; i < net.length; i++) {
+                    Receipt.Line line = receipt.lines().get(i);
+                    tally.addLine(skuSlots, line.sku(), line.quantity(), net[i]);
+                    units += line.quantity();
+                }
+                long total = receipt.totalCents();
+                tally.units[slots.firstHour + hour] += units;
+                tally.revenueCents[slots.firstHour + hour] += total;
+                tally.receipts++;
+                tally.revenue += total;
+            });
+        }
+
+        private void tallyInventory(Tally tally) {
+            int[] skuSlots = slots.skuSlots[source];
+            ElectronicStore store = slots.sources.get(source).store();
+            for (int sku = (int) first; sku < end; sku++) {
+                Product product = store.getProduct(sku);
+                long sold = product.getSoldQuantity();
+                if (sold == 0) continue;
+                long cents = Money.times(product.getPriceCents(), sold);
+                tally.addLine(skuSlots, sku, sold, cents);
+                tally.revenue += cents;
+            }
+        }
+    }
+}
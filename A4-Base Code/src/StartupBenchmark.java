@@ -0,0 +1,136 @@
+//Startup-time benchmark: how long after the JVM starts the store is ready to show
+//Every run is a fresh JVM started with the same java binary, class path and JVM options as this one,
+//so running the benchmark with -XX:SharedArchiveFile=... measures the CDS archive too. A run builds
+//the model the way ElectronicStoreApp does (catalog or store image, sales journal, receipts, history
+//and replenisher) and formats the first page of the product list; with --ui it launches the app itself
+//and times its first laid-out frame instead. Every run gets an empty data directory.
+//
+//  java StartupBenchmark [--runs 10] [--image store.img] [--ui]
+
+import javafx.application.Application;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+public class StartupBenchmark {
+    private static final String CHILD = "--child"; //Argument that makes a JVM time its own startup
+    private static final String RESULT = "startup "; //Prefix of the line a child reports its time on
+    private static final int FIRST_PAGE = 20; //Rows of the product list on screen at startup
+
+    //Method to build the model like the app does and return the milliseconds since the JVM started
+    private static long startModel(String image, Path data) throws IOException {
+        MappedInventory mapped = image != null ? MappedInventory.openImage(Paths.get(image)) : null;
+        StoreEngine engine = new StoreEngine(mapped != null
+                ? () -> mapped.toStore(ElectronicStore.DEFAULT_NAME) : ElectronicStore::createStore, Duration.ofMinutes(15));
+        try {
+            engine.openJournal(data, 10_000);
+            engine.openReceipts(data);
+            ElectronicStore store = engine.getStore();
+            SalesHistory history = new SalesHistory(store.getCurProducts());
+            engine.setHistory(history);
+            engine.setReplenisher(new Replenisher(store, 2, 10));
+            List<Product> stock = store.getStock();
+            StringBuilder page = new StringBuilder();
+            for (int sku = 0; sku < Math.min(FIRST_PAGE, stock.size()); sku++) {
+                page.append(stock.get(sku)).append('\n');
+            }
+            return System.currentTimeMillis() - ManagementFactory.getRuntimeMXBean().getStartTime();
+        } finally {
+            engine.close();
+            if (mapped != null) mapped.close();
+        }
+    }
+
+    //Method to start one JVM and return the startup time it reported
+    private static long run(List<String> jvm, String image, boolean ui) throws IOException, InterruptedException {
+        Path data = Files.createTempDirectory("store-startup");
+        try {
+            List<String> command = new ArrayList<>(jvm);
+            command.add("-Dstore.data=" + data);
+            if (image != null) command.add("-Dstore.image=" + image);
+            if (ui) command.add("-Dstore.exitAfterFirstFrame=true");
+            command.addAll(List.of(StartupBenchmark.class.getName(), CHILD, ui ? "ui" : "model"));
+            Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+            long millis = -1;
+            try (BufferedReader output = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+                for (String line = output.readLine(); line != null; line = output.readLine()) {
+                    if (line.startsWith(RESULT)) {
+                        millis = Long.parseLong(line.substring(RESULT.length()).trim());
+                    } else if (line.startsWith("first frame ")) {
+                        millis = Long.parseLong(line.replaceAll("\\D", ""));
+                    } else {
+                        System.out.println("  " + line);
+                    }
+                }
+            }
+            if (process.waitFor() != 0 || millis < 0) {
+                throw new IOException("Startup run failed with exit code " + process.exitValue());
+            }
+            return millis;
+        } finally {
+            try (Stream<Path> files = Files.walk(data)) {
+                for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                    Files.delete(file);
+                }
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 2 && args[0].equals(CHILD)) {
+            if (args[1].equals("ui")) {
+                //The app prints its first frame time and exits (see store.exitAfterFirstFrame)
+                Application.launch(ElectronicStoreApp.class);
+            } else {
+                System.out.println(RESULT + startModel(System.getProperty("store.image"),
+                        Paths.get(System.getProperty("store.data"))));
+            }
+            return;
+        }
+
+        int runs = 10;
+        String image = null;
+        boolean ui = false;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--runs" -> runs = Integer.parseInt(args[++i]);
+                case "--image" -> image = Paths.get(args[++i]).toAbsolutePath().toString();
+                case "--ui" -> ui = true;
+                default -> throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+
+        List<String> jvm = new ArrayList<>();
+        jvm.add(ProcessHandle.current().info().command().orElse(Paths.get(System.getProperty("java.home"), "bin", "java").toString()));
+        for (String option : ManagementFactory.getRuntimeMXBean().getInputArguments()) {
+            //Agents and debuggers would attach to every run; store settings are chosen per run
+            if (!option.startsWith("-agentlib") && !option.startsWith("-javaagent") && !option.startsWith("-Dstore.")) {
+                jvm.add(option);
+            }
+        }
+        jvm.add("-cp");
+        jvm.add(System.getProperty("java.class.path"));
+
+        System.out.println("Timing " + runs + " " + (ui ? "first frames" : "model startups")
+                + (image != null ? " from " + image : " of the sample catalog"));
+        long[] millis = new long[runs];
+        for (int i = 0; i < runs; i++) {
+            millis[i] = run(jvm, image, ui);
+            System.out.println("run " + (i + 1) + ": " + millis[i] + " ms");
+        }
+        Arrays.sort(millis);
+        System.out.printf("startup min %d ms, median %d ms, max %d ms%n", millis[0], millis[runs / 2], millis[runs - 1]);
+    }
+}
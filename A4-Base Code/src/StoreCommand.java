@@ -0,0 +1,32 @@
+//Commands accepted by a StoreEngine, one per action a terminal can take
+public sealed interface StoreCommand {
+    //Reserve one unit of the product with the given SKU in the cart
+    record AddToCart(int sku) implements StoreCommand {
+    }
+
+    //Hand one unit of the product with the given SKU back from the cart
+    record RemoveFromCart(int sku) implements StoreCommand {
+    }
+
+    //Check the cart out
+    record Punch() implements StoreCommand {
+    }
+
+    //Drop the cart, all sales and the journaled history and start from the initial catalog
+    record Reset() implements StoreCommand {
+    }
+
+    //Receive a supplier's delivery into stock
+    record Receive(PurchaseOrder delivery) implements StoreCommand {
+    }
+
+    //Take back quantity units of the product with the given SKU sold on the given receipt,
+    //refunding what was paid for them
+    record ReturnUnits(long receipt, int sku, int quantity) implements StoreCommand {
+    }
+
+    //Drop the cart and go back to the state right after the given checkout, as numbered by the
+    //store's checkout count (0 is the state before the first one); every later sale is discarded
+    record Rewind(long checkout) implements StoreCommand {
+    }
+}
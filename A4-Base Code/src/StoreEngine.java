@@ -0,0 +1,390 @@
+//Headless store engine: the whole sales flow of a checkout terminal without any UI
+//Commands are executed one at a time or in batches and each one produces a Result.
+//The engine owns the store, the cart, the optional sales journal and every running total
+//(sales, revenue, cart value); user interfaces render those and subscribe to the engine's events.
+//The totals are published as an immutable Summary after every command, so reading them never
+//waits for a command to finish
+//A StoreTimeline logs every change to the store, so a reset or a rewind to an earlier checkout
+//restores a snapshot into the same store instead of building the catalog again.
+//With a ReceiptStore open, every checkout also writes a receipt, and units can be returned against
+//one; receipts are the record of what was sold and outlive resets and rewinds. A reset or a rewind
+//voids the receipts of the checkouts it undoes, so their units cannot be returned a second time
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Supplier;
+
+public class StoreEngine implements AutoCloseable {
+    private static final System.Logger LOG = System.getLogger(StoreEngine.class.getName());
+    private static final int TIMELINE_SNAPSHOT_EVERY = 4096; //Events between timeline snapshots
+
+    private final Duration cartTtl;
+    private final List<StoreEngineListener> listeners;
+    private final ElectronicStore store;
+    private final InventorySnapshot initialState; //The catalog as built, which a reset goes back to
+    private final StoreTimeline timeline;
+    private final Cart cart;
+    private CartSweeper sweeper;
+    private SalesJournal journal;
+    private ReceiptStore receipts;
+    private long firstLiveReceipt; //Receipts before this one are not affected by a rewind
+    private long[] receiptCheckouts; //Checkout number of each receipt written since the last reset or open
+    private long[] receiptNumbers;
+    private int receiptCount;
+    private SalesHistory history;
+    private Replenisher replenisher;
+    private int snapshotEvery;
+    private volatile Summary summary; //Totals as of the end of the last command, replaced under the engine lock
+
+    public StoreEngine(Supplier<ElectronicStore> initCatalog, Duration initCartTtl) {
+        cartTtl = initCartTtl;
+        listeners = new CopyOnWriteArrayList<>();
+        store = initCatalog.get();
+        initialState = InventorySnapshot.of(store);
+        timeline = new StoreTimeline(initialState, TIMELINE_SNAPSHOT_EVERY);
+        store.addInventoryListener(timeline);
+        cart = createCart(store);
+        receiptCheckouts = new long[16];
+        receiptNumbers = new long[16];
+        summarize();
+    }
+
+    //Restores the store from the journal in the given directory and journals every sale from now on
+    //Must be called before the first command
+    public synchronized void openJournal(Path directory, int initSnapshotEvery) throws IOException {
+        if (journal != null) throw new IllegalStateException("Journal already open");
+        journal = SalesJournal.open(directory, store, initSnapshotEvery);
+        snapshotEvery = initSnapshotEvery;
+        //The recovered state is where the timeline starts; checkouts before it cannot be gone back to
+        timeline.restart(InventorySnapshot.of(store));
+        summarize();
+    }
+
+    //Writes a receipt for every checkout from now on to the receipt store in the given directory
+    //Without a journal the store starts from the catalog every time, so none of the sales on the
+    //receipts already in the store are in it any more and those receipts are voided
+    public synchronized void openReceipts(Path directory) throws IOException {
+        if (receipts != null) throw new IllegalStateException("Receipts already open");
+        ReceiptStore opened = ReceiptStore.open(directory);
+        if (journal == null) {
+            try {
+                opened.voidFrom(1);
+            } catch (UncheckedIOException e) {
+                opened.close();
+                throw e.getCause();
+            }
+        }
+        receipts = opened;
+        firstLiveReceipt = receipts.size() + 1;
+    }
+
+    //Returns the receipt store, or null if none is open
+    public synchronized ReceiptStore getReceipts() {
+        return receipts;
+    }
+
+    //Measures the store's sales and latencies with the given metrics
+    public synchronized void setMetrics(SalesMetrics newMetrics) {
+        store.setMetrics(newMetrics);
+    }
+
+    //Prices carts with the given promotions from now on, compiled once against the catalog
+    public synchronized void setPromotions(List<Promotion> promotions) {
+        store.setPromotions(promotions.isEmpty() ? null : PromotionTable.compile(promotions, store));
+        summarize();
+    }
+
+    //Takes deliveries received with the Receive command off the replenisher's units on order
+    public synchronized void setReplenisher(Replenisher newReplenisher) {
+        replenisher = newReplenisher;
+    }
+
+    //Keeps the given sales history up to date; the history outlives resets and rewinds
+    public synchronized void setHistory(SalesHistory newHistory) {
+        if (history != null) store.removeInventoryListener(history);
+        history = newHistory;
+        if (newHistory != null) store.addInventoryListener(newHistory);
+    }
+
+    //Starts releasing cart lines whose time-to-live has passed
+    public synchronized void startSweeping(Duration interval) {
+        if (sweeper != null) throw new IllegalStateException("Already sweeping");
+        sweeper = new CartSweeper(interval);
+        sweeper.register(cart);
+    }
+
+    public void addListener(StoreEngineListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(StoreEngineListener listener) {
+        listeners.remove(listener);
+    }
+
+    //Runs one command and returns its result
+    public Result execute(StoreCommand command) {
+        Result result;
+        synchronized (this) {
+            result = apply(command);
+            summarize();
+        }
+        publish(List.of(result));
+        return result;
+    }
+
+    //Runs the commands in order as one batch and returns their results
+    //Listeners are told about the whole batch at once
+    public List<Result> executeAll(List<? extends StoreCommand> commands) {
+        List<Result> results = new ArrayList<>(commands.size());
+        synchronized (this) {
+            for (StoreCommand command : commands) {
+                results.add(apply(command));
+            }
+            summarize();
+        }
+        publish(results);
+        return results;
+    }
+
+    public ElectronicStore getStore() {
+        return store;
+    }
+
+    public Cart getCart() {
+        return cart;
+    }
+
+    //Returns the log of every change to the store, for point-in-time inventory and what-if replays
+    //Reading it does not hold up the engine
+    public StoreTimeline getTimeline() {
+        return timeline;
+    }
+
+    //Returns the running totals as of the end of the last command, all taken at the same moment
+    //Reading them does not hold up the engine
+    public Summary getSummary() {
+        return summary;
+    }
+
+    //Number of completed checkouts
+    public long getSales() {
+        return summary.sales();
+    }
+
+    public long getRevenueCents() {
+        return summary.revenueCents();
+    }
+
+    //Average revenue per checkout in cents, or -1 before the first checkout
+    public long getRevenuePerSaleCents() {
+        return summary.revenuePerSaleCents();
+    }
+
+    public long getCartTotalCents() {
+        return summary.cartTotalCents();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (sweeper != null) sweeper.shutdown();
+        try {
+            if (journal != null) journal.close();
+        } finally {
+            if (receipts != null) receipts.close();
+        }
+    }
+
+    private Result apply(StoreCommand command) {
+        return switch (command) {
+            case StoreCommand.AddToCart add -> changeCart(command, add.sku(), true);
+            case StoreCommand.RemoveFromCart remove -> changeCart(command, remove.sku(), false);
+            case StoreCommand.Punch punch -> punch(command);
+            case StoreCommand.Reset reset -> reset(command);
+            case StoreCommand.Receive receive -> receive(command, receive.delivery());
+            case StoreCommand.Rewind rewind -> rewind(command, rewind.checkout());
+            case StoreCommand.ReturnUnits returned -> returnUnits(command, returned);
+        };
+    }
+
+    private Result changeCart(StoreCommand command, int sku, boolean add) {
+        Product product = store.getProduct(sku);
+        if (product == null) return Result.rejected(command);
+        int index = add ? cart.add(product) : cart.remove(product);
+        if (index < 0) return Result.rejected(command);
+        return new Result(command, true, product, index, cart.getLine(product), product.getPriceCents());
+    }
+
+    private Result punch(StoreCommand command) {
+        if (cart.isEmpty()) return Result.rejected(command);
+        //A sale the journal can no longer make durable would be lost on the next restart
+        if (journal != null && journal.hasFailed()) {
+            LOG.log(System.Logger.Level.ERROR, "Checkout refused, the sales journal has failed");
+            return Result.rejected(command);
+        }
+        long total;
+        if (receipts != null) {
+            Receipt receipt;
+            try {
+                receipt = cart.checkout(receipts);
+            } catch (UncheckedIOException | IllegalStateException e) {
+                //The cart took the sale back, so the checkout is refused like an empty one
+                LOG.log(System.Logger.Level.ERROR, "Checkout refused, its receipt could not be written", e);
+                return Result.rejected(command);
+            }
+            total = receipt != null ? receipt.totalCents() : -1;
+            if (receipt != null) addReceipt(store.getCheckouts(), receipt.number());
+        } else {
+            total = cart.checkout();
+        }
+        //Nothing was sold if every reservation was gone
+        if (total < 0) return Result.rejected(command);
+        if (journal != null) {
+            try {
+                journal.snapshotIfDue();
+            } catch (UncheckedIOException e) {
+                //The sale stands; the next checkout is refused
+                LOG.log(System.Logger.Level.ERROR, "The sales journal failed", e);
+            }
+        }
+        return new Result(command, true, null, -1, null, total);
+    }
+
+    private Result reset(StoreCommand command) {
+        //Every sale is undone, so is every receipt; if that cannot be recorded the reset does not happen
+        if (!voidReceiptsFrom(1)) return Result.rejected(command);
+        firstLiveReceipt = receipts != null ? receipts.size() + 1 : 0;
+        receiptCount = 0;
+        cart.clear();
+        initialState.restore(store);
+        if (journal != null) journal.reset(store);
+        timeline.restart(initialState);
+        return new Result(command, true, null, -1, null, 0);
+    }
+
+    private Result receive(StoreCommand command, PurchaseOrder delivery) {
+        int received;
+        if (replenisher != null) {
+            received = replenisher.receive(delivery);
+        } else {
+            received = 0;
+            for (PurchaseOrder.Line line : delivery.lines()) {
+                if (line.product().receiveUnits(line.quantity())) received += line.quantity();
+            }
+        }
+        return received > 0 ? new Result(command, true, null, -1, null, 0) : Result.rejected(command);
+    }
+
+    private Result returnUnits(StoreCommand command, StoreCommand.ReturnUnits returned) {
+        Product product = store.getProduct(returned.sku());
+        if (receipts == null || product == null || returned.quantity() <= 0
+                || receipts.getReturnable(returned.receipt(), returned.sku()) < returned.quantity()) {
+            return Result.rejected(command);
+        }
+        //A rewind may have discarded the sale the receipt records
+        if (product.undoSellOperation(returned.quantity()) == 0) return Result.rejected(command);
+        Receipt.Return refund;
+        try {
+            refund = receipts.recordReturn(returned.receipt(), returned.sku(), returned.quantity());
+        } catch (UncheckedIOException e) {
+            //Without a record of the return the units stay sold and nothing is refunded
+            product.sellUnits(returned.quantity());
+            LOG.log(System.Logger.Level.ERROR, "Return refused, it could not be recorded", e);
+            return Result.rejected(command);
+        }
+        store.recordRefund(refund.refundCents());
+        return new Result(command, true, product, -1, null, refund.refundCents());
+    }
+
+    private Result rewind(StoreCommand command, long checkout) {
+        if (checkout < timeline.getFirstCheckout() || checkout > store.getCheckouts()) return Result.rejected(command);
+        //The timeline may have compacted the checkout away since it was checked
+        InventorySnapshot state = timeline.rewindToCheckout(checkout);
+        if (state == null) return Result.rejected(command);
+        //The receipts of the checkouts after the one rewound to are undone with them
+        int kept = receiptCount;
+        while (kept > 0 && receiptCheckouts[kept - 1] > checkout) {
+            kept--;
+        }
+        if (!voidReceiptsFrom(kept > 0 ? receiptNumbers[kept - 1] + 1 : firstLiveReceipt)) return Result.rejected(command);
+        receiptCount = kept;
+        cart.clear();
+        state.restore(store);
+        //The restored quantities were never journaled as changes, so the journal starts over from them
+        if (journal != null) journal.rebase(store);
+        return new Result(command, true, null, -1, null, 0);
+    }
+
+    //Remembers which checkout wrote the receipt, so a rewind knows which receipts it undoes
+    private void addReceipt(long checkout, long number) {
+        if (receiptCount == receiptNumbers.length) {
+            receiptCheckouts = Arrays.copyOf(receiptCheckouts, receiptCount * 2);
+            receiptNumbers = Arrays.copyOf(receiptNumbers, receiptCount * 2);
+        }
+        receiptCheckouts[receiptCount] = checkout;
+        receiptNumbers[receiptCount++] = number;
+    }
+
+    //Voids the receipts from the given number on and returns true, or returns false if that could not be recorded
+    private boolean voidReceiptsFrom(long first) {
+        if (receipts == null) return true;
+        try {
+            receipts.voidFrom(first);
+            return true;
+        } catch (UncheckedIOException e) {
+            LOG.log(System.Logger.Level.ERROR, "Could not void the receipts of undone checkouts", e);
+            return false;
+        }
+    }
+
+    private Cart createCart(ElectronicStore model) {
+        Cart created = new Cart(model, cartTtl);
+        created.setOnExpired(expired -> {
+            //Called on the sweeper thread without the cart's lock, so the engine's can be taken
+            synchronized (this) {
+                summarize();
+            }
+            for (StoreEngineListener listener : listeners) {
+                listener.cartLinesExpired(this, expired);
+            }
+        });
+        if (sweeper != null) sweeper.register(created);
+        return created;
+    }
+
+    //Replaces the summary with the current totals; called with the engine's lock held, so summaries
+    //are published in the order the commands ran
+    private void summarize() {
+        summary = new Summary(store.getCheckouts(), store.getRevenueCents(), cart.getTotalCents());
+    }
+
+    private void publish(List<Result> results) {
+        for (StoreEngineListener listener : listeners) {
+            listener.commandsExecuted(this, results);
+        }
+    }
+
+    //Outcome of one command
+    //For cart commands: the product, the position of its line and the line after the change
+    //(null once the line is gone). amountCents is the unit price for cart commands and the
+    //checkout total for Punch and the refund for ReturnUnits
+    public record Result(StoreCommand command, boolean accepted, Product product, int lineIndex, Cart.Line line,
+                         long amountCents) {
+        static Result rejected(StoreCommand command) {
+            return new Result(command, false, null, -1, null, 0);
+        }
+    }
+
+    //Completed checkouts, revenue and cart value at one moment, in cents
+    public record Summary(long sales, long revenueCents, long cartTotalCents) {
+        //Average revenue per checkout in cents, or -1 before the first checkout
+        public long revenuePerSaleCents() {
+            return sales != 0 ? Math.round((double) revenueCents / sales) : -1;
+        }
+    }
+}
@@ -0,0 +1,12 @@
+import java.util.List;
+
+//Receives what a StoreEngine did
+//Called on the thread that ran the commands, or on the sweeper thread for expired cart lines
+public interface StoreEngineListener {
+    //Called once per execute or executeAll call with the results in command order
+    void commandsExecuted(StoreEngine engine, List<StoreEngine.Result> results);
+
+    //Called after cart lines were released because their time-to-live passed
+    default void cartLinesExpired(StoreEngine engine, List<Product> products) {
+    }
+}
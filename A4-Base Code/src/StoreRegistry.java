@@ -0,0 +1,205 @@
+//Registry of a chain's branches, each branch being its own ElectronicStore
+//A branch's catalog, quantities and revenue belong to that branch alone, so sales at different
+//branches never touch shared state and scale with the number of cores. The registry itself is
+//fixed once built and read without locks.
+//Branches are partitioned into shards, one per core by default; chain-wide questions (revenue,
+//top sellers, stock of a product across branches) are answered by reducing every shard in
+//parallel and combining the partial results.
+//Every branch carries the same catalog (checked by its catalog id), so a product is the same SKU at
+//every branch and is matched across branches by SKU rather than by its display name
+
+import lombok.Getter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.stream.IntStream;
+
+public class StoreRegistry {
+    private final List<ElectronicStore> branches; //Indexed by branch id
+    private final Map<String, Integer> branchIds; //Branch name to branch id
+    @Getter
+    private final int shardCount;
+
+    public StoreRegistry(List<ElectronicStore> initBranches, int initShardCount) {
+        if (initShardCount < 1) throw new IllegalArgumentException("Shard count must be positive");
+        branches = List.copyOf(initBranches);
+        shardCount = Math.min(initShardCount, Math.max(1, branches.size()));
+        Map<String, Integer> ids = new HashMap<>();
+        int catalogId = branches.isEmpty() ? 0 : branches.get(0).getCatalogId();
+        for (int id = 0; id < branches.size(); id++) {
+            if (ids.putIfAbsent(branches.get(id).getName(), id) != null) {
+                throw new IllegalArgumentException("Duplicate branch name: " + branches.get(id).getName());
+            }
+            if (branches.get(id).getCatalogId() != catalogId) {
+                throw new IllegalArgumentException("Branch " + branches.get(id).getName() + " does not carry the chain's catalog");
+            }
+        }
+        branchIds = Collections.unmodifiableMap(ids);
+    }
+
+    public StoreRegistry(List<ElectronicStore> initBranches) {
+        this(initBranches, Runtime.getRuntime().availableProcessors());
+    }
+
+    //Creates a chain of branches that each start with the standard catalog
+    public static StoreRegistry createChain(String chainName, int branchCount) {
+        List<ElectronicStore> created = new ArrayList<>(branchCount);
+        for (int i = 1; i <= branchCount; i++) {
+            created.add(ElectronicStore.createStore(chainName + " #" + i));
+        }
+        return new StoreRegistry(created);
+    }
+
+    public int getBranchCount() {
+        return branches.size();
+    }
+
+    //Returns the branch with the given id, or null if there is none
+    public ElectronicStore getBranch(int id) {
+        return id >= 0 && id < branches.size() ? branches.get(id) : null;
+    }
+
+    //Returns the branch with the given name, or null if there is none
+    public ElectronicStore getBranch(String name) {
+        Integer id = branchIds.get(name);
+        return id != null ? branches.get(id) : null;
+    }
+
+    //Returns the shard a branch belongs to
+    public int shardOf(int branchId) {
+        return branchId % shardCount;
+    }
+
+    //Returns the SKU the chain's catalog has the product with the given display name under, or -1
+    //Throws IllegalArgumentException if several products have that name
+    public int skuOf(String productName) {
+        Product product = branches.isEmpty() ? null : branches.get(0).getProduct(productName);
+        return product != null ? product.getSku() : -1;
+    }
+
+    //Moves amount units of a product from one branch's stock to another's
+    //Units leave the source first, so they can never be counted twice; if the destination cannot
+    //take them (stock full) they go back to the source.
+    //Returns false, with both branches unchanged, if the transfer could not happen
+    public boolean transfer(int sku, int fromBranch, int toBranch, int amount) {
+        ElectronicStore from = getBranch(fromBranch);
+        ElectronicStore to = getBranch(toBranch);
+        if (from == null || to == null || from == to) return false;
+        Product source = from.getProduct(sku);
+        Product destination = to.getProduct(sku);
+        if (source == null || destination == null) return false;
+        if (!source.withdrawUnits(amount)) return false;
+        if (destination.receiveUnits(amount)) return true;
+        // Returning the units only fails if deliveries filled the source to MAX_QUANTITY meanwhile
+        if (!source.receiveUnits(amount)) {
+            throw new IllegalStateException("Could not return " + amount + " units of SKU " + sku);
+        }
+        return false;
+    }
+
+    //Returns the stock of a product at every branch, indexed by branch id (0 if there is no such SKU)
+    public int[] stockByBranch(int sku) {
+        int[] stock = new int[branches.size()];
+        IntStream.range(0, shardCount).parallel().forEach(shard -> {
+            for (int id = shard; id < branches.size(); id += shardCount) {
+                InventoryColumns columns = branches.get(id).getColumns();
+                if (sku >= 0 && sku < columns.size()) stock[id] = columns.stockAt(sku);
+            }
+        });
+        return stock;
+    }
+
+    //Returns the ids of branches with at least minimum units of a product in stock
+    public List<Integer> branchesWithStock(int sku, int minimum) {
+        int[] stock = stockByBranch(sku);
+        List<Integer> ids = new ArrayList<>();
+        for (int id = 0; id < stock.length; id++) {
+            if (stock[id] >= minimum) ids.add(id);
+        }
+        return ids;
+    }
+
+    //Returns the units of a product in stock across the chain
+    public long totalStock(int sku) {
+        return IntStream.range(0, shardCount).parallel().mapToLong(shard -> {
+            long sum = 0;
+            for (int id = shard; id < branches.size(); id += shardCount) {
+                InventoryColumns columns = branches.get(id).getColumns();
+                if (sku >= 0 && sku < columns.size()) sum += columns.stockAt(sku);
+            }
+            return sum;
+        }).sum();
+    }
+
+    //Returns the chain's revenue in cents
+    public long getRevenueCents() {
+        return IntStream.range(0, shardCount).parallel().mapToLong(shard -> {
+            long sum = 0;
+            for (int id = shard; id < branches.size(); id += shardCount) {
+                sum += branches.get(id).getRevenueCents();
+            }
+            return sum;
+        }).sum();
+    }
+
+    //Returns the number of checkouts across the chain
+    public long getCheckouts() {
+        return IntStream.range(0, shardCount).parallel().mapToLong(shard -> {
+            long sum = 0;
+            for (int id = shard; id < branches.size(); id += shardCount) {
+                sum += branches.get(id).getCheckouts();
+            }
+            return sum;
+        }).sum();
+    }
+
+    //Returns the k products with the most units sold across the chain, best first
+    //Each shard sums units sold per SKU over its branches' columns; the shard totals are then added up
+    public List<ChainSeller> topSellers(int k) {
+        if (branches.isEmpty() || k <= 0) return List.of();
+        long[] sold = IntStream.range(0, shardCount).parallel()
+                .mapToObj(this::soldBySku)
+                .reduce(StoreRegistry::merge)
+                .orElseThrow();
+        PriorityQueue<ChainSeller> best = new PriorityQueue<>(
+                (a, b) -> Long.compare(a.unitsSold(), b.unitsSold()));
+        ElectronicStore catalog = branches.get(0);
+        for (int sku = 0; sku < sold.length; sku++) {
+            if (sold[sku] == 0) continue;
+            if (best.size() == k && sold[sku] <= best.peek().unitsSold()) continue;
+            best.add(new ChainSeller(sku, catalog.getProduct(sku).toString(), sold[sku]));
+            if (best.size() > k) best.poll();
+        }
+        List<ChainSeller> result = new ArrayList<>(best);
+        result.sort((a, b) -> Long.compare(b.unitsSold(), a.unitsSold()));
+        return result;
+    }
+
+    private long[] soldBySku(int shard) {
+        long[] sold = new long[branches.get(0).getCurProducts()];
+        for (int id = shard; id < branches.size(); id += shardCount) {
+            InventoryColumns columns = branches.get(id).getColumns();
+            int count = Math.min(sold.length, columns.size());
+            for (int sku = 0; sku < count; sku++) {
+                sold[sku] += columns.soldAt(sku);
+            }
+        }
+        return sold;
+    }
+
+    //Adds b into a and returns a
+    private static long[] merge(long[] a, long[] b) {
+        for (int sku = 0; sku < a.length; sku++) {
+            a[sku] += b[sku];
+        }
+        return a;
+    }
+
+    //A product, by its SKU in the chain's catalog and its display name, and the units of it sold across the chain
+    public record ChainSeller(int sku, String productName, long unitsSold) {
+    }
+}
@@ -0,0 +1,555 @@
+//Event-sourced history of a store's inventory
+//The timeline listens to the store and appends every sale, return, checkout, refund, delivery and
+//withdrawal to an in-memory log that is never changed once written. Appending takes a sequence number
+//with a single compare-and-set on the log's tail and writes the event into its slot, so checkout
+//terminals never wait on each other or on readers. The running state is brought up to date with the
+//published events in sequence order, under the lock, by whichever appender crosses a snapshot boundary
+//or by the next reader. Every snapshotEvery events that state is frozen into an InventorySnapshot;
+//snapshots share unchanged pages, so one costs a pass over the page table plus the pages written since
+//the previous one.
+//Any earlier state is the nearest snapshot before it plus at most snapshotEvery replayed events,
+//which makes going back to an earlier checkout, point-in-time audits and what-if replays cost
+//O(snapshot) instead of a rebuild of the whole catalog. Reads copy what they need under the lock and
+//replay outside it, so auditors never hold up the live store.
+//Only the newest retainSnapshots snapshots are kept: older ones are dropped together with the chunks of
+//the log before the oldest one kept, so the timeline's memory stays bounded however long the store runs
+//and only the checkouts since the oldest snapshot can be gone back to.
+//Each event is one long: [type:4][sku:31][amount:21] for quantity changes, [type:4][cents:60] for
+//checkouts and refunds, the cents in two's complement so negative amounts survive; its time is kept in a
+//parallel log. No event is 0, so a slot still holding 0 has not been published yet.
+//A product changes with its own compare-and-set before its event is appended, so two threads selling and
+//returning the same product can log their events in the other order. Events are therefore applied as
+//plain deltas, never refused: once both are applied the state matches the store whatever their order,
+//and a state between them that no store was ever in (stock below 0) cannot be rewound to.
+//Restarting or rewinding starts a new generation of the log with its own tail, so an appender still
+//holding a slot of the old generation writes into the old chunks and never into a slot of the new one.
+//An appender that fails between taking its slot and publishing it marks the slot lost, and catching up
+//to that slot throws instead of waiting for it forever
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+public class StoreTimeline implements InventoryListener {
+    public static final int DEFAULT_RETAINED_SNAPSHOTS = 64;
+
+    private static final VarHandle EVENTS = MethodHandles.arrayElementVarHandle(long[].class);
+    private static final int CHUNK_SHIFT = 16;
+    private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+    private static final int TYPE_SHIFT = 60;
+    private static final int SKU_SHIFT = 21;
+    private static final long VALUE_MASK = (1L << TYPE_SHIFT) - 1;
+
+    private static final long SALE = 1;
+    private static final long RETURN = 2;
+    private static final long CHECKOUT = 3;
+    private static final long RECEIPT = 4;
+    private static final long WITHDRAWAL = 5;
+    private static final long REFUND = 6;
+
+    private final int snapshotEvery;
+    private final int retainSnapshots;
+    private volatile Log log; //Chunks of the event log still kept; replaced, never changed, when a chunk comes or goes
+    private final Object chunkLock; //Held while the chunk list is replaced
+
+    //Guarded by lock
+    private final ReentrantLock lock;
+    private long size; //Number of events applied to head: every event before it is published and final
+    private final List<InventorySnapshot> snapshots; //In sequence order, starting with the oldest kept
+    private long[] checkoutEnds; //Log size right after each checkout since the oldest snapshot kept
+    private int checkoutCount;
+    private long lastMillis; //Time of the last applied event
+    private Scenario head; //Running state after the last applied event
+
+    public StoreTimeline(InventorySnapshot base, int initSnapshotEvery, int initRetainSnapshots) {
+        if (initRetainSnapshots < 1) throw new IllegalArgumentException("At least one snapshot must be kept");
+        snapshotEvery = initSnapshotEvery;
+        retainSnapshots = initRetainSnapshots;
+        chunkLock = new Object();
+        lock = new ReentrantLock();
+        snapshots = new ArrayList<>();
+        restart(base);
+    }
+
+    public StoreTimeline(InventorySnapshot base, int initSnapshotEvery) {
+        this(base, initSnapshotEvery, DEFAULT_RETAINED_SNAPSHOTS);
+    }
+
+    //Forgets the whole log and starts over from the given state, e.g. after a reset
+    //No events may be appended while this runs; one that still is goes to the old log and is dropped
+    public void restart(InventorySnapshot base) {
+        if (base.getSequence() != 0) throw new IllegalArgumentException("A base state has no events before it");
+        lock.lock();
+        try {
+            log = new Log(0, new long[][]{new long[CHUNK_SIZE]}, new long[][]{new long[CHUNK_SIZE]}, new Tail(0));
+            size = 0;
+            snapshots.clear();
+            snapshots.add(base);
+            checkoutEnds = new long[16];
+            checkoutCount = 0;
+            lastMillis = 0;
+            head = new Scenario(base);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void quantitiesChanged(Product product) {
+    }
+
+    @Override
+    public void unitsSold(Product product, int amount) {
+        append(SALE, product.getSku(), amount);
+    }
+
+    @Override
+    public void unitsReturned(Product product, int amount) {
+        append(RETURN, product.getSku(), amount);
+    }
+
+    @Override
+    public void unitsReceived(Product product, int amount) {
+        append(RECEIPT, product.getSku(), amount);
+    }
+
+    @Override
+    public void unitsWithdrawn(Product product, int amount) {
+        append(WITHDRAWAL, product.getSku(), amount);
+    }
+
+    @Override
+    public void checkoutRecorded(long amountCents) {
+        append(CHECKOUT << TYPE_SHIFT | amountCents & VALUE_MASK);
+    }
+
+    @Override
+    public void refundRecorded(long amountCents) {
+        append(REFUND << TYPE_SHIFT | amountCents & VALUE_MASK);
+    }
+
+    //Returns the number of events logged since the base state, including those compacted away
+    public long size() {
+        lock.lock();
+        try {
+            catchUp();
+            return size;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    //Returns the checkout number of the oldest state kept; earlier checkouts cannot be gone back to
+    public long getFirstCheckout() {
+        lock.lock();
+        try {
+            catchUp();
+            return snapshots.get(0).getCheckouts();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    //Returns the state after the last event
+    public InventorySnapshot current() {
+        lock.lock();
+        try {
+            catchUp();
+            return head.snapshot();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    //Returns the state after the first sequence events of the log
+    //Throws IllegalArgumentException if the log does not reach that far or was compacted past it
+    public InventorySnapshot stateAt(long sequence) {
+        InventorySnapshot from;
+        Log events;
+        lock.lock();
+        try {
+            catchUp();
+            if (sequence < snapshots.get(0).getSequence() || sequence > size) {
+                throw new IllegalArgumentException("No event " + sequence + " in a log of " + size
+                        + " kept from " + snapshots.get(0).getSequence());
+            }
+            if (sequence == size) return head.snapshot();
+            from = snapshotBefore(sequence);
+            events = log;
+        } finally {
+            lock.unlock();
+        }
+        return replay(from, events, sequence).snapshot();
+    }
+
+    //Returns the state as it was at the given time: every event logged up to and including it
+    //A time before the oldest state kept gives that state
+    public InventorySnapshot stateAt(Instant time) {
+        long millis = time.toEpochMilli();
+        long sequence;
+        lock.lock();
+        try {
+            catchUp();
+            //Applied times never decrease, so the events up to the time are a prefix of the log
+            Log events = log;
+            long low = snapshots.get(0).getSequence();
+            long high = size;
+            while (low < high) {
+                long middle = (low + high) >>> 1;
+                if (events.timeOf(middle) <= millis) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            sequence = low;
+        } finally {
+            lock.unlock();
+        }
+        return stateAt(sequence);
+    }
+
+    //Returns the state right after the checkout with the given number (as counted by the store),
+    //or null if that checkout is not in the log
+    public InventorySnapshot stateAfterCheckout(long checkout) {
+        long sequence;
+        lock.lock();
+        try {
+            catchUp();
+            sequence = sequenceAfterCheckout(checkout);
+        } finally {
+            lock.unlock();
+        }
+        return sequence >= 0 ? stateAt(sequence) : null;
+    }
+
+    //Starts a what-if copy of the state right after the given checkout, or returns null if that
+    //checkout is not in the log. Changes to the copy never reach the store or the log
+    public Scenario branch(long checkout) {
+        InventorySnapshot state = stateAfterCheckout(checkout);
+        return state != null ? new Scenario(state) : null;
+    }
+
+    //Drops every event after the given checkout and returns the state the log now ends in, or null if
+    //that checkout is not in the log or the state after it is one the store was never in (see above).
+    //Snapshots handed out before stay valid
+    //No events may be appended while this runs; one that still is goes to the old log and is dropped
+    public InventorySnapshot rewindToCheckout(long checkout) {
+        lock.lock();
+        try {
+            catchUp();
+            long sequence = sequenceAfterCheckout(checkout);
+            if (sequence < 0) return null;
+            InventorySnapshot state = stateAt(sequence);
+            if (state.hasNegativeQuantities()) return null;
+            //Copy the chunk the log now ends in, cleared from there on so the slots read as unpublished,
+            //so readers still replaying the old log never see it overwritten
+            synchronized (chunkLock) {
+                Log current = log;
+                int lastChunk = (int) ((sequence >>> CHUNK_SHIFT) - current.firstChunk());
+                long[][] events = Arrays.copyOf(current.events(), lastChunk + 1);
+                long[][] times = Arrays.copyOf(current.times(), lastChunk + 1);
+                int end = (int) sequence & (CHUNK_SIZE - 1);
+                events[lastChunk] = events[lastChunk] != null ? events[lastChunk].clone() : new long[CHUNK_SIZE];
+                times[lastChunk] = times[lastChunk] != null ? times[lastChunk].clone() : new long[CHUNK_SIZE];
+                Arrays.fill(events[lastChunk], end, CHUNK_SIZE, 0);
+                log = new Log(current.firstChunk(), events, times, new Tail(sequence));
+            }
+            size = sequence;
+            lastMillis = state.getTakenAtMillis();
+            snapshots.removeIf(snapshot -> snapshot.getSequence() > sequence);
+            if (snapshots.get(snapshots.size() - 1).getSequence() < sequence) snapshots.add(state);
+            checkoutCount = (int) (checkout - getFirstCheckout());
+            head = new Scenario(state);
+            return state;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    //Log size right after the given checkout, or -1 if it is not in the log
+    private long sequenceAfterCheckout(long checkout) {
+        long index = checkout - snapshots.get(0).getCheckouts();
+        if (index < 0 || index > checkoutCount) return -1;
+        return index == 0 ? snapshots.get(0).getSequence() : checkoutEnds[(int) index - 1];
+    }
+
+    //Newest snapshot taken at or before the given position of the log
+    private InventorySnapshot snapshotBefore(long sequence) {
+        int low = 0;
+        int high = snapshots.size() - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (snapshots.get(middle).getSequence() <= sequence) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return snapshots.get(low);
+    }
+
+    private void append(long type, int sku, int amount) {
+        append(type << TYPE_SHIFT | (long) sku << SKU_SHIFT | amount);
+    }
+
+    //Takes the next sequence number and publishes the event in its slot; only the appender that
+    //completes a snapshot interval tries to bring the running state up to date, and never waits for it
+    private void append(long event) {
+        Log current = log;
+        Tail generation = current.tail();
+        long sequence = generation.getAndIncrement();
+        try {
+            long chunkNumber = sequence >>> CHUNK_SHIFT;
+            int offset = (int) sequence & (CHUNK_SIZE - 1);
+            int index = (int) (chunkNumber - current.firstChunk());
+            if (index >= current.events().length || current.events()[index] == null) {
+                current = addChunk(generation, chunkNumber);
+                //The log was restarted or rewound since the slot was taken; the event went with it
+                if (current == null) return;
+                index = (int) (chunkNumber - current.firstChunk());
+            }
+            current.times()[index][offset] = System.currentTimeMillis();
+            EVENTS.setRelease(current.events()[index], offset, event);
+        } catch (RuntimeException | Error e) {
+            generation.lose(sequence);
+            throw e;
+        }
+        if ((sequence + 1) % snapshotEvery == 0 && lock.tryLock()) {
+            try {
+                catchUp();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    //Returns a chunk list holding the given chunk, adding the chunk if no appender did yet, or null if
+    //the log is no longer of the given generation
+    private Log addChunk(Tail generation, long chunkNumber) {
+        synchronized (chunkLock) {
+            Log current = log;
+            if (current.tail() != generation) return null;
+            int index = (int) (chunkNumber - current.firstChunk());
+            if (index < current.events().length && current.events()[index] != null) return current;
+            int length = Math.max(index + 1, current.events().length);
+            long[][] events = Arrays.copyOf(current.events(), length);
+            long[][] times = Arrays.copyOf(current.times(), length);
+            events[index] = new long[CHUNK_SIZE];
+            times[index] = new long[CHUNK_SIZE];
+            Log added = new Log(current.firstChunk(), events, times, generation);
+            log = added;
+            return added;
+        }
+    }
+
+    //Applies every published event after size to the running state, in sequence order, stopping at
+    //the first slot whose appender has not published yet; takes the snapshots and compacts the log
+    private void catchUp() {
+        Log current = log;
+        while (true) {
+            int index = (int) ((size >>> CHUNK_SHIFT) - current.firstChunk());
+            int offset = (int) size & (CHUNK_SIZE - 1);
+            if (index >= current.events().length || current.events()[index] == null) {
+                if (current == log) return;
+                current = log;
+                continue;
+            }
+            long event = (long) EVENTS.getAcquire(current.events()[index], offset);
+            if (event == 0) {
+                if (current.tail().getLost() == size) throw new IllegalStateException("Timeline event " + size + " was never published");
+                return;
+            }
+            //Appenders racing for the tail may stamp their times out of order; applied times never decrease
+            long millis = Math.max(current.times()[index][offset], lastMillis);
+            current.times()[index][offset] = millis;
+            lastMillis = millis;
+            apply(head, event, millis);
+            size++;
+            if (event >>> TYPE_SHIFT == CHECKOUT) {
+                if (checkoutCount == checkoutEnds.length) checkoutEnds = Arrays.copyOf(checkoutEnds, checkoutCount * 2);
+                checkoutEnds[checkoutCount++] = size;
+            }
+            if (size % snapshotEvery == 0) {
+                snapshots.add(head.snapshot());
+                if (snapshots.size() > retainSnapshots) compact();
+                current = log;
+            }
+        }
+    }
+
+    //Drops the oldest snapshots beyond retainSnapshots, the checkouts before the oldest one kept and
+    //every chunk of the log that lies wholly before it
+    private void compact() {
+        long firstCheckout = snapshots.get(0).getCheckouts();
+        snapshots.subList(0, snapshots.size() - retainSnapshots).clear();
+        InventorySnapshot oldest = snapshots.get(0);
+        int dropped = (int) (oldest.getCheckouts() - firstCheckout);
+        System.arraycopy(checkoutEnds, dropped, checkoutEnds, 0, checkoutCount - dropped);
+        checkoutCount -= dropped;
+        synchronized (chunkLock) {
+            Log current = log;
+            long firstKept = oldest.getSequence() >>> CHUNK_SHIFT;
+            int drop = (int) (firstKept - current.firstChunk());
+            if (drop <= 0) return;
+            log = new Log(firstKept,
+                    Arrays.copyOfRange(current.events(), drop, Math.max(drop + 1, current.events().length)),
+                    Arrays.copyOfRange(current.times(), drop, Math.max(drop + 1, current.times().length)), current.tail());
+        }
+    }
+
+    //Replays the log from a snapshot up to the given position; the log entries before
+    //that position never change, so this runs without the lock
+    private static Scenario replay(InventorySnapshot from, Log events, long sequence) {
+        Scenario state = new Scenario(from);
+        for (long i = from.getSequence(); i < sequence; i++) {
+            int index = (int) ((i >>> CHUNK_SHIFT) - events.firstChunk());
+            int offset = (int) i & (CHUNK_SIZE - 1);
+            apply(state, events.events()[index][offset], events.times()[index][offset]);
+        }
+        return state;
+    }
+
+    private static void apply(Scenario state, long event, long millis) {
+        long type = event >>> TYPE_SHIFT;
+        int sku = (int) (event >>> SKU_SHIFT) & Integer.MAX_VALUE;
+        int amount = (int) event & Product.MAX_QUANTITY;
+        if (type == SALE) {
+            state.apply(sku, -amount, amount);
+        } else if (type == RETURN) {
+            state.apply(sku, amount, -amount);
+        } else if (type == RECEIPT) {
+            state.apply(sku, amount, 0);
+        } else if (type == WITHDRAWAL) {
+            state.apply(sku, -amount, 0);
+        } else if (type == CHECKOUT) {
+            state.checkout(cents(event));
+        } else if (type == REFUND) {
+            state.refund(cents(event));
+        }
+        state.sequence++;
+        state.takenAtMillis = millis;
+    }
+
+    //Sign-extends the 60-bit amount of a checkout or refund
+    private static long cents(long event) {
+        return event << (Long.SIZE - TYPE_SHIFT) >> (Long.SIZE - TYPE_SHIFT);
+    }
+
+    //Sequence number the next appended event of one generation of the log gets, and the first slot
+    //an appender of that generation took but could not publish
+    private static final class Tail extends AtomicLong {
+        private final AtomicLong lost;
+
+        private Tail(long initNext) {
+            super(initNext);
+            lost = new AtomicLong(Long.MAX_VALUE);
+        }
+
+        private void lose(long sequence) {
+            lost.accumulateAndGet(sequence, Math::min);
+        }
+
+        private long getLost() {
+            return lost.get();
+        }
+    }
+
+    //Chunks of the event log from firstChunk on; chunks before it were compacted away
+    //A chunk is null until the first event in it is appended. Every chunk list of one generation shares its tail
+    private record Log(long firstChunk, long[][] events, long[][] times, Tail tail) {
+        long timeOf(long sequence) {
+            return times[(int) ((sequence >>> CHUNK_SHIFT) - firstChunk)][(int) sequence & (CHUNK_SIZE - 1)];
+        }
+    }
+
+    //Mutable copy of a state for replays and what-if questions
+    //Starts out sharing every page with its snapshot and copies a page the first time it writes to it
+    public static final class Scenario {
+        private final int curProducts;
+        private final int[][] stockPages;
+        private final long[][] soldPages;
+        private final boolean[] owned; //Pages this scenario may write without copying them first
+        private long sequence;
+        private long takenAtMillis;
+        private long checkouts;
+        private long revenueCents;
+
+        private Scenario(InventorySnapshot base) {
+            curProducts = base.getCurProducts();
+            stockPages = base.stockPages.clone();
+            soldPages = base.soldPages.clone();
+            owned = new boolean[stockPages.length];
+            sequence = base.getSequence();
+            takenAtMillis = base.getTakenAtMillis();
+            checkouts = base.getCheckouts();
+            revenueCents = base.getRevenueCents();
+        }
+
+        //Sells amount units; returns false if the product has fewer in stock
+        public boolean sell(int sku, int amount) {
+            return change(sku, -amount, amount);
+        }
+
+        //Puts amount sold units back into stock; returns false if fewer were sold
+        public boolean undo(int sku, int amount) {
+            return change(sku, amount, -amount);
+        }
+
+        public boolean receive(int sku, int amount) {
+            return change(sku, amount, 0);
+        }
+
+        public boolean withdraw(int sku, int amount) {
+            return change(sku, -amount, 0);
+        }
+
+        //Records a checkout of the given value in cents
+        public void checkout(long amountCents) {
+            checkouts++;
+            revenueCents += amountCents;
+        }
+
+        //Records a refund of the given value in cents
+        public void refund(long amountCents) {
+            revenueCents -= amountCents;
+        }
+
+        //Freezes the current state; later changes copy the pages they write
+        public InventorySnapshot snapshot() {
+            Arrays.fill(owned, false);
+            return new InventorySnapshot(sequence, takenAtMillis, checkouts, revenueCents, curProducts,
+                    stockPages.clone(), soldPages.clone());
+        }
+
+        private boolean change(int sku, int stockDelta, int soldDelta) {
+            if (sku < 0 || sku >= curProducts) return false;
+            int page = sku >>> InventorySnapshot.PAGE_SHIFT;
+            int offset = sku & (InventorySnapshot.PAGE_SIZE - 1);
+            int stock = stockPages[page][offset] + stockDelta;
+            long sold = soldPages[page][offset] + soldDelta;
+            if (stock < 0 || sold < 0 || stock > Product.MAX_QUANTITY) return false;
+            apply(sku, stockDelta, soldDelta);
+            return true;
+        }
+
+        //Applies a logged change as it happened in the store, without checking it; the events of
+        //concurrent appenders may be logged in another order than the store took them
+        private void apply(int sku, int stockDelta, int soldDelta) {
+            if (sku < 0 || sku >= curProducts) return;
+            int page = sku >>> InventorySnapshot.PAGE_SHIFT;
+            int offset = sku & (InventorySnapshot.PAGE_SIZE - 1);
+            if (!owned[page]) {
+                stockPages[page] = stockPages[page].clone();
+                soldPages[page] = soldPages[page].clone();
+                owned[page] = true;
+            }
+            stockPages[page][offset] += stockDelta;
+            soldPages[page][offset] += soldDelta;
+        }
+    }
+}
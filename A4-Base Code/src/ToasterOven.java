@@ -1,20 +1,17 @@
-//Class representing a single toaster oven product
-public class ToasterOven extends Appliance {
-    private final boolean convection;
-
-    public ToasterOven(double initPrice, int initQuantity, int initWattage, String initColor, String initBrand, boolean initConvection) {
-        super(initPrice, initQuantity, initWattage, initColor, initBrand);
-        convection = initConvection;
-    }
-
-    public String toString() {
-        String result = getBrand() + " Toaster ";
-        if (convection) {
-            result += "with convection ";
-        }
-
-        result += "(" + getColor() + ", " + getWattage() + " watts)";
-
-        return result;
-    }
+import lombok.Getter;
+
+//Class representing a single toaster oven product
+public class ToasterOven extends Appliance {
+    @Getter
+    private final boolean convection;
+
+    public ToasterOven(double initPrice, int initQuantity, int initWattage, String initColor, String initBrand, boolean initConvection) {
+        super(initPrice, initQuantity, initWattage, initColor, initBrand);
+        convection = initConvection;
+    }
+
+    @Override
+    protected String describe(DisplayNames names) {
+        return names.format(convection ? "toasterOven.convection" : "toasterOven", getBrand(), getColor(), getWattage());
+    }
 }
\ No newline at end of file
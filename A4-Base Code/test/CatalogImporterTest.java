@@ -0,0 +1,144 @@
+//Parsing of CSV and JSON feeds by the CatalogImporter: quoted fields spanning lines, bad records
+//reported by number without stopping the import, and products added in feed order
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CatalogImporterTest {
+    private static final String CSV_HEADER = "Type,Price,Quantity,CPU Speed,RAM,SSD,Storage,Profile,Screen Size,"
+            + "Wattage,Color,Brand,Freezer,Convection\r\n";
+
+    @Test
+    void quotedCsvFieldsKeepCommasQuotesAndLineBreaks() throws IOException {
+        String feed = CSV_HEADER
+                + "Desktop,999.99,5,3.5,16,true,512,\"Big \"\"Tower\"\",\r\nEdition\",,,,,,\r\n"
+                + "\r\n"
+                + "Fridge,500,2,,,,,,,250,\"White, matte\",Frost,yes,\r\n";
+        ElectronicStore store = new ElectronicStore("Import Test");
+
+        CatalogImporter.Report report = new CatalogImporter().importCsv(new StringReader(feed), store);
+
+        assertEquals(2, report.imported());
+        assertEquals(0, report.rejected());
+        Desktop desktop = (Desktop) store.getProduct(0);
+        assertEquals("Big \"Tower\",\r\nEdition", desktop.getTowerProfile());
+        assertEquals(99999, desktop.getPriceCents());
+        Fridge fridge = (Fridge) store.getProduct(1);
+        assertEquals("White, matte", fridge.getColor());
+        assertEquals("Frost", fridge.getBrand());
+        assertTrue(fridge.hasFreezer());
+    }
+
+    @Test
+    void badCsvRecordsAreReportedByNumberAndSkipped() throws IOException {
+        String feed = CSV_HEADER
+                + "Laptop,1200,3,2.8,8,true,256,,15.6,,,,,\n"
+                + "Blender,50,1,,,,,,,,,,,\n"
+                + "Laptop,-1,3,2.8,8,true,256,,15.6,,,,,\n"
+                + "ToasterOven,40,9,,,,,,,1200,Black,Heatwave,,maybe\n"
+                + "ToasterOven,40,9,,,,,,,1200,Black,Heatwave,,no\n";
+        ElectronicStore store = new ElectronicStore("Import Test");
+
+        CatalogImporter.Report report = new CatalogImporter().importCsv(new StringReader(feed), store);
+
+        assertEquals(2, report.imported());
+        assertEquals(3, report.rejected());
+        assertEquals(List.of(
+                "Record 2: unknown product type: Blender",
+                "Record 3: price must be a non-negative amount: -1",
+                "Record 4: convection is not true or false: maybe"), report.errors());
+        assertTrue(store.getProduct(0) instanceof Laptop);
+        assertTrue(store.getProduct(1) instanceof ToasterOven);
+    }
+
+    @Test
+    void jsonArrayAndNdjsonImportAlike() throws IOException {
+        String fridge = "{\"type\": \"Fridge\", \"price\": 650.5, \"quantity\": 4, \"wattage\": 300, "
+                + "\"color\": \"Steel\", \"brand\": \"Cold \\\"Co\\\"\", \"freezer\": false, \"notes\": null}";
+        String toaster = "{\"type\":\"Toaster Oven\",\"price\":\"35\",\"quantity\":10,\"wattage\":900,"
+                + "\"color\":\"Red\",\"brand\":\"Br\\u00f6d\",\"convection\":true}";
+        ElectronicStore fromArray = new ElectronicStore("Array");
+        ElectronicStore fromLines = new ElectronicStore("Lines");
+
+        CatalogImporter importer = new CatalogImporter();
+        CatalogImporter.Report array = importer.importJson(new StringReader("[\n" + fridge + ",\n" + toaster + "\n]"), fromArray);
+        CatalogImporter.Report lines = importer.importJson(new StringReader(fridge + "\n" + toaster + "\n"), fromLines);
+
+        assertEquals(2, array.imported());
+        assertEquals(2, lines.imported());
+        for (ElectronicStore store : List.of(fromArray, fromLines)) {
+            Fridge first = (Fridge) store.getProduct(0);
+            assertEquals("Cold \"Co\"", first.getBrand());
+            assertFalse(first.hasFreezer());
+            assertEquals(65050, first.getPriceCents());
+            ToasterOven second = (ToasterOven) store.getProduct(1);
+            assertEquals("Bröd", second.getBrand());
+            assertEquals(10, second.getStockQuantity());
+        }
+    }
+
+    @Test
+    void badJsonObjectsAreReportedAndSkipped() throws IOException {
+        String feed = "[{\"type\":\"laptop\",\"price\":900,\"quantity\":1,\"cpuSpeed\":3,\"ram\":16,\"ssd\":true,"
+                + "\"storage\":1024,\"screenSize\":14},\n"
+                + "{\"type\":\"fridge\",\"price\":100,\"quantity\":1,\"color\":{\"name\":\"red\"}},\n"
+                + "{\"type\":\"fridge\" \"price\":100},\n"
+                + "{\"type\":\"fridge\",\"price\":100,\"quantity\":1,\"wattage\":100,\"color\":\"Red\"},\n"
+                + "{\"type\":\"desktop\",\"price\":[1]}]";
+        ElectronicStore store = new ElectronicStore("Import Test");
+
+        CatalogImporter.Report report = new CatalogImporter().importJson(new StringReader(feed), store);
+
+        assertEquals(1, report.imported());
+        assertEquals(4, report.rejected());
+        assertEquals(List.of(
+                "Record 2: nested values are not supported",
+                "Record 3: expected , or } at 17",
+                "Record 4: missing brand",
+                "Record 5: nested values are not supported"), report.errors());
+        assertTrue(store.getProduct(0) instanceof Laptop);
+    }
+
+    @Test
+    void feedEndingInsideAnObjectFails() {
+        String feed = "[{\"type\":\"laptop\",\"price\":900},\n{\"type\":\"fridge\",\"brand\":\"}\"";
+
+        IOException e = assertThrows(IOException.class,
+                () -> new CatalogImporter().importJson(new StringReader(feed), new ElectronicStore("Import Test")));
+        assertEquals("Feed ends inside a JSON object", e.getMessage());
+    }
+
+    @Test
+    void productsAreAddedInFeedOrderAcrossChunks() throws IOException {
+        StringBuilder feed = new StringBuilder(CSV_HEADER);
+        for (int i = 0; i < 1_000; i++) {
+            if (i % 97 == 0) {
+                feed.append("Fridge,oops,1,,,,,,,100,White,Brand ").append(i).append(",no,\n");
+            } else {
+                feed.append("ToasterOven,").append(i).append(",1,,,,,,,100,Black,Brand ").append(i).append(",,yes\n");
+            }
+        }
+        ElectronicStore store = new ElectronicStore("Import Test");
+
+        CatalogImporter.Report report = new CatalogImporter(4, 7).importCsv(new StringReader(feed.toString()), store);
+
+        assertEquals(11, report.rejected());
+        assertEquals(989, report.imported());
+        assertEquals("Record 98: price is not a number: oops", report.errors().get(1));
+        int sku = 0;
+        for (int i = 0; i < 1_000; i++) {
+            if (i % 97 == 0) continue;
+            Appliance appliance = (Appliance) store.getProduct(sku++);
+            assertEquals("Brand " + i, appliance.getBrand());
+            assertEquals(i * 100L, appliance.getPriceCents());
+        }
+    }
+}
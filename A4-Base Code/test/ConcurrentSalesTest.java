@@ -0,0 +1,163 @@
+//Stress test of the lock-free sales path: many threads selling, reserving, committing, releasing
+//and returning units of the same few products at once. Once they are done no unit may have been
+//created or lost, and the store's revenue must be exactly what the calls that succeeded returned
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ConcurrentSalesTest {
+    private static final int THREADS = 16;
+    private static final int OPERATIONS = 50_000; //Per thread
+    private static final int STOCK = 2_000; //Per product, small enough that threads run out of stock
+
+    @Test
+    void productQuantitiesAndRevenueAreConserved() throws Exception {
+        ElectronicStore store = ElectronicStore.createStore();
+        List<Product> products = store.getStock();
+        long[] initial = fillStock(products);
+
+        List<Long> revenues = run(() -> {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            long revenue = 0;
+            for (int i = 0; i < OPERATIONS; i++) {
+                Product product = products.get(random.nextInt(products.size()));
+                int amount = 1 + random.nextInt(3);
+                switch (random.nextInt(4)) {
+                    case 0 -> {
+                        long sale = product.sellUnits(amount);
+                        if (sale > 0) store.recordCheckout(sale);
+                        revenue += sale;
+                    }
+                    case 1 -> {
+                        if (product.reserveUnits(amount)) {
+                            long sale = product.commitReservedUnits(amount);
+                            if (sale > 0) store.recordCheckout(sale);
+                            revenue += sale;
+                        }
+                    }
+                    case 2 -> {
+                        if (product.reserveUnits(amount)) product.releaseReservedUnits(amount);
+                    }
+                    default -> {
+                        //Returns 0 when fewer than amount units are sold at this moment
+                        long refund = product.undoSellOperation(amount);
+                        if (refund > 0) store.recordRefund(refund);
+                        revenue -= refund;
+                    }
+                }
+            }
+            return revenue;
+        });
+
+        assertConserved(products, initial);
+        assertEquals(sum(revenues), store.getRevenueCents());
+        assertEquals(listValueSold(products), store.getRevenueCents());
+    }
+
+    @Test
+    void cartsConserveUnitsAndRevenue() throws Exception {
+        ElectronicStore store = ElectronicStore.createStore();
+        List<Product> products = store.getStock();
+        long[] initial = fillStock(products);
+
+        List<Long> revenues = run(() -> {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            Cart cart = new Cart(store, Duration.ofMinutes(15));
+            long revenue = 0;
+            for (int i = 0; i < OPERATIONS; i++) {
+                Product product = products.get(random.nextInt(products.size()));
+                int choice = random.nextInt(10);
+                if (choice < 6) {
+                    cart.add(product);
+                } else if (choice < 8) {
+                    cart.remove(product);
+                } else if (choice < 9) {
+                    long total = cart.checkout();
+                    if (total > 0) revenue += total;
+                } else {
+                    cart.clear();
+                }
+            }
+            cart.clear();
+            return revenue;
+        });
+
+        assertConserved(products, initial);
+        assertEquals(sum(revenues), store.getRevenueCents());
+        assertEquals(listValueSold(products), store.getRevenueCents());
+    }
+
+    //Gives every product the same stock and returns each product's stock + reserved + sold
+    private static long[] fillStock(List<Product> products) {
+        long[] initial = new long[products.size()];
+        for (int i = 0; i < products.size(); i++) {
+            Product product = products.get(i);
+            product.receiveUnits(STOCK - product.getStockQuantity());
+            initial[i] = total(product);
+        }
+        return initial;
+    }
+
+    private static void assertConserved(List<Product> products, long[] initial) {
+        for (int i = 0; i < products.size(); i++) {
+            Product product = products.get(i);
+            assertEquals(0, product.getReservedQuantity(), "Reserved units of " + product);
+            assertEquals(initial[i], total(product), "Units of " + product);
+        }
+    }
+
+    private static long total(Product product) {
+        return product.getStockQuantity() + product.getReservedQuantity() + product.getSoldQuantity();
+    }
+
+    //Every sale in these tests is at list price, so the revenue is what the units sold are worth
+    private static long listValueSold(List<Product> products) {
+        long value = 0;
+        for (Product product : products) {
+            value += Money.times(product.getPriceCents(), product.getSoldQuantity());
+        }
+        return value;
+    }
+
+    private static long sum(List<Long> values) {
+        long sum = 0;
+        for (long value : values) {
+            sum += value;
+        }
+        return sum;
+    }
+
+    //Runs the task on THREADS threads started together and returns what each returned
+    private static List<Long> run(Callable<Long> task) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            List<Future<Long>> futures = new ArrayList<>();
+            for (int i = 0; i < THREADS; i++) {
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    return task.call();
+                }));
+            }
+            start.countDown();
+            List<Long> results = new ArrayList<>();
+            for (Future<Long> future : futures) {
+                results.add(future.get());
+            }
+            return results;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,72 @@
+//Looking products up by display name, and the name index not keeping on-demand products alive
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.lang.ref.WeakReference;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ElectronicStoreTest {
+    @TempDir
+    Path directory;
+
+    @Test
+    void productsAreFoundByName() {
+        ElectronicStore store = new ElectronicStore("Name Test");
+        Laptop laptop = new Laptop(1000, 5, 2.8, 16, true, 512, 14);
+        Fridge fridge = new Fridge(500, 2, 250, "White", "Frost", true);
+        store.addProduct(laptop);
+        store.addProduct(fridge);
+
+        assertSame(laptop, store.getProduct(laptop.toString()));
+        assertSame(fridge, store.getProduct(new String(fridge.toString())));
+        assertNull(store.getProduct("Nothing by this name"));
+
+        //Products added after the index was built are found too
+        ToasterOven oven = new ToasterOven(40, 9, 1200, "Black", "Heatwave", true);
+        store.addProduct(oven);
+        assertSame(oven, store.getProduct(oven.toString()));
+    }
+
+    @Test
+    void sharedNamesAreRejected() {
+        ElectronicStore store = new ElectronicStore("Name Test");
+        store.addProduct(new ToasterOven(40, 9, 1200, "Black", "Heatwave", true));
+        String name = store.getProduct(0).toString();
+        assertSame(store.getProduct(0), store.getProduct(name));
+
+        store.addProduct(new ToasterOven(40, 3, 1200, "Black", "Heatwave", true));
+        assertThrows(IllegalArgumentException.class, () -> store.getProduct(name));
+        store.addProduct(new ToasterOven(40, 1, 1200, "Black", "Heatwave", true));
+        assertThrows(IllegalArgumentException.class, () -> store.getProduct(name));
+    }
+
+    @Test
+    void nameIndexDoesNotHoldOnToMappedProducts() throws Exception {
+        Path file = directory.resolve("catalog.inv");
+        MappedInventory.write(file, List.of(new Laptop(1000, 5, 2.8, 16, true, 512, 14),
+                new Fridge(500, 2, 250, "White", "Frost", true)));
+        try (MappedInventory inventory = MappedInventory.open(file)) {
+            ElectronicStore store = inventory.toStore("Mapped Test");
+            String name = store.getProduct(1).toString();
+            WeakReference<Product> found = new WeakReference<>(store.getProduct(name));
+            assertEquals(1, found.get().getSku());
+
+            for (int i = 0; i < 100 && found.get() != null; i++) {
+                System.gc();
+                Thread.sleep(10);
+            }
+            assertNull(found.get(), "The product was kept alive after it was looked up by name");
+            Product again = store.getProduct(name);
+            assertEquals(1, again.getSku());
+            assertTrue(again instanceof Fridge);
+        }
+    }
+}
@@ -0,0 +1,85 @@
+//Searches and facet counts of the ProductIndex over a small catalog whose answers are known,
+//including products without a colour, brand or profile
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ProductIndexTest {
+    private static final ProductIndex INDEX = new ProductIndex(createStore());
+
+    @Test
+    void facetCountsCoverTheMatchesInValueOrder() {
+        Bitmap all = INDEX.query().matches();
+
+        assertEquals(Map.of("Desktop", 2, "Fridge", 2, "Laptop", 2, "Toaster Oven", 1),
+                INDEX.facetCounts(all, ProductIndex.Attribute.TYPE));
+        assertEquals(List.of("Desktop", "Fridge", "Laptop", "Toaster Oven"),
+                List.copyOf(INDEX.facetCounts(all, ProductIndex.Attribute.TYPE).keySet()));
+        assertEquals(Map.of("SSD", 3, "HDD", 1), INDEX.facetCounts(all, ProductIndex.Attribute.SSD));
+
+        Bitmap bigMemory = INDEX.search("ram>=16").matches();
+        assertEquals(Map.of("Desktop", 2, "Laptop", 1), INDEX.facetCounts(bigMemory, ProductIndex.Attribute.TYPE));
+        assertEquals(Map.of(), INDEX.facetCounts(bigMemory, ProductIndex.Attribute.BRAND));
+    }
+
+    @Test
+    void productsWithoutATextValueHaveNoFacetForIt() {
+        Bitmap all = INDEX.query().matches();
+
+        assertEquals(7, INDEX.size());
+        assertEquals(Map.of("Black", 1, "Stainless Steel", 1), INDEX.facetCounts(all, ProductIndex.Attribute.COLOR));
+        assertEquals(Map.of("Frost", 1, "Heatwave", 1), INDEX.facetCounts(all, ProductIndex.Attribute.BRAND));
+        assertEquals(Map.of("Tower", 1), INDEX.facetCounts(all, ProductIndex.Attribute.PROFILE));
+        assertEquals(List.of(3, 4), skus(INDEX.query().is(ProductIndex.Attribute.TYPE, "fridge")));
+        assertEquals(List.of(3), skus(INDEX.query().is(ProductIndex.Attribute.BRAND, "frost")));
+    }
+
+    @Test
+    void wordsMatchByPrefixAndInTheSingular() {
+        assertEquals(List.of(1), skus(INDEX.search("ssd lap")));
+        assertEquals(List.of(1, 2), skus(INDEX.search("laptops")));
+        assertEquals(List.of(3), skus(INDEX.search("st")));
+        assertEquals(List.of(3), skus(INDEX.search("STEEL fridge")));
+        assertEquals(List.of(5), skus(INDEX.search("toaster oven convection")));
+        assertEquals(List.of(), skus(INDEX.search("blender")));
+    }
+
+    @Test
+    void comparisonsNarrowBetweenTheBounds() {
+        assertEquals(List.of(0, 2, 6), skus(INDEX.search("ram>=16")));
+        assertEquals(List.of(2), skus(INDEX.search("laptop ram=>16")));
+        assertEquals(List.of(4, 5), skus(INDEX.search("price<500")));
+        assertEquals(List.of(3, 4, 5), skus(INDEX.search("price<=$500")));
+        assertEquals(List.of(1), skus(INDEX.search("screen>13.3")));
+        assertEquals(List.of(2, 3, 4), skus(INDEX.query().between(ProductIndex.Attribute.PRICE, 400, 700)));
+        //A comparison still being typed does not filter anything
+        assertEquals(7, INDEX.search("ram>=").count());
+        assertEquals(7, INDEX.search("colour>3").count());
+    }
+
+    private static List<Integer> skus(ProductIndex.Query query) {
+        List<Integer> skus = new ArrayList<>();
+        Bitmap matches = query.matches();
+        for (int sku = matches.nextSetBit(0); sku >= 0; sku = matches.nextSetBit(sku + 1)) {
+            skus.add(sku);
+        }
+        return skus;
+    }
+
+    private static ElectronicStore createStore() {
+        ElectronicStore store = new ElectronicStore("Index Test");
+        store.addProduct(new Desktop(999.99, 5, 3.5, 16, true, 512, "Tower"));
+        store.addProduct(new Laptop(1200, 3, 2.8, 8, true, 256, 15.6));
+        store.addProduct(new Laptop(700, 3, 2.2, 16, false, 1024, 13.3));
+        store.addProduct(new Fridge(500, 2, 250, "Stainless Steel", "Frost", true));
+        store.addProduct(new Fridge(400, 2, 200, null, null, false));
+        store.addProduct(new ToasterOven(40, 9, 1200, "Black", "Heatwave", true));
+        store.addProduct(new Desktop(1500, 1, 4.0, 32, true, 2048, null));
+        return store;
+    }
+}
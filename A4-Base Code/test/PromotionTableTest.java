@@ -0,0 +1,123 @@
+//How promotions stack: only the best percent off applies to a unit, buy-get deals take their percent
+//off the unit's price after that, cheapest units first, and time limits switch rules on and off
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PromotionTableTest {
+    private static final int SSD_LAPTOP = 0;
+    private static final int HDD_LAPTOP = 1;
+    private static final int BIG_TOASTER = 2;
+    private static final int SMALL_TOASTER = 3;
+    private static final int FRIDGE = 4;
+
+    private static final long BEFORE_SALE = Instant.parse("2026-11-26T12:00:00Z").toEpochMilli();
+    private static final long SALE_START = Instant.parse("2026-11-27T00:00:00Z").toEpochMilli();
+    private static final long DURING_SALE = Instant.parse("2026-11-28T12:00:00Z").toEpochMilli();
+    private static final long SALE_END = Instant.parse("2026-11-30T00:00:00Z").toEpochMilli();
+
+    @Test
+    void onlyTheBestPercentOffApplies() {
+        PromotionTable table = compile(createStore(), "10% off laptop", "25% off ssd", "5% off ssd laptop");
+
+        assertEquals(25, table.bestPercent(table.classOf(SSD_LAPTOP), BEFORE_SALE));
+        assertEquals(10, table.bestPercent(table.classOf(HDD_LAPTOP), BEFORE_SALE));
+        assertEquals(0, table.bestPercent(table.classOf(BIG_TOASTER), BEFORE_SALE));
+        assertNotEquals(table.classOf(SSD_LAPTOP), table.classOf(HDD_LAPTOP));
+        assertEquals(table.classOf(BIG_TOASTER), table.classOf(SMALL_TOASTER));
+        assertFalse(table.hasRules(table.classOf(FRIDGE)));
+        //SKUs added after compiling have no promotions
+        assertFalse(table.hasRules(table.classOf(99)));
+    }
+
+    @Test
+    void timeLimitsSwitchRulesOnAndOff() {
+        PromotionTable table = compile(createStore(), "20% off fridge from 2026-11-27T00:00:00Z until 2026-11-30T00:00:00Z",
+                "5% off fridge");
+        int fridge = table.classOf(FRIDGE);
+
+        assertEquals(5, table.bestPercent(fridge, BEFORE_SALE));
+        assertEquals(20, table.bestPercent(fridge, SALE_START));
+        assertEquals(20, table.bestPercent(fridge, DURING_SALE));
+        assertEquals(5, table.bestPercent(fridge, SALE_END));
+        assertEquals(SALE_START, table.nextChangeAfter(BEFORE_SALE));
+        assertEquals(SALE_END, table.nextChangeAfter(SALE_START));
+        assertEquals(Long.MAX_VALUE, table.nextChangeAfter(SALE_END));
+    }
+
+    @Test
+    void dealsStackOnTheBestPercentOffCheapestUnitsFirst() {
+        ElectronicStore store = createStore();
+        store.setPromotions(compile(store, "10% off laptop", "25% off ssd", "10% off toaster",
+                "50% off toaster with laptop"));
+        Cart cart = new Cart(store, Duration.ofMinutes(15));
+        cart.add(store.getProduct(SSD_LAPTOP));
+        cart.add(store.getProduct(BIG_TOASTER));
+        cart.add(store.getProduct(SMALL_TOASTER));
+
+        //Percent off: 250.00 + 10.00 + 6.00; one laptop pairs with the cheaper toaster: 50% of 54.00
+        assertEquals(250_00 + 10_00 + 6_00 + 27_00, cart.getDiscountCents());
+
+        cart.add(store.getProduct(HDD_LAPTOP));
+        //A second laptop at 10% off pairs with the other toaster too: 50% of 90.00
+        assertEquals(250_00 + 80_00 + 10_00 + 6_00 + 27_00 + 45_00, cart.getDiscountCents());
+
+        cart.remove(store.getProduct(SSD_LAPTOP));
+        assertEquals(80_00 + 10_00 + 6_00 + 27_00, cart.getDiscountCents());
+        assertEquals(800_00 + 100_00 + 60_00 - 123_00, cart.getTotalCents());
+        assertEquals(800_00 + 100_00 + 60_00 - 123_00, cart.checkout());
+        assertEquals(800_00 + 100_00 + 60_00 - 123_00, store.getRevenueCents());
+    }
+
+    @Test
+    void aUnitMatchingBothSidesOfADealIsOnlyOneHalfOfAPair() {
+        ElectronicStore store = createStore();
+        store.setPromotions(compile(store, "50% off laptop with laptop"));
+        Cart cart = new Cart(store, Duration.ofMinutes(15));
+
+        cart.add(store.getProduct(SSD_LAPTOP));
+        assertEquals(0, cart.getDiscountCents());
+        cart.add(store.getProduct(HDD_LAPTOP));
+        assertEquals(400_00, cart.getDiscountCents());
+        cart.add(store.getProduct(HDD_LAPTOP));
+        assertEquals(400_00, cart.getDiscountCents());
+        cart.add(store.getProduct(SSD_LAPTOP));
+        assertEquals(400_00 + 400_00, cart.getDiscountCents());
+    }
+
+    @Test
+    void dealsTakeNothingWithoutTheirTrigger() {
+        ElectronicStore store = createStore();
+        store.setPromotions(compile(store, "50% off toaster with fridge"));
+        Cart cart = new Cart(store, Duration.ofMinutes(15));
+        cart.add(store.getProduct(BIG_TOASTER));
+        cart.add(store.getProduct(SMALL_TOASTER));
+
+        assertEquals(0, cart.getDiscountCents());
+        cart.add(store.getProduct(FRIDGE));
+        assertEquals(30_00, cart.getDiscountCents());
+        assertTrue(store.getPromotions().hasRules(store.getPromotions().classOf(FRIDGE)));
+    }
+
+    private static PromotionTable compile(ElectronicStore store, String... promotions) {
+        return PromotionTable.compile(Arrays.stream(promotions).map(Promotion::parse).toList(), store);
+    }
+
+    private static ElectronicStore createStore() {
+        ElectronicStore store = new ElectronicStore("Promotion Test");
+        store.addProduct(new Laptop(1000, 10, 2.8, 16, true, 512, 14));
+        store.addProduct(new Laptop(800, 10, 2.2, 8, false, 1024, 15.6));
+        store.addProduct(new ToasterOven(100, 10, 1500, "Black", "Heatwave", true));
+        store.addProduct(new ToasterOven(60, 10, 900, "Red", "Heatwave", false));
+        store.addProduct(new Fridge(500, 10, 250, "White", "Frost", true));
+        return store;
+    }
+}
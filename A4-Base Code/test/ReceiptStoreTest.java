@@ -0,0 +1,149 @@
+//Receipts and returns read back from the ReceiptStore after it is closed and opened again, or opened
+//from files a crash left behind: lookups by number, product and time, refunds and daily totals
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ReceiptStoreTest {
+    private static final Instant START = Instant.EPOCH;
+    private static final Instant END = Instant.parse("9999-01-01T00:00:00Z");
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void receiptsAndReturnsAreFoundAfterReopening() throws IOException {
+        Receipt first;
+        Receipt second;
+        Receipt.Return returned;
+        try (ReceiptStore receipts = ReceiptStore.open(directory)) {
+            first = receipts.append(List.of(new Receipt.Line(0, 2, 100_00), new Receipt.Line(3, 1, 50_00)), 25_00);
+            second = receipts.append(List.of(new Receipt.Line(3, 4, 50_00)), 0);
+            returned = receipts.recordReturn(first.number(), 0, 1);
+        }
+
+        try (ReceiptStore receipts = ReceiptStore.open(directory)) {
+            assertEquals(2, receipts.size());
+            assertEquals(first, receipts.get(1));
+            assertEquals(second, receipts.get(2));
+            assertNull(receipts.get(3));
+            assertEquals(List.of(returned), receipts.getReturns(1));
+            assertEquals(1, receipts.getReturnable(1, 0));
+            assertEquals(1, receipts.getReturnable(1, 3));
+            assertEquals(0, receipts.getReturnable(1, 7));
+            assertArrayEquals(new long[]{1, 2}, receipts.receiptsWith(3, START, END));
+            assertArrayEquals(new long[]{1}, receipts.receiptsWith(0, START, END));
+        }
+    }
+
+    @Test
+    void returnsAfterReopeningRefundExactlyWhatWasPaid() throws IOException {
+        try (ReceiptStore receipts = ReceiptStore.open(directory)) {
+            //Paid 333.33 for 350.00 of goods
+            receipts.append(List.of(new Receipt.Line(0, 3, 100_00), new Receipt.Line(1, 1, 50_00)), 16_67);
+            receipts.recordReturn(1, 0, 1);
+        }
+
+        try (ReceiptStore receipts = ReceiptStore.open(directory)) {
+            assertThrows(IllegalArgumentException.class, () -> receipts.recordReturn(1, 0, 3));
+            assertThrows(IllegalArgumentException.class, () -> receipts.recordReturn(1, 2, 1));
+            receipts.recordReturn(1, 0, 2);
+            receipts.recordReturn(1, 1, 1);
+            assertEquals(0, receipts.getReturnable(1, 0));
+        }
+
+        try (ReceiptStore receipts = ReceiptStore.open(directory)) {
+            long refunded = 0;
+            for (Receipt.Return returned : receipts.getReturns(1)) {
+                refunded += returned.refundCents();
+            }
+            assertEquals(333_33, refunded);
+            ReceiptStore.Totals totals = receipts.totalsBetween(START, END);
+            assertEquals(new ReceiptStore.Totals(1, 333_33, 3, 333_33), totals);
+            assertEquals(0, totals.netCents());
+        }
+    }
+
+    @Test
+    void receiptsAfterTheLastCheckpointAreRecovered() throws IOException {
+        Path crashed = directory.resolve("crashed");
+        try (ReceiptStore receipts = ReceiptStore.open(directory)) {
+            receipts.append(List.of(new Receipt.Line(5, 1, 10_00)), 0);
+        }
+        try (ReceiptStore receipts = ReceiptStore.open(directory)) {
+            receipts.append(List.of(new Receipt.Line(5, 2, 10_00)), 0);
+            receipts.append(List.of(new Receipt.Line(6, 1, 20_00)), 0);
+            //The files as a crash would leave them: the product checkpoint only covers the first receipt
+            Files.createDirectories(crashed);
+            try (var files = Files.list(directory)) {
+                for (Path file : files.filter(Files::isRegularFile).toList()) {
+                    Files.copy(file, crashed.resolve(file.getFileName()));
+                }
+            }
+        }
+
+        try (ReceiptStore receipts = ReceiptStore.open(crashed)) {
+            assertEquals(3, receipts.size());
+            assertArrayEquals(new long[]{1, 2}, receipts.receiptsWith(5, START, END));
+            assertArrayEquals(new long[]{3}, receipts.receiptsWith(6, START, END));
+            assertEquals(new ReceiptStore.Totals(3, 50_00, 0, 0), receipts.totalsBetween(START, END));
+        }
+    }
+
+    @Test
+    void halfWrittenRecordsAndEntriesAreRepaired() throws IOException {
+        Receipt last;
+        try (ReceiptStore receipts = ReceiptStore.open(directory)) {
+            receipts.append(List.of(new Receipt.Line(0, 1, 10_00)), 0);
+            last = receipts.append(List.of(new Receipt.Line(1, 1, 20_00)), 0);
+        }
+        //A record cut short in the data file, and the last index entry only partly written
+        Files.write(directory.resolve("receipts.data"), new byte[]{0, 0, 0, 40, 1, 2}, StandardOpenOption.APPEND);
+        Path index = directory.resolve("receipts.index");
+        try (var channel = FileChannel.open(index, StandardOpenOption.WRITE)) {
+            channel.truncate(Files.size(index) - 10);
+        }
+
+        try (ReceiptStore receipts = ReceiptStore.open(directory)) {
+            assertEquals(2, receipts.size());
+            assertEquals(last, receipts.get(2));
+            assertEquals(3, receipts.append(List.of(new Receipt.Line(2, 1, 30_00)), 0).number());
+        }
+        try (ReceiptStore receipts = ReceiptStore.open(directory)) {
+            assertEquals(3, receipts.size());
+            assertEquals(60_00, receipts.totalsBetween(START, END).salesCents());
+        }
+    }
+
+    @Test
+    void reconcileCountsOnlyTheGivenDay() throws IOException {
+        try (ReceiptStore receipts = ReceiptStore.open(directory)) {
+            receipts.append(List.of(new Receipt.Line(0, 1, 10_00)), 1_00);
+            receipts.recordReturn(1, 0, 1);
+        }
+
+        try (ReceiptStore receipts = ReceiptStore.open(directory)) {
+            Instant written = Instant.ofEpochMilli(receipts.get(1).timeMillis());
+            LocalDate day = LocalDate.ofInstant(written, ZoneOffset.UTC);
+            assertEquals(new ReceiptStore.Totals(1, 9_00, 1, 9_00), receipts.reconcile(day, ZoneOffset.UTC));
+            assertEquals(new ReceiptStore.Totals(0, 0, 0, 0), receipts.reconcile(day.minusDays(1), ZoneOffset.UTC));
+            assertEquals(1, receipts.firstReceiptAt(written));
+            assertEquals(2, receipts.firstReceiptAt(written.plusMillis(1)));
+        }
+    }
+}
@@ -0,0 +1,58 @@
+//Revenue kept by the SalesHistory is what the store booked: checkouts after promotions, less refunds
+//at what was paid, not list price times units
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SalesHistoryTest {
+    private static final Clock CLOCK = Clock.fixed(Instant.parse("2026-10-18T12:30:00Z"), ZoneOffset.UTC);
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void revenueIsWhatCheckoutsTookLessRefunds() throws Exception {
+        try (StoreEngine engine = new StoreEngine(SalesHistoryTest::createStore, Duration.ofMinutes(15))) {
+            engine.openReceipts(directory);
+            ElectronicStore store = engine.getStore();
+            store.setPromotions(PromotionTable.compile(List.of(Promotion.parse("50% off toaster with laptop")), store));
+            SalesHistory history = new SalesHistory(store.getCurProducts(), CLOCK);
+            engine.setHistory(history);
+
+            assertTrue(engine.execute(new StoreCommand.AddToCart(0)).accepted());
+            assertTrue(engine.execute(new StoreCommand.AddToCart(1)).accepted());
+            assertTrue(engine.execute(new StoreCommand.Punch()).accepted());
+            //1000.00 for the laptop and half of 100.00 for the toaster
+            assertEquals(1050_00, store.getRevenueCents());
+            assertEquals(1050_00, history.revenueCents(SalesHistory.Window.LAST_HOUR));
+
+            StoreEngine.Result returned = engine.execute(new StoreCommand.ReturnUnits(1, 1, 1));
+            assertTrue(returned.accepted());
+            long remaining = 1050_00 - returned.amountCents();
+            assertEquals(remaining, store.getRevenueCents());
+            for (SalesHistory.Window window : SalesHistory.Window.values()) {
+                assertEquals(remaining, history.revenueCents(window), window.toString());
+            }
+            assertEquals(remaining, history.revenuePerDay(1)[0]);
+            assertEquals(1, history.unitsSold(0, SalesHistory.Window.LAST_DAY));
+            assertEquals(0, history.unitsSold(1, SalesHistory.Window.LAST_DAY));
+        }
+    }
+
+    private static ElectronicStore createStore() {
+        ElectronicStore store = new ElectronicStore("History Test");
+        store.addProduct(new Laptop(1000, 5, 2.8, 16, true, 512, 14));
+        store.addProduct(new ToasterOven(100, 5, 1500, "Black", "Heatwave", true));
+        return store;
+    }
+}
@@ -0,0 +1,153 @@
+//Recovery of a store from its sales journal: replaying the records, starting from a snapshot,
+//cutting off a torn tail and skipping records a snapshot already covers after a crash
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SalesJournalTest {
+    @TempDir
+    Path directory;
+
+    @Test
+    void replayRestoresQuantitiesAndTotals() throws Exception {
+        ElectronicStore store = ElectronicStore.createStore();
+        try (SalesJournal journal = SalesJournal.open(directory, store, 1_000)) {
+            sellSome(store);
+            journal.sync();
+        }
+
+        assertSameState(store, reopen());
+    }
+
+    @Test
+    void replayStartsFromTheSnapshot() throws Exception {
+        ElectronicStore store = ElectronicStore.createStore();
+        try (SalesJournal journal = SalesJournal.open(directory, store, 1_000)) {
+            sellSome(store);
+            journal.snapshot();
+            sellSome(store);
+        }
+
+        assertSameState(store, reopen());
+    }
+
+    @Test
+    void tornTailIsCutOff() throws Exception {
+        ElectronicStore store = ElectronicStore.createStore();
+        try (SalesJournal journal = SalesJournal.open(directory, store, 1_000)) {
+            sellSome(store);
+        }
+        Path file = directory.resolve("sales.journal");
+        long intact = Files.size(file);
+        //Half of a record header, as a crash in the middle of a write leaves it
+        Files.write(file, new byte[]{0, 0, 0, 17, 1}, StandardOpenOption.APPEND);
+
+        ElectronicStore recovered = ElectronicStore.createStore();
+        try (SalesJournal journal = SalesJournal.open(directory, recovered, 1_000)) {
+            assertEquals(intact, Files.size(file));
+            assertSameState(store, recovered);
+            //Journaling carries on after the cut
+            sellSome(recovered);
+        }
+
+        assertSameState(recovered, reopen());
+    }
+
+    @Test
+    void recordsCoveredBySnapshotAreNotReplayedAgain() throws Exception {
+        ElectronicStore store = ElectronicStore.createStore();
+        Path file = directory.resolve("sales.journal");
+        Path copy = directory.resolve("journal.copy");
+        try (SalesJournal journal = SalesJournal.open(directory, store, 1_000)) {
+            sellSome(store);
+            journal.sync();
+            Files.copy(file, copy);
+            journal.snapshot();
+        }
+        //A crash after the snapshot was written but before the journal was emptied
+        Files.move(copy, file, StandardCopyOption.REPLACE_EXISTING);
+
+        assertSameState(store, reopen());
+    }
+
+    @Test
+    void recordsAppendedOutOfOrderReplay() throws Exception {
+        ElectronicStore store = ElectronicStore.createStore();
+        Product product = store.getProduct(0);
+        try (SalesJournal journal = SalesJournal.open(directory, store, 1_000)) {
+            product.sellUnits(product.getStockQuantity());
+            //A return and the sale it made possible, appended in the other order
+            journal.recordSale(0, 1);
+            journal.recordUndo(0, 1);
+        }
+
+        assertSameState(store, reopen());
+    }
+
+    @Test
+    void journalLeavingNegativeQuantitiesIsCorrupt() throws Exception {
+        ElectronicStore store = ElectronicStore.createStore();
+        try (SalesJournal journal = SalesJournal.open(directory, store, 1_000)) {
+            journal.recordUndo(0, 1);
+        }
+
+        assertThrows(IOException.class, () -> SalesJournal.open(directory, ElectronicStore.createStore(), 1_000));
+    }
+
+    @Test
+    void salesAfterTheJournalFailedAreReportedBySync() throws Exception {
+        ElectronicStore store = ElectronicStore.createStore();
+        SalesJournal journal = SalesJournal.open(directory, store, 1_000);
+        journal.close();
+
+        //The product changed before the journal saw the sale, so the sale must not throw
+        assertDoesNotThrow(() -> store.getProduct(0).sellUnits(1));
+
+        assertTrue(journal.hasFailed());
+        assertThrows(UncheckedIOException.class, journal::sync);
+        assertThrows(UncheckedIOException.class, journal::snapshotIfDue);
+    }
+
+    //Opens the journal on a freshly built store and returns the recovered store
+    private ElectronicStore reopen() throws IOException {
+        ElectronicStore recovered = ElectronicStore.createStore();
+        SalesJournal.open(directory, recovered, 1_000).close();
+        return recovered;
+    }
+
+    private static void sellSome(ElectronicStore store) {
+        for (int sku = 0; sku < store.getStock().size(); sku++) {
+            Product product = store.getProduct(sku);
+            long sale = product.sellUnits(1 + sku % 3);
+            if (sale > 0) store.recordCheckout(sale);
+            if (sku % 2 == 0) {
+                long refund = product.undoSellOperation(1);
+                if (refund > 0) store.recordRefund(refund);
+            }
+            if (sku % 3 == 0) product.receiveUnits(2);
+        }
+    }
+
+    private static void assertSameState(ElectronicStore expected, ElectronicStore actual) {
+        for (int sku = 0; sku < expected.getStock().size(); sku++) {
+            Product product = expected.getProduct(sku);
+            assertEquals(product.getStockQuantity() + product.getReservedQuantity(), actual.getProduct(sku).getStockQuantity(),
+                    "Stock of " + product);
+            assertEquals(product.getSoldQuantity(), actual.getProduct(sku).getSoldQuantity(), "Sold units of " + product);
+        }
+        assertEquals(expected.getRevenueCents(), actual.getRevenueCents());
+        assertEquals(expected.getCheckouts(), actual.getCheckouts());
+    }
+}
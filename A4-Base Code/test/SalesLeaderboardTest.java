@@ -0,0 +1,137 @@
+//The leaderboard against a brute-force sort of the whole catalog by units sold, for every k,
+//after random sales and returns, a restore and concurrent sales
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SalesLeaderboardTest {
+    private static final int PRODUCTS = 300;
+    private static final int STOCK = 50;
+
+    @Test
+    void matchesABruteForceSortAfterEveryChange() {
+        ElectronicStore store = createStore();
+        List<Product> products = store.getStock();
+        Random random = new Random(42);
+        Product[] top = new Product[PRODUCTS];
+
+        for (int i = 0; i < 5_000; i++) {
+            Product product = products.get(random.nextInt(PRODUCTS));
+            int amount = 1 + random.nextInt(4);
+            if (random.nextInt(3) < 2) {
+                product.sellUnits(amount);
+            } else {
+                product.undoSellOperation(amount);
+            }
+            if (i % 50 == 0) {
+                int k = random.nextInt(PRODUCTS + 1);
+                assertMatches(products, top, store.topSellers(k, top), k);
+            }
+        }
+        for (int k = 0; k <= PRODUCTS; k++) {
+            assertMatches(products, top, store.topSellers(k, top), k);
+        }
+    }
+
+    @Test
+    void topIsLimitedByTheArrayAndTheCatalog() {
+        ElectronicStore store = createStore();
+        store.getProduct(7).sellUnits(3);
+
+        assertEquals(2, store.topSellers(10, new Product[2]));
+        assertEquals(PRODUCTS, store.topSellers(PRODUCTS * 2, new Product[PRODUCTS * 2]));
+        Product[] best = new Product[1];
+        assertEquals(1, store.topSellers(1, best));
+        assertEquals(store.getProduct(7), best[0]);
+    }
+
+    @Test
+    void matchesAfterARestore() {
+        ElectronicStore store = createStore();
+        List<Product> products = store.getStock();
+        InventorySnapshot empty = InventorySnapshot.of(store);
+        Random random = new Random(7);
+        for (int i = 0; i < 1_000; i++) {
+            products.get(random.nextInt(PRODUCTS)).sellUnits(1 + random.nextInt(3));
+        }
+        InventorySnapshot sold = InventorySnapshot.of(store);
+        Product[] top = new Product[PRODUCTS];
+
+        empty.restore(store);
+        assertMatches(products, top, store.topSellers(PRODUCTS, top), PRODUCTS);
+        sold.restore(store);
+        assertMatches(products, top, store.topSellers(PRODUCTS, top), PRODUCTS);
+        //Sales after the restore move products again
+        products.get(0).sellUnits(STOCK);
+        assertMatches(products, top, store.topSellers(PRODUCTS, top), PRODUCTS);
+    }
+
+    @Test
+    void matchesAfterConcurrentSalesAndReturns() throws Exception {
+        ElectronicStore store = createStore();
+        List<Product> products = store.getStock();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    for (int i = 0; i < 20_000; i++) {
+                        Product product = products.get(random.nextInt(PRODUCTS));
+                        if (random.nextBoolean()) {
+                            product.sellUnits(1 + random.nextInt(2));
+                        } else {
+                            product.undoSellOperation(1);
+                        }
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        Product[] top = new Product[PRODUCTS];
+        assertMatches(products, top, store.topSellers(PRODUCTS, top), PRODUCTS);
+    }
+
+    //Products with equal sales may come in any order, so the ranking is compared by units sold
+    private static void assertMatches(List<Product> products, Product[] top, int length, int k) {
+        List<Product> sorted = new ArrayList<>(products);
+        sorted.sort(Comparator.comparingLong(Product::getSoldQuantity).reversed());
+        assertEquals(Math.min(k, products.size()), length);
+        Set<Product> seen = new HashSet<>();
+        for (int i = 0; i < length; i++) {
+            assertTrue(seen.add(top[i]), "Ranked twice: " + top[i]);
+            assertEquals(sorted.get(i).getSoldQuantity(), top[i].getSoldQuantity(), "Units sold at rank " + i);
+        }
+    }
+
+    private static ElectronicStore createStore() {
+        ElectronicStore store = new ElectronicStore("Leaderboard Test");
+        for (int i = 0; i < PRODUCTS; i++) {
+            store.addProduct(new ToasterOven(25 + i, STOCK, 50, "Black", "Model " + i, i % 2 == 0));
+        }
+        return store;
+    }
+}
@@ -0,0 +1,130 @@
+//Returns against receipts through the StoreEngine: a return is only taken while the sale on the
+//receipt is still in the store, so a reset or a rewind past the checkout voids the receipt
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StoreEngineReturnsTest {
+    private static final int SKU = 0;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void returnAgainstALiveReceiptIsRefunded() throws Exception {
+        try (StoreEngine engine = openEngine()) {
+            long receipt = sell(engine, 2);
+            Product product = engine.getStore().getProduct(SKU);
+
+            StoreEngine.Result result = engine.execute(new StoreCommand.ReturnUnits(receipt, SKU, 1));
+
+            assertTrue(result.accepted());
+            assertEquals(product.getPriceCents(), result.amountCents());
+            assertEquals(1, product.getSoldQuantity());
+            assertEquals(product.getPriceCents(), engine.getRevenueCents());
+        }
+    }
+
+    @Test
+    void resetVoidsEveryEarlierReceipt() throws Exception {
+        try (StoreEngine engine = openEngine()) {
+            long receipt = sell(engine, 2);
+            Product product = engine.getStore().getProduct(SKU);
+            long stock = product.getStockQuantity() + product.getSoldQuantity();
+            //Units sold again after the reset must not be taken back against the old receipt
+            assertTrue(engine.execute(new StoreCommand.Reset()).accepted());
+            long later = sell(engine, 2);
+
+            assertFalse(engine.execute(new StoreCommand.ReturnUnits(receipt, SKU, 1)).accepted());
+            assertTrue(engine.getReceipts().isVoided(receipt));
+            assertEquals(0, engine.getReceipts().getReturnable(receipt, SKU));
+            assertEquals(2, product.getSoldQuantity());
+            assertEquals(stock, product.getStockQuantity() + product.getSoldQuantity());
+            assertEquals(Money.times(product.getPriceCents(), 2), engine.getRevenueCents());
+
+            assertTrue(engine.execute(new StoreCommand.ReturnUnits(later, SKU, 2)).accepted());
+            assertEquals(0, product.getSoldQuantity());
+        }
+    }
+
+    @Test
+    void rewindVoidsOnlyTheReceiptsOfLaterCheckouts() throws Exception {
+        try (StoreEngine engine = openEngine()) {
+            long kept = sell(engine, 1);
+            long checkout = engine.getSales();
+            long undone = sell(engine, 1);
+
+            assertTrue(engine.execute(new StoreCommand.Rewind(checkout)).accepted());
+
+            assertFalse(engine.getReceipts().isVoided(kept));
+            assertTrue(engine.getReceipts().isVoided(undone));
+            assertFalse(engine.execute(new StoreCommand.ReturnUnits(undone, SKU, 1)).accepted());
+            assertTrue(engine.execute(new StoreCommand.ReturnUnits(kept, SKU, 1)).accepted());
+        }
+    }
+
+    @Test
+    void voidsSurviveReopeningTheReceiptStore() throws Exception {
+        long receipt;
+        try (StoreEngine engine = openEngine()) {
+            receipt = sell(engine, 1);
+            engine.execute(new StoreCommand.Reset());
+        }
+        try (ReceiptStore receipts = ReceiptStore.open(directory)) {
+            assertTrue(receipts.isVoided(receipt));
+            assertThrows(IllegalArgumentException.class, () -> receipts.recordReturn(receipt, SKU, 1));
+        }
+    }
+
+    @Test
+    void checkoutIsTakenBackWhenItsReceiptCannotBeWritten() throws Exception {
+        ElectronicStore store = ElectronicStore.createStore();
+        Product product = store.getProduct(SKU);
+        int stock = product.getStockQuantity();
+        Cart cart = new Cart(store, Duration.ofMinutes(15));
+        cart.add(product);
+        ReceiptStore receipts = ReceiptStore.open(directory);
+        receipts.close();
+
+        assertThrows(RuntimeException.class, () -> cart.checkout(receipts));
+
+        assertEquals(stock, product.getStockQuantity());
+        assertEquals(0, product.getSoldQuantity());
+        assertEquals(0, store.getRevenueCents());
+    }
+
+    @Test
+    void checkoutWithoutSalesWritesNoReceipt() throws Exception {
+        try (ReceiptStore receipts = ReceiptStore.open(directory)) {
+            Cart cart = new Cart(ElectronicStore.createStore(), Duration.ofMinutes(15));
+            assertNull(cart.checkout(receipts));
+            assertEquals(0, receipts.size());
+        }
+    }
+
+    private StoreEngine openEngine() throws Exception {
+        StoreEngine engine = new StoreEngine(ElectronicStore::createStore, Duration.ofMinutes(15));
+        engine.openReceipts(directory);
+        return engine;
+    }
+
+    //Checks out quantity units of the product and returns the number of the receipt
+    private static long sell(StoreEngine engine, int quantity) {
+        for (int i = 0; i < quantity; i++) {
+            assertTrue(engine.execute(new StoreCommand.AddToCart(SKU)).accepted());
+        }
+        long before = engine.getReceipts().size();
+        assertTrue(engine.execute(new StoreCommand.Punch()).accepted());
+        assertEquals(before + 1, engine.getReceipts().size());
+        return engine.getReceipts().size();
+    }
+}
@@ -0,0 +1,57 @@
+//The engine's running totals: published after every command and read without waiting for the engine
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StoreEngineSummaryTest {
+    @Test
+    void summaryFollowsEveryCommand() {
+        StoreEngine engine = new StoreEngine(ElectronicStore::createStore, Duration.ofMinutes(15));
+        long price = engine.getStore().getProduct(0).getPriceCents();
+
+        assertEquals(new StoreEngine.Summary(0, 0, 0), engine.getSummary());
+        assertEquals(-1, engine.getRevenuePerSaleCents());
+        engine.execute(new StoreCommand.AddToCart(0));
+        engine.execute(new StoreCommand.AddToCart(0));
+        assertEquals(Money.times(price, 2), engine.getCartTotalCents());
+
+        engine.execute(new StoreCommand.Punch());
+        assertEquals(new StoreEngine.Summary(1, Money.times(price, 2), 0), engine.getSummary());
+        assertEquals(Money.times(price, 2), engine.getRevenuePerSaleCents());
+    }
+
+    @Test
+    void totalsAreReadWhileACommandHoldsTheEngine() throws Exception {
+        StoreEngine engine = new StoreEngine(ElectronicStore::createStore, Duration.ofMinutes(15));
+        engine.execute(new StoreCommand.AddToCart(0));
+        engine.execute(new StoreCommand.Punch());
+        CountDownLatch held = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(1);
+        CompletableFuture<Void> holder = CompletableFuture.runAsync(() -> {
+            synchronized (engine) {
+                held.countDown();
+                try {
+                    done.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        try {
+            assertTrue(held.await(10, TimeUnit.SECONDS));
+            StoreEngine.Summary summary = CompletableFuture.supplyAsync(engine::getSummary).get(10, TimeUnit.SECONDS);
+            assertEquals(1, summary.sales());
+            assertEquals(engine.getStore().getRevenueCents(), summary.revenueCents());
+        } finally {
+            done.countDown();
+            holder.get();
+        }
+    }
+}
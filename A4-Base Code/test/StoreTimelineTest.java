@@ -0,0 +1,123 @@
+//The timeline's running state against the store it listens to: however the events of concurrent
+//sales, returns and deliveries end up ordered in the log, once they are all applied the head must
+//hold exactly the store's quantities and totals
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StoreTimelineTest {
+    private static final int THREADS = 8;
+    private static final int OPERATIONS = 50_000; //Per thread
+    private static final int SNAPSHOT_EVERY = 1_000;
+
+    @Test
+    void headMatchesTheStoreAfterConcurrentChanges() throws Exception {
+        ElectronicStore store = ElectronicStore.createStore();
+        StoreTimeline timeline = new StoreTimeline(InventorySnapshot.of(store), SNAPSHOT_EVERY, 4);
+        store.addInventoryListener(timeline);
+        List<Product> products = store.getStock();
+
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    for (int i = 0; i < OPERATIONS; i++) {
+                        //Few units per product, so sales and returns race for the last ones
+                        Product product = products.get(random.nextInt(products.size()));
+                        int amount = 1 + random.nextInt(3);
+                        switch (random.nextInt(4)) {
+                            case 0, 1 -> {
+                                long sale = product.sellUnits(amount);
+                                if (sale > 0) store.recordCheckout(sale);
+                            }
+                            case 2 -> {
+                                long refund = product.undoSellOperation(amount);
+                                if (refund > 0) store.recordRefund(refund);
+                            }
+                            default -> product.receiveUnits(1);
+                        }
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        InventorySnapshot head = timeline.current();
+        for (Product product : products) {
+            assertEquals(product.getStockQuantity() + product.getReservedQuantity(), head.getStockQuantity(product.getSku()),
+                    "Stock of " + product);
+            assertEquals(product.getSoldQuantity(), head.getSoldQuantity(product.getSku()), "Sold units of " + product);
+        }
+        assertEquals(store.getRevenueCents(), head.getRevenueCents());
+        assertEquals(store.getCheckouts(), head.getCheckouts());
+    }
+
+    @Test
+    void eventsLoggedOutOfOrderAreNotRefused() {
+        ElectronicStore store = ElectronicStore.createStore();
+        Product product = store.getProduct(0);
+        product.sellUnits(product.getStockQuantity());
+        StoreTimeline timeline = new StoreTimeline(InventorySnapshot.of(store), SNAPSHOT_EVERY);
+
+        //A return of one unit and the sale it made possible, logged in the other order
+        timeline.unitsSold(product, 1);
+        timeline.unitsReturned(product, 1);
+
+        InventorySnapshot head = timeline.current();
+        assertEquals(0, head.getStockQuantity(0));
+        assertEquals(product.getSoldQuantity(), head.getSoldQuantity(0));
+    }
+
+    @Test
+    void stateBetweenOutOfOrderEventsCannotBeRewoundTo() {
+        ElectronicStore store = ElectronicStore.createStore();
+        Product product = store.getProduct(0);
+        product.sellUnits(product.getStockQuantity());
+        StoreTimeline timeline = new StoreTimeline(InventorySnapshot.of(store), SNAPSHOT_EVERY);
+
+        timeline.unitsSold(product, 1);
+        timeline.checkoutRecorded(product.getPriceCents());
+        timeline.unitsReturned(product, 1);
+        timeline.checkoutRecorded(0);
+
+        long first = timeline.getFirstCheckout();
+        assertNull(timeline.rewindToCheckout(first + 1));
+        assertNotNull(timeline.rewindToCheckout(first + 2));
+    }
+
+    @Test
+    void scenarioStillRefusesToOversell() {
+        ElectronicStore store = ElectronicStore.createStore();
+        StoreTimeline timeline = new StoreTimeline(InventorySnapshot.of(store), SNAPSHOT_EVERY);
+        StoreTimeline.Scenario scenario = timeline.branch(timeline.getFirstCheckout());
+        int stock = store.getProduct(0).getStockQuantity();
+
+        assertFalse(scenario.sell(0, stock + 1));
+        assertTrue(scenario.sell(0, stock));
+        assertFalse(scenario.undo(0, stock + 1));
+        assertEquals(0, scenario.snapshot().getStockQuantity(0));
+    }
+}
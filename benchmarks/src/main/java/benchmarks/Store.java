@@ -0,0 +1,98 @@
+package benchmarks;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.time.Duration;
+import java.util.Collection;
+
+//Access to the store classes from this package
+//JMH only accepts benchmarks in a named package, and the store classes live in the unnamed
+//package, which cannot be imported. Every handle is a static final constant, so the JIT
+//inlines the calls and the benchmarks measure the store code itself
+final class Store {
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+    static final MethodHandle NEW_STORE = constructor("ElectronicStore", String.class);
+    static final MethodHandle NEW_DESKTOP = constructor("Desktop", double.class, int.class, double.class, int.class, boolean.class, int.class, String.class);
+    static final MethodHandle NEW_LAPTOP = constructor("Laptop", double.class, int.class, double.class, int.class, boolean.class, int.class, double.class);
+    static final MethodHandle NEW_FRIDGE = constructor("Fridge", double.class, int.class, int.class, String.class, String.class, boolean.class);
+    static final MethodHandle NEW_TOASTER_OVEN = constructor("ToasterOven", double.class, int.class, int.class, String.class, String.class, boolean.class);
+    static final MethodHandle NEW_VIEW = constructor("ElectronicStoreView");
+    static final MethodHandle NEW_CART = constructor("Cart", "ElectronicStore", Duration.class);
+
+    static final MethodHandle ADD_PRODUCT = method("ElectronicStore", "addProduct", void.class, "Product");
+    static final MethodHandle GET_PRODUCT = method("ElectronicStore", "getProduct", "Product", int.class);
+    static final MethodHandle REMOVE_FROM_STOCK = method("ElectronicStore", "removeFromStock", long.class, String.class);
+    static final MethodHandle ADD_TO_STOCK = method("ElectronicStore", "addToStock", long.class, String.class);
+    static final MethodHandle SELL_UNITS = method("Product", "sellUnits", long.class, int.class);
+    static final MethodHandle UNDO_SELL_OPERATION = method("Product", "undoSellOperation", long.class, int.class);
+    static final MethodHandle SET_TOP3_PRODUCTS = method("ElectronicStoreView", "setTop3Products", void.class, "ElectronicStore");
+    static final MethodHandle CART_ADD = method("Cart", "add", int.class, "Product");
+    static final MethodHandle CART_REMOVE = method("Cart", "remove", int.class, "Product");
+    static final MethodHandle UPDATE_CART_LINES = method("ElectronicStoreView", "updateCartLines", void.class, "Cart", Collection.class);
+
+    private Store() {
+    }
+
+    //Builds a store with size distinct products, cycling through the four product types
+    static Object createCatalog(int size) throws Throwable {
+        Object store = NEW_STORE.invokeExact("Benchmark Electronics");
+        for (int i = 0; i < size; i++) {
+            double price = 25 + i % 1000;
+            Object product = switch (i % 4) {
+                case 0 -> (Object) NEW_DESKTOP.invokeExact(price, 1_000_000, 3.0, 16, i % 2 == 0, i, "Compact");
+                case 1 -> (Object) NEW_LAPTOP.invokeExact(price, 1_000_000, 2.5, 16, true, i, 15.0);
+                case 2 -> (Object) NEW_FRIDGE.invokeExact(price, 1_000_000, i, "White", "Sub Zero", i % 3 == 0);
+                default -> (Object) NEW_TOASTER_OVEN.invokeExact(price, 1_000_000, i, "Black", "Danby", i % 3 == 0);
+            };
+            ADD_PRODUCT.invokeExact(store, product);
+        }
+        return store;
+    }
+
+    //Parameter types are Class objects, or the names of store classes
+    private static MethodHandle constructor(String owner, Object... parameters) {
+        try {
+            Class<?>[] parameterTypes = new Class<?>[parameters.length];
+            for (int i = 0; i < parameters.length; i++) {
+                parameterTypes[i] = resolve(parameters[i]);
+            }
+            return erase(LOOKUP.findConstructor(Class.forName(owner), MethodType.methodType(void.class, parameterTypes)));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    //Parameter and return types are Class objects, or the names of store classes
+    private static MethodHandle method(String owner, String name, Object returnType, Object... parameters) {
+        try {
+            Class<?>[] parameterTypes = new Class<?>[parameters.length];
+            for (int i = 0; i < parameters.length; i++) {
+                parameterTypes[i] = resolve(parameters[i]);
+            }
+            MethodType type = MethodType.methodType(resolve(returnType), parameterTypes);
+            return erase(LOOKUP.findVirtual(Class.forName(owner), name, type));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private static Class<?> resolve(Object type) throws ClassNotFoundException {
+        return type instanceof Class<?> c ? c : Class.forName((String) type);
+    }
+
+    //Replaces store classes in the handle's type with Object so callers here can invoke it exactly
+    private static MethodHandle erase(MethodHandle handle) {
+        MethodType type = handle.type();
+        for (int i = 0; i < type.parameterCount(); i++) {
+            if (isStoreClass(type.parameterType(i))) type = type.changeParameterType(i, Object.class);
+        }
+        if (isStoreClass(type.returnType())) type = type.changeReturnType(Object.class);
+        return handle.asType(type);
+    }
+
+    private static boolean isStoreClass(Class<?> type) {
+        return !type.isPrimitive() && type.getPackageName().isEmpty();
+    }
+}
@@ -0,0 +1,67 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+//Hot paths of the store model: selling by name, selling by product and product naming
+//The store is shared by all benchmark threads, so running with -t 1, -t 4 and -t max
+//shows how each path holds up under contention. Every sale is undone right away, which
+//keeps the stock level steady however long the benchmark runs
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StoreBenchmark {
+    @Param({"10", "1000", "100000", "1000000"})
+    public int catalogSize;
+
+    private Object store;
+    private Object[] products;
+    private String[] names;
+
+    @Setup
+    public void setUp() throws Throwable {
+        store = Store.createCatalog(catalogSize);
+        products = new Object[catalogSize];
+        names = new String[catalogSize];
+        for (int sku = 0; sku < catalogSize; sku++) {
+            products[sku] = (Object) Store.GET_PRODUCT.invokeExact(store, sku);
+            names[sku] = products[sku].toString();
+        }
+    }
+
+    @Benchmark
+    public long removeThenAddToStock() throws Throwable {
+        String name = names[ThreadLocalRandom.current().nextInt(catalogSize)];
+        long sold = (long) Store.REMOVE_FROM_STOCK.invokeExact(store, name);
+        long restored = (long) Store.ADD_TO_STOCK.invokeExact(store, name);
+        return sold + restored;
+    }
+
+    @Benchmark
+    public long sellThenUndoUnits() throws Throwable {
+        Object product = products[ThreadLocalRandom.current().nextInt(catalogSize)];
+        long sold = (long) Store.SELL_UNITS.invokeExact(product, 1);
+        long restored = (long) Store.UNDO_SELL_OPERATION.invokeExact(product, 1);
+        return sold + restored;
+    }
+
+    @Benchmark
+    public String productName() {
+        return products[ThreadLocalRandom.current().nextInt(catalogSize)].toString();
+    }
+}
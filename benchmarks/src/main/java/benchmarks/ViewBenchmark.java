@@ -0,0 +1,92 @@
+package benchmarks;
+
+import javafx.application.Platform;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+//View work done on every click: refreshing the leaderboard and updating a cart line
+//JavaFX controls are single-threaded, so these always run on one thread. The JavaFX toolkit
+//has to start, which needs a display (or a headless Monocle/software pipeline)
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dprism.order=sw")
+@Threads(1)
+public class ViewBenchmark {
+    private static final int MAX_CART_LINES = 1000;
+
+    @Param({"10", "1000", "100000", "1000000"})
+    public int catalogSize;
+
+    private Object store;
+    private Object view;
+    private Object cart;
+    private Object[] products;
+    private Object[] cartProducts;
+
+    @Setup
+    public void setUp() throws Throwable {
+        try {
+            Platform.startup(() -> {
+            });
+        } catch (IllegalStateException alreadyStarted) {
+            // A previous trial in this JVM started the toolkit
+        }
+        store = Store.createCatalog(catalogSize);
+        view = (Object) Store.NEW_VIEW.invokeExact();
+        products = new Object[catalogSize];
+        for (int sku = 0; sku < catalogSize; sku++) {
+            products[sku] = (Object) Store.GET_PRODUCT.invokeExact(store, sku);
+        }
+        // Fill the cart with up to MAX_CART_LINES distinct lines
+        cart = (Object) Store.NEW_CART.invokeExact(store, Duration.ofHours(1));
+        cartProducts = new Object[Math.min(catalogSize, MAX_CART_LINES)];
+        for (int i = 0; i < cartProducts.length; i++) {
+            cartProducts[i] = products[i];
+            int index = (int) Store.CART_ADD.invokeExact(cart, cartProducts[i]);
+            Store.UPDATE_CART_LINES.invokeExact(view, cart, (Collection<?>) List.of(cartProducts[i]));
+        }
+    }
+
+    @Benchmark
+    public void setTop3Products() throws Throwable {
+        Store.SET_TOP3_PRODUCTS.invokeExact(view, store);
+    }
+
+    @Benchmark
+    public long sellThenSetTop3Products() throws Throwable {
+        Object product = products[ThreadLocalRandom.current().nextInt(catalogSize)];
+        long sold = (long) Store.SELL_UNITS.invokeExact(product, 1);
+        Store.SET_TOP3_PRODUCTS.invokeExact(view, store);
+        long restored = (long) Store.UNDO_SELL_OPERATION.invokeExact(product, 1);
+        return sold + restored;
+    }
+
+    @Benchmark
+    public void addThenRemoveCartUnit() throws Throwable {
+        Object product = cartProducts[ThreadLocalRandom.current().nextInt(cartProducts.length)];
+        Collection<?> changed = List.of(product);
+        int index = (int) Store.CART_ADD.invokeExact(cart, product);
+        Store.UPDATE_CART_LINES.invokeExact(view, cart, changed);
+        index = (int) Store.CART_REMOVE.invokeExact(cart, product);
+        Store.UPDATE_CART_LINES.invokeExact(view, cart, changed);
+    }
+}